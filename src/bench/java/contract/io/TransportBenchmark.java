@@ -0,0 +1,112 @@
+package contract.io;
+
+import contract.operation.Key;
+import contract.operation.OP_Write;
+import contract.wrapper.Locator;
+import contract.wrapper.Operation;
+import contract.wrapper.Root;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the same workload over {@link TcpCommunicator} and {@link JGroupCommunicator}: one
+ * sender streams numbered write operations in Wrappers of a fixed size to one receiver,
+ * which checks that they arrive in order. Prints throughput and whether any operation was
+ * lost, duplicated or reordered. JGroups needs a working multicast configuration.
+ */
+public class TransportBenchmark {
+
+    private static final long TIMEOUT_MILLIS = 60000;
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args Operations per Wrapper, total number of operations and the transports to
+     *            run ({@code tcp}, {@code jgroups}). Defaults to {@code 100 200000 tcp jgroups}.
+     * @throws Exception If a transport cannot be set up.
+     */
+    public static void main (String[] args) throws Exception {
+        int batch = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int total = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        List<String> transports = new ArrayList<String>();
+        for (int i = 2; i < args.length; i++) {
+            transports.add(args[i]);
+        }
+        if (transports.isEmpty()) {
+            transports.add("tcp");
+            transports.add("jgroups");
+        }
+        for (String transport : transports) {
+            run(transport, batch, total);
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private static void run (String transport, int batch, int total) throws IOException, InterruptedException {
+        AtomicLong received = new AtomicLong();
+        AtomicBoolean outOfOrder = new AtomicBoolean();
+        Communicator[] receiver = new Communicator[1];
+        ComListener listener = messageType -> {
+            Root root;
+            while ((root = receiver[0].popQueuedMessage()) != null) {
+                for (Operation op : root.body) {
+                    long value = (long) ((double[]) op.body.get(Key.value))[0];
+                    if (value != received.getAndIncrement()) {
+                        outOfOrder.set(true);
+                    }
+                }
+            }
+        };
+
+        Communicator sender;
+        String channel = "TransportBenchmark-" + System.nanoTime();
+        if (transport.equals("tcp")) {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 21998);
+            receiver[0] = new TcpCommunicator("receiver", 1, address, listener, false);
+            sender = new TcpCommunicator("sender", 2, address, messageType -> {}, true);
+        } else if (transport.equals("jgroups")) {
+            receiver[0] = new JGroupCommunicator("receiver", 1, channel, listener, false);
+            JGroupCommunicator jSender = new JGroupCommunicator("sender", 2, channel, messageType -> {}, true);
+            jSender.setBinarySenderMode();
+            sender = jSender;
+        } else {
+            throw new IllegalArgumentException("Unknown transport: " + transport);
+        }
+        Thread.sleep(1000); // Let the members find each other.
+
+        long start = System.nanoTime();
+        int next = 0;
+        while (next < total) {
+            List<Operation> body = new ArrayList<Operation>(batch);
+            for (int i = 0; i < batch && next < total; i++) {
+                OP_Write op = new OP_Write();
+                op.setTarget(new Locator("array", new int[] {i}));
+                op.setValue(new double[] {next++});
+                body.add(op);
+            }
+            sender.sendWrapper(new Root(null, body));
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (received.get() < total && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+        System.out.printf("%s: batch=%d, received %d/%d, in order=%b, %.0f ms, %.0f ops/s%n", transport, batch,
+                received.get(), total, !outOfOrder.get(), millis, received.get() / millis * 1000);
+        sender.close();
+        receiver[0].close();
+    }
+}
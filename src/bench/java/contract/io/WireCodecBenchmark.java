@@ -0,0 +1,152 @@
+package contract.io;
+
+import com.google.gson.Gson;
+import contract.io.Communicator.CommunicatorMessage;
+import contract.operation.OP_Write;
+import contract.wrapper.Locator;
+import contract.wrapper.Operation;
+import contract.wrapper.Root;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes the same Wrapper in the three forms a JGroupCommunicator can send:
+ * a Java-serialized Wrapper (native), a Java-serialized JSON string (JSON) and
+ * {@link WireCodec}, and prints the size of each form and the time taken. Correctness is
+ * covered by {@code WireCodecTest}.
+ */
+public class WireCodecBenchmark {
+
+    private static final Gson gson = GsonContructor.build();
+
+    private static final int SENDER_ID = 42;
+
+    /**
+     * Print size and encode + decode time per message for each form.
+     *
+     * @param args Wrapper sizes to measure, in operations. Defaults to 1, 100 and 1000.
+     * @throws Exception If a form fails to encode or decode.
+     */
+    public static void main (String[] args) throws Exception {
+        int[] sizes = {1, 100, 1000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int size : sizes) {
+            Root root = createRoot(size);
+            int iterations = Math.max(1, 200000 / size);
+            StringBuilder line = new StringBuilder("ops=" + size);
+            for (Form form : Form.values()) {
+                measure(form, root, iterations); // Warm up.
+                long start = System.nanoTime();
+                int bytes = measure(form, root, iterations);
+                double micros = (System.nanoTime() - start) / 1e3 / iterations;
+                line.append(String.format(" | %s: %d B %.1f us", form.name().toLowerCase(), bytes, micros));
+            }
+            System.out.println(line);
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private static int measure (Form form, Root root, int iterations) throws Exception {
+        int bytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            byte[] encoded = form.encode(root);
+            form.decode(encoded);
+            bytes = encoded.length;
+        }
+        return bytes;
+    }
+
+    private static Root createRoot (int size) {
+        List<Operation> body = new ArrayList<Operation>(size);
+        for (int i = 0; i < size; i++) {
+            OP_Write op = new OP_Write();
+            op.setTarget(new Locator("array", new int[] {i % 50}));
+            op.setSource(new Locator("tmp", null));
+            op.setValue(new double[] {i * 1.5});
+            op.source = "Sort.java";
+            op.sourceRows = new int[] {40, 41};
+            body.add(op);
+        }
+        return new Root(null, body);
+    }
+
+    private static byte[] serialize (CommunicatorMessage message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static CommunicatorMessage deserialize (byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (CommunicatorMessage) in.readObject();
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Internal class
+     *
+     */
+    // ============================================================= //
+
+    private enum Form {
+        NATIVE {
+            @Override
+            byte[] encode (Root root) throws IOException {
+                return serialize(new CommunicatorMessage(root, SENDER_ID, CommunicatorMessage.WRAPPER));
+            }
+
+            @Override
+            Root decode (byte[] data) throws Exception {
+                return (Root) deserialize(data).payload;
+            }
+        },
+        JSON {
+            @Override
+            byte[] encode (Root root) throws IOException {
+                return serialize(new CommunicatorMessage(gson.toJson(root), SENDER_ID, CommunicatorMessage.JSON));
+            }
+
+            @Override
+            Root decode (byte[] data) throws Exception {
+                return gson.fromJson((String) deserialize(data).payload, Root.class);
+            }
+        },
+        WIRE {
+            @Override
+            byte[] encode (Root root) throws IOException {
+                return WireCodec.encode(new CommunicatorMessage(root, SENDER_ID, CommunicatorMessage.WRAPPER));
+            }
+
+            @Override
+            Root decode (byte[] data) throws Exception {
+                return (Root) WireCodec.decode(data, 0, data.length).payload;
+            }
+        };
+
+        abstract byte[] encode (Root root) throws IOException;
+
+        abstract Root decode (byte[] data) throws Exception;
+    }
+}
@@ -134,6 +134,39 @@ public class Array extends DataStructure {
         checkMinMaxChanged(initMax);
     }
 
+    @Override
+    public void restore (StructureSnapshot snapshot) {
+        super.restore(snapshot);
+        size = getSize();
+        if (size == null) { // Use the extent of the snapshot, as init does with its values.
+            size = extent(snapshot.indices);
+        }
+        resetMinMax();
+        for (double value : snapshot.values) {
+            checkMinMaxChanged(value);
+        }
+    }
+
+    /**
+     * Returns the size of the smallest array holding every index, or {@code null} if
+     * there are none.
+     */
+    private static int[] extent (int[][] indices) {
+        int[] extent = null;
+        for (int[] index : indices) {
+            if (index == null) {
+                continue;
+            }
+            if (extent == null) {
+                extent = new int[index.length];
+            }
+            for (int i = 0; i < Math.min(index.length, extent.length); i++) {
+                extent[i] = Math.max(extent[i], index[i] + 1);
+            }
+        }
+        return extent;
+    }
+
     @Override
     public void clear () {
         elements.clear();
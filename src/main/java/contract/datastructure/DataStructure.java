@@ -16,6 +16,8 @@ import javafx.collections.ObservableList;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.Paint;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -157,6 +159,9 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
      * @param op The operation to be apply.
      */
     public void applyOperation (Operation op) {
+        if (op.operation == OperationType.checkpoint) {
+            return; // Restored from, never applied. Not an access to the structure.
+        }
         applyOperationCalled = true;
 
         switch (op.operation) {
@@ -176,6 +181,65 @@ public abstract class DataStructure extends AnnotatedVariable implements Operati
         setActive(true);
     }
 
+    /**
+     * Take a snapshot of the current state of this DataStructure. The snapshot can later
+     * be passed to {@link #restore(StructureSnapshot)} to return to this state without
+     * replaying operations.
+     *
+     * @return A snapshot of this DataStructure.
+     */
+    public StructureSnapshot snapshot () {
+        int n = elements.size();
+        int[][] indices = new int[n][];
+        double[] values = new double[n];
+        double[] previousValues = new double[n];
+        int[] elementCounters = new int[n * StructureSnapshot.COUNTERS];
+        boolean[] inactive = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            Element e = elements.get(i);
+            indices[i] = e instanceof IndexedElement ? ((IndexedElement) e).getIndex() : null;
+            values[i] = e.getNumValue();
+            previousValues[i] = e.getPrevNumValue();
+            System.arraycopy(e.oc.getCounts(), 0, elementCounters, i * StructureSnapshot.COUNTERS,
+                    StructureSnapshot.COUNTERS);
+            for (Element ie : inactiveElements) {
+                if (ie == e) {
+                    inactive[i] = true;
+                    break;
+                }
+            }
+        }
+        return new StructureSnapshot(identifier, active, oc.getCounts(), indices, values, previousValues,
+                elementCounters, inactive);
+    }
+
+    /**
+     * Restore this DataStructure to the state held by a snapshot taken using
+     * {@link #snapshot()}. All elements are replaced.
+     *
+     * @param snapshot The snapshot to restore.
+     */
+    public void restore (StructureSnapshot snapshot) {
+        clearElementLists();
+        List<Element> restored = new ArrayList<Element>(snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            IndexedElement e = new IndexedElement(snapshot.previousValues[i], snapshot.indices[i]);
+            e.setValue(snapshot.values[i]);
+            int[] counts = new int[StructureSnapshot.COUNTERS];
+            System.arraycopy(snapshot.elementCounters, i * StructureSnapshot.COUNTERS, counts, 0,
+                    StructureSnapshot.COUNTERS);
+            e.oc.setCounts(counts);
+            restored.add(e);
+            if (snapshot.inactive[i]) {
+                inactiveElements.add(e);
+            }
+        }
+        elements.setAll(restored);
+        oc.setCounts(snapshot.counters);
+        active = snapshot.active;
+        setRepaintAll(true);
+    }
+
     /**
      * Indicate to the DataStructure that the lists returned by
      * {@code getModifiedElements()} <b>and</b> {@code getResetElements} have been drawn.
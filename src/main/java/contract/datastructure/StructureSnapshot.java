@@ -0,0 +1,89 @@
+package contract.datastructure;
+
+import contract.assets.Const;
+
+import java.io.Serializable;
+
+/**
+ * A compact snapshot of the state of a {@link DataStructure}: the values, counters and
+ * inactive flags of its elements, and the counters and active flag of the structure
+ * itself. Counters are stored in the order used by
+ * {@link contract.utility.OperationCounter#getCounts()}.
+ */
+public class StructureSnapshot implements Serializable {
+
+    /**
+     * Version number for this class.
+     */
+    private static final long serialVersionUID = Const.VERSION_NUMBER;
+    /**
+     * The number of counters per structure or element.
+     */
+    public static final int COUNTERS = 5;
+
+    /**
+     * The identifier of the structure.
+     */
+    public final String identifier;
+    /**
+     * The active flag of the structure.
+     */
+    public final boolean active;
+    /**
+     * The counters of the structure.
+     */
+    public final int[] counters;
+    /**
+     * The indices of the elements, in element order.
+     */
+    public final int[][] indices;
+    /**
+     * The values of the elements.
+     */
+    public final double[] values;
+    /**
+     * The previous values of the elements.
+     */
+    public final double[] previousValues;
+    /**
+     * The counters of the elements, {@link #COUNTERS} per element.
+     */
+    public final int[] elementCounters;
+    /**
+     * The inactive flags of the elements.
+     */
+    public final boolean[] inactive;
+
+    /**
+     * Create a new StructureSnapshot.
+     *
+     * @param identifier The identifier of the structure.
+     * @param active The active flag of the structure.
+     * @param counters The counters of the structure.
+     * @param indices The indices of the elements.
+     * @param values The values of the elements.
+     * @param previousValues The previous values of the elements.
+     * @param elementCounters The counters of the elements.
+     * @param inactive The inactive flags of the elements.
+     */
+    public StructureSnapshot (String identifier, boolean active, int[] counters, int[][] indices, double[] values,
+                              double[] previousValues, int[] elementCounters, boolean[] inactive) {
+        this.identifier = identifier;
+        this.active = active;
+        this.counters = counters;
+        this.indices = indices;
+        this.values = values;
+        this.previousValues = previousValues;
+        this.elementCounters = elementCounters;
+        this.inactive = inactive;
+    }
+
+    /**
+     * Returns the number of elements in this snapshot.
+     *
+     * @return The number of elements.
+     */
+    public int size () {
+        return values.length;
+    }
+}
@@ -0,0 +1,510 @@
+package contract.io;
+
+import contract.wrapper.Root;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link Communicator} decorator which sends messages on a dedicated thread, so that
+ * callers are never blocked by the network. Outgoing messages are published into a
+ * bounded ring buffer allocated up front, which the sender thread drains in order. What
+ * happens when the buffer is full is decided by the policy:
+ * <ul>
+ * <li>{@link #POLICY_BLOCK}: the caller waits until there is room.</li>
+ * <li>{@link #POLICY_DROP_OLDEST}: the oldest queued message is dropped.</li>
+ * <li>{@link #POLICY_SAMPLE}: only every {@code n}th message is kept, replacing the
+ * oldest queued message. The others are dropped.</li>
+ * </ul>
+ * Chunks, topics and catch-ups share the buffer with Wrappers so they are sent in the
+ * order they were given. Chunks and catch-ups are never dropped: they wait for room
+ * whatever the policy, and are skipped over when making room for other messages.
+ * Incoming messages, subscriptions and flow control reports are handled by the
+ * decorated Communicator directly.
+ */
+public class AsyncCommunicator implements Communicator {
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Default capacity of the ring buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * Block the caller until there is room in the buffer.
+     */
+    public static final short POLICY_BLOCK = 0;
+    /**
+     * Drop the oldest queued message to make room.
+     */
+    public static final short POLICY_DROP_OLDEST = 1;
+    /**
+     * Keep every {@code n}th message when full, dropping the others.
+     */
+    public static final short POLICY_SAMPLE = 2;
+
+    private final Communicator communicator;
+    private final short policy;
+    private final int sampleRate;
+    private final Thread sender;
+    // Ring buffer, guarded by lock.
+    private final Object[] ring;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private int head;
+    private int size;
+    private int sending;
+    private long sampled;
+    private volatile boolean closed;
+    // Counters
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // ============================================================= //
+    /*
+     *
+     * Constructors
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Create a new AsyncCommunicator with the default capacity, which blocks when full.
+     *
+     * @param communicator The Communicator to send messages with.
+     */
+    public AsyncCommunicator (Communicator communicator) {
+        this(communicator, DEFAULT_CAPACITY, POLICY_BLOCK, 1);
+    }
+
+    /**
+     * Create a new AsyncCommunicator.
+     *
+     * @param communicator The Communicator to send messages with.
+     * @param capacity The number of messages the ring buffer can hold.
+     * @param policy What to do when the buffer is full.
+     * @param sampleRate Keep every {@code sampleRate}th message when full. Only used by
+     * {@link #POLICY_SAMPLE}.
+     */
+    public AsyncCommunicator (Communicator communicator, int capacity, short policy, int sampleRate) {
+        if (communicator == null) {
+            throw new IllegalArgumentException("Communicator may not be null.");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1");
+        }
+        if (policy < POLICY_BLOCK || policy > POLICY_SAMPLE) {
+            throw new IllegalArgumentException("Unknown policy: " + policy);
+        }
+        if (policy == POLICY_SAMPLE && sampleRate < 1) {
+            throw new IllegalArgumentException("sampleRate < 1");
+        }
+        this.communicator = communicator;
+        this.policy = policy;
+        this.sampleRate = sampleRate;
+        ring = new Object[capacity];
+        sender = new Thread(this::run, "AsyncCommunicator");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Getters and Setters
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns the number of messages accepted into the buffer.
+     *
+     * @return The number of messages enqueued.
+     */
+    public long getEnqueued () {
+        return enqueued.get();
+    }
+
+    /**
+     * Returns the number of messages successfully sent by the decorated Communicator.
+     *
+     * @return The number of messages sent.
+     */
+    public long getSent () {
+        return sent.get();
+    }
+
+    /**
+     * Returns the number of messages dropped because the buffer was full.
+     *
+     * @return The number of messages dropped.
+     */
+    public long getDropped () {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of messages the decorated Communicator failed to send.
+     *
+     * @return The number of messages which could not be sent.
+     */
+    public long getFailed () {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of messages currently waiting in the buffer.
+     *
+     * @return The number of queued messages.
+     */
+    public int getQueued () {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Interface
+     *
+     */
+    // ============================================================= //
+
+    @Override
+    public Root popQueuedMessage () {
+        return communicator.popQueuedMessage();
+    }
+
+    @Override
+    public List<Root> getAllQueuedMessages () {
+        return communicator.getAllQueuedMessages();
+    }
+
+    @Override
+    public int drainQueuedMessages (Collection<? super Root> target) {
+        return communicator.drainQueuedMessages(target);
+    }
+
+    /**
+     * Queue the given Wrapper for sending.
+     *
+     * @param outgoing The Wrapper to send.
+     * @return True if the Wrapper was queued, false if it was dropped or this
+     * AsyncCommunicator is closed.
+     */
+    @Override
+    public boolean sendWrapper (Root outgoing) {
+        return publish(outgoing);
+    }
+
+    /**
+     * Queue the given Wrappers for sending.
+     *
+     * @param outgoing The list of Wrappers to send.
+     * @return True if all Wrappers were queued.
+     */
+    @Override
+    public boolean sendWrappers (List<Root> outgoing) {
+        boolean allSuccessful = true;
+        for (Root w : outgoing) {
+            allSuccessful = publish(w) && allSuccessful;
+        }
+        return allSuccessful;
+    }
+
+    /**
+     * Queue the given String for sending. <br>
+     * <b>NOTE:</b> JSONString must be a valid serialisation of a Wrapper.
+     *
+     * @param JSONString The JSON String to send.
+     * @return True if the String was queued, false if it was dropped or this
+     * AsyncCommunicator is closed.
+     */
+    @Override
+    public boolean sendString (String JSONString) {
+        return publish(JSONString);
+    }
+
+    /**
+     * Send a flow control report directly, bypassing the buffer.
+     *
+     * @param credit The report to send.
+     * @return True if the report was sent.
+     */
+    @Override
+    public boolean sendCredit (FlowControl.Credit credit) {
+        return communicator.sendCredit(credit);
+    }
+
+    @Override
+    public FlowControl getFlowControl () {
+        return communicator.getFlowControl();
+    }
+
+    /**
+     * Queue the given chunk for sending. Chunks are never dropped: this method waits
+     * for room if the buffer is full.
+     *
+     * @param chunk The chunk to send.
+     * @return True if the chunk was queued, false if this AsyncCommunicator is closed.
+     */
+    @Override
+    public boolean sendChunk (Chunk chunk) {
+        return publish(chunk);
+    }
+
+    /**
+     * Queue the given topic for sending.
+     *
+     * @param topic The topic to send.
+     * @return True if the topic was queued, false if it was dropped or this
+     * AsyncCommunicator is closed.
+     */
+    @Override
+    public boolean sendTopic (Topic topic) {
+        return publish(topic);
+    }
+
+    @Override
+    public boolean subscribe (Collection<String> identifiers) {
+        return communicator.subscribe(identifiers);
+    }
+
+    @Override
+    public Integer popJoinedMember () {
+        return communicator.popJoinedMember();
+    }
+
+    /**
+     * Queue a catch-up for the given member. Catch-ups are never dropped: this method
+     * waits for room if the buffer is full.
+     *
+     * @param receiverId The id of the member catching up.
+     * @param catchUp The Wrapper bringing the member to the current state.
+     * @param chunkSize The maximum estimated size of each chunk, in bytes.
+     * @return True if the catch-up was queued, false if this AsyncCommunicator is closed.
+     */
+    @Override
+    public boolean sendCatchUp (int receiverId, Root catchUp, int chunkSize) {
+        return publish(new CatchUp(receiverId, catchUp, chunkSize));
+    }
+
+    /**
+     * Wait until every queued message has been handed to the decorated Communicator.
+     *
+     * @param timeoutMillis The maximum time to wait, in milliseconds.
+     * @return True if the buffer was drained, false if the time ran out.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitDrained (long timeoutMillis) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (size > 0 || sending > 0) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = drained.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Send the messages still queued, stop the sender thread and close the decorated
+     * Communicator.
+     */
+    @Override
+    public void close () {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            sender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        communicator.close();
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private boolean publish (Object message) {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (size == ring.length && policy != POLICY_BLOCK && isDroppable(message)) {
+                if (policy == POLICY_SAMPLE && ++sampled % sampleRate != 0) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                if (dropOldest()) {
+                    dropped.incrementAndGet();
+                }
+            }
+            while (size == ring.length && !closed) {
+                notFull.awaitUninterruptibly();
+            }
+            if (closed) {
+                return false;
+            }
+            ring[(head + size) % ring.length] = message;
+            size++;
+            enqueued.incrementAndGet();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Chunks and catch-ups are never dropped: losing one would ruin the whole transfer.
+     */
+    private static boolean isDroppable (Object message) {
+        return message instanceof Root || message instanceof String || message instanceof Topic;
+    }
+
+    /**
+     * Remove the oldest droppable message from the buffer, keeping the order of the rest.
+     * Must hold the lock.
+     *
+     * @return False if no queued message may be dropped.
+     */
+    private boolean dropOldest () {
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % ring.length;
+            if (isDroppable(ring[index])) {
+                for (int j = i; j > 0; j--) {
+                    ring[(head + j) % ring.length] = ring[(head + j - 1) % ring.length];
+                }
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void run () {
+        Object[] batch = new Object[ring.length];
+        while (true) {
+            int count;
+            lock.lock();
+            try {
+                while (size == 0 && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (size == 0) {
+                    drained.signalAll();
+                    return; // Closed and drained.
+                }
+                // Take everything queued at once, so producers contend for the lock less.
+                count = size;
+                for (int i = 0; i < count; i++) {
+                    batch[i] = ring[head];
+                    ring[head] = null;
+                    head = (head + 1) % ring.length;
+                }
+                size = 0;
+                sending = count;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            for (int i = 0; i < count; i++) {
+                Object message = batch[i];
+                batch[i] = null;
+                boolean success;
+                try {
+                    success = send(message);
+                } catch (RuntimeException e) {
+                    System.err.println("Message could not be sent: " + e);
+                    success = false;
+                }
+                (success ? sent : failed).incrementAndGet();
+            }
+            lock.lock();
+            try {
+                sending = 0;
+                if (size == 0) {
+                    drained.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private boolean send (Object message) {
+        if (message instanceof Root) {
+            return communicator.sendWrapper((Root) message);
+        } else if (message instanceof String) {
+            return communicator.sendString((String) message);
+        } else if (message instanceof Chunk) {
+            return communicator.sendChunk((Chunk) message);
+        } else if (message instanceof Topic) {
+            return communicator.sendTopic((Topic) message);
+        } else {
+            CatchUp c = (CatchUp) message;
+            return communicator.sendCatchUp(c.receiverId, c.root, c.chunkSize);
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Internal class
+     *
+     */
+    // ============================================================= //
+
+    private static final class CatchUp {
+        private final int receiverId;
+        private final Root root;
+        private final int chunkSize;
+
+        private CatchUp (int receiverId, Root root, int chunkSize) {
+            this.receiverId = receiverId;
+            this.root = root;
+            this.chunkSize = chunkSize;
+        }
+    }
+}
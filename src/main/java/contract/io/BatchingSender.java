@@ -0,0 +1,390 @@
+package contract.io;
+
+import contract.wrapper.Locator;
+import contract.wrapper.Operation;
+import contract.wrapper.Root;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers streamed {@link Operation}s into batches, sending each batch as the body of a
+ * single {@link Root} instead of sending one message per operation. A batch is flushed
+ * when it holds {@code maxOperations} operations, when its estimated size reaches
+ * {@code maxBytes}, when {@code lingerMillis} milliseconds have passed since its first
+ * operation was added, or when {@link #flush()} is called. Batches are sent in the order
+ * they were filled, and operations keep the order in which they were added. <br>
+ * <b>NOTE:</b> Anything sent directly through the {@link Communicator} while a batch is
+ * pending will overtake it. Call {@link #flush()} first to keep the order.
+ */
+public class BatchingSender implements Closeable {
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Default maximum number of operations per batch.
+     */
+    public static final int DEFAULT_MAX_OPERATIONS = 512;
+    /**
+     * Default maximum estimated size of a batch, in bytes. Kept below the default
+     * fragmentation size of the JGroups stack.
+     */
+    public static final int DEFAULT_MAX_BYTES = 48 * 1024;
+    /**
+     * Default time a batch may wait for more operations, in milliseconds.
+     */
+    public static final long DEFAULT_LINGER = 5;
+
+    /**
+     * Flushed because the batch reached the operation limit.
+     */
+    public static final short FLUSH_SIZE = 0;
+    /**
+     * Flushed because the batch reached the byte limit.
+     */
+    public static final short FLUSH_BYTES = 1;
+    /**
+     * Flushed because the linger time passed.
+     */
+    public static final short FLUSH_LINGER = 2;
+    /**
+     * Flushed explicitly by the caller.
+     */
+    public static final short FLUSH_EXPLICIT = 3;
+
+    private final Communicator communicator;
+    private final int maxOperations;
+    private final int maxBytes;
+    private final long lingerMillis;
+    private final ScheduledExecutorService timer;
+    // Guarded by this.
+    private List<Operation> batch;
+    private int batchBytes;
+    private ScheduledFuture<?> lingerTask;
+    private boolean closed;
+    private volatile boolean topicRouting;
+    // Statistics, guarded by this.
+    private long batches;
+    private long operations;
+    private long bytes;
+    private int largestBatch;
+    private final long[] flushes = new long[4];
+    private long failures;
+
+    // ============================================================= //
+    /*
+     *
+     * Constructors
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Create a new BatchingSender using the default limits.
+     *
+     * @param communicator The Communicator used to send batches.
+     */
+    public BatchingSender (Communicator communicator) {
+        this(communicator, DEFAULT_MAX_OPERATIONS, DEFAULT_MAX_BYTES, DEFAULT_LINGER);
+    }
+
+    /**
+     * Create a new BatchingSender.
+     *
+     * @param communicator The Communicator used to send batches.
+     * @param maxOperations The maximum number of operations per batch.
+     * @param maxBytes The maximum estimated size of a batch in bytes, or 0 for no limit.
+     * @param lingerMillis The time a batch may wait for more operations in milliseconds,
+     * or 0 to only flush on the limits and on {@link #flush()}.
+     */
+    public BatchingSender (Communicator communicator, int maxOperations, int maxBytes, long lingerMillis) {
+        if (communicator == null) {
+            throw new IllegalArgumentException("Communicator may not be null.");
+        }
+        if (maxOperations < 1) {
+            throw new IllegalArgumentException("maxOperations < 1");
+        }
+        this.communicator = communicator;
+        this.maxOperations = maxOperations;
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+        if (lingerMillis > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "BatchingSender");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            timer = null;
+        }
+        batch = new ArrayList<Operation>(maxOperations);
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Getters and Setters
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Send each batch split into topics, so that receivers can drop operations for
+     * structures they have not subscribed to. See {@link Topic#send(Communicator, Root)}.
+     *
+     * @param topicRouting {@code true} to split batches into topics.
+     */
+    public void setTopicRouting (boolean topicRouting) {
+        this.topicRouting = topicRouting;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Interface
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Add an operation to the current batch, flushing the batch if it is full.
+     *
+     * @param op The operation to send.
+     * @return False if a flush triggered by this call failed, or if this sender is
+     * closed. True otherwise.
+     */
+    public synchronized boolean add (Operation op) {
+        if (closed) {
+            return false;
+        }
+        if (batch.isEmpty() && timer != null) {
+            lingerTask = timer.schedule(this::linger, lingerMillis, TimeUnit.MILLISECONDS);
+        }
+        batch.add(op);
+        batchBytes += estimateSize(op);
+        if (batch.size() >= maxOperations) {
+            return flush(FLUSH_SIZE);
+        } else if (maxBytes > 0 && batchBytes >= maxBytes) {
+            return flush(FLUSH_BYTES);
+        }
+        return true;
+    }
+
+    /**
+     * Add operations to the current batch, flushing whenever the batch is full.
+     *
+     * @param ops The operations to send.
+     * @return False if any flush triggered by this call failed. True otherwise.
+     */
+    public synchronized boolean addAll (List<Operation> ops) {
+        boolean allSuccessful = true;
+        for (Operation op : ops) {
+            allSuccessful = add(op) && allSuccessful;
+        }
+        return allSuccessful;
+    }
+
+    /**
+     * Send the current batch immediately. Has no effect if the batch is empty.
+     *
+     * @return True if the batch was sent or was empty, false otherwise.
+     */
+    public synchronized boolean flush () {
+        return flush(FLUSH_EXPLICIT);
+    }
+
+    /**
+     * Returns the number of operations waiting in the current batch.
+     *
+     * @return The number of pending operations.
+     */
+    public synchronized int getPending () {
+        return batch.size();
+    }
+
+    /**
+     * Returns the statistics of the batches sent so far.
+     *
+     * @return A snapshot of the statistics of this sender.
+     */
+    public synchronized Stats getStats () {
+        return new Stats(batches, operations, bytes, largestBatch, flushes.clone(), failures);
+    }
+
+    /**
+     * Flush the current batch and stop the linger timer. Operations added after closing
+     * are rejected. The Communicator is not closed.
+     */
+    @Override
+    public void close () {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            flush(FLUSH_EXPLICIT);
+            closed = true;
+        }
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private synchronized void linger () {
+        flush(FLUSH_LINGER);
+    }
+
+    private boolean flush (short reason) {
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        if (batch.isEmpty()) {
+            return true;
+        }
+        List<Operation> outgoing = batch;
+        int outgoingBytes = batchBytes;
+        batch = new ArrayList<Operation>(maxOperations);
+        batchBytes = 0;
+        // Sent while holding the lock, so that batches cannot overtake each other.
+        Root root = new Root(null, outgoing);
+        boolean sent = topicRouting ? Topic.send(communicator, root) : communicator.sendWrapper(root);
+        if (sent) {
+            batches++;
+            operations += outgoing.size();
+            bytes += outgoingBytes;
+            largestBatch = Math.max(largestBatch, outgoing.size());
+            flushes[reason]++;
+        } else {
+            failures++;
+        }
+        return sent;
+    }
+
+    /**
+     * Cheap estimate of the encoded size of an operation, in bytes. Intended to keep
+     * batches within the size of a datagram, not to be exact.
+     *
+     * @param op The operation to estimate.
+     * @return The estimated size of the operation.
+     */
+    static int estimateSize (Operation op) {
+        int size = 16;
+        if (op.source != null) {
+            size += op.source.length();
+        }
+        if (op.sourceRows != null) {
+            size += 4 * op.sourceRows.length;
+        }
+        if (op.body != null) {
+            for (Object value : op.body.values()) {
+                size += 4 + estimateValue(value);
+            }
+        }
+        return size;
+    }
+
+    private static int estimateValue (Object value) {
+        if (value instanceof Locator) {
+            Locator locator = (Locator) value;
+            return 4 + (locator.identifier == null ? 0 : locator.identifier.length())
+                    + (locator.index == null ? 0 : 4 * locator.index.length);
+        } else if (value instanceof double[]) {
+            return 8 * ((double[]) value).length;
+        } else if (value instanceof String) {
+            return ((String) value).length();
+        } else if (value instanceof List) {
+            int size = 0;
+            for (Object o : (List<?>) value) {
+                size += o instanceof Operation ? estimateSize((Operation) o) : estimateValue(o);
+            }
+            return size;
+        }
+        return 16;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Internal class
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Statistics of the batches sent by a BatchingSender.
+     */
+    public static class Stats {
+
+        /**
+         * The number of batches sent.
+         */
+        public final long batches;
+        /**
+         * The number of operations sent.
+         */
+        public final long operations;
+        /**
+         * The estimated number of bytes sent.
+         */
+        public final long bytes;
+        /**
+         * The number of operations in the largest batch sent.
+         */
+        public final int largestBatch;
+        /**
+         * The number of batches flushed for each reason, indexed by
+         * {@link BatchingSender#FLUSH_SIZE}, {@link BatchingSender#FLUSH_BYTES},
+         * {@link BatchingSender#FLUSH_LINGER} and {@link BatchingSender#FLUSH_EXPLICIT}.
+         */
+        public final long[] flushes;
+        /**
+         * The number of batches which could not be sent.
+         */
+        public final long failures;
+
+        Stats (long batches, long operations, long bytes, int largestBatch, long[] flushes, long failures) {
+            this.batches = batches;
+            this.operations = operations;
+            this.bytes = bytes;
+            this.largestBatch = largestBatch;
+            this.flushes = flushes;
+            this.failures = failures;
+        }
+
+        /**
+         * Returns the average number of operations per batch.
+         *
+         * @return The average batch size, or 0 if no batches were sent.
+         */
+        public double averageBatchSize () {
+            return batches == 0 ? 0 : (double) operations / batches;
+        }
+
+        @Override
+        public String toString () {
+            return "batches = " + batches + ", operations = " + operations + ", avg = "
+                    + String.format("%.1f", averageBatchSize()) + ", max = " + largestBatch + ", size/bytes/linger/explicit = "
+                    + flushes[FLUSH_SIZE] + "/" + flushes[FLUSH_BYTES] + "/" + flushes[FLUSH_LINGER] + "/"
+                    + flushes[FLUSH_EXPLICIT] + ", failures = " + failures;
+        }
+    }
+}
@@ -0,0 +1,737 @@
+package contract.io;
+
+import com.google.gson.Gson;
+import contract.datastructure.StructureSnapshot;
+import contract.operation.HighLevelOperation;
+import contract.operation.Key;
+import contract.operation.OP_Checkpoint;
+import contract.operation.OP_Message;
+import contract.operation.OP_Read;
+import contract.operation.OP_ReadWrite;
+import contract.operation.OP_Swap;
+import contract.operation.OP_ToggleScope;
+import contract.operation.OP_Write;
+import contract.operation.OperationType;
+import contract.utility.OpParser;
+import contract.wrapper.Header;
+import contract.wrapper.Locator;
+import contract.wrapper.Operation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encoder and decoder for the compact binary trace format. A stream consists of records,
+ * each starting with a one-byte tag. Operations are tagged with their
+ * {@link OperationType} and reference identifiers and source names through a string
+ * table, which is built on the fly using {@link #TAG_STRING} records placed ahead of the
+ * first operation using the string. Index components and counts are written as varints,
+ * values as raw doubles. <br>
+ * <br>
+ * A binary log file is laid out as follows:
+ * <pre>
+ * file   := MAGIC version header record* TAG_END
+ * header := varint length, UTF-8 JSON of the Header (length 0 for no header)
+ * record := TAG_STRING varint length, UTF-8 bytes
+ *         | (1 + OperationType ordinal) operation
+ * </pre>
+ * A BinaryCodec is stateful: the same instance must be used for an entire stream.
+ */
+public class BinaryCodec {
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Magic bytes identifying a binary log file.
+     */
+    public static final byte[] MAGIC = {'C', 'T', 'R', 'B'};
+    /**
+     * Format version written after the magic bytes.
+     */
+    public static final int VERSION = 1;
+    /**
+     * Tag marking the end of a stream.
+     */
+    public static final int TAG_END = 0;
+    /**
+     * Tag for a string table entry.
+     */
+    public static final int TAG_STRING = 0x7F;
+
+    // Operation body flags
+    private static final int HAS_TARGET = 1, HAS_SOURCE = 2, HAS_VALUE = 4, HAS_ATOMIC = 8;
+    private static final int HAS_MESSAGE = 1, HAS_HALT = 2;
+    /**
+     * Elements allocated up front for a length larger than the remaining input.
+     */
+    private static final int MIN_CAPACITY = 256;
+    private static final Key[] LOCATOR_KEYS = {Key.target, Key.source, Key.var1, Key.var2};
+
+    private static final Gson gson = GsonContructor.build();
+    /**
+     * Strings by reference - 1.
+     */
+    private final List<String> strings = new ArrayList<String>();
+    /**
+     * References by string.
+     */
+    private final HashMap<String, Integer> references = new HashMap<String, Integer>();
+    /**
+     * The number of strings for which a {@link #TAG_STRING} record has been written.
+     */
+    private int stringsWritten;
+
+    // ============================================================= //
+    /*
+     *
+     * String table
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns the reference for the given string, adding it to the string table if
+     * needed. The reference for {@code null} is always 0.
+     *
+     * @param str The string to look up.
+     * @return The reference for {@code str}.
+     */
+    public int intern (String str) {
+        if (str == null) {
+            return 0;
+        }
+        Integer ref = references.get(str);
+        if (ref == null) {
+            strings.add(str);
+            ref = strings.size();
+            references.put(str, ref);
+        }
+        return ref;
+    }
+
+    /**
+     * Returns the string for the given reference.
+     *
+     * @param ref A string reference.
+     * @return The string for {@code ref}, or {@code null} if {@code ref} is 0.
+     * @throws IOException If the reference is unknown.
+     */
+    public String lookup (int ref) throws IOException {
+        if (ref == 0) {
+            return null;
+        }
+        if (ref < 0 || ref > strings.size()) {
+            throw new IOException("Unknown string reference: " + ref);
+        }
+        return strings.get(ref - 1);
+    }
+
+    /**
+     * Returns the strings of the string table, in reference order.
+     *
+     * @return The strings of the string table.
+     */
+    public List<String> getStrings () {
+        return strings;
+    }
+
+    /**
+     * Write {@link #TAG_STRING} records for all strings added since the last call.
+     *
+     * @param out The output to write to.
+     * @throws IOException If writing fails.
+     */
+    public void writePendingStrings (DataOutput out) throws IOException {
+        for (; stringsWritten < strings.size(); stringsWritten++) {
+            out.writeByte(TAG_STRING);
+            writeString(out, strings.get(stringsWritten));
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Stream framing
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Write the magic bytes, the format version and the header.
+     *
+     * @param out The output to write to.
+     * @param header The header to write. May be {@code null}.
+     * @throws IOException If writing fails.
+     */
+    public void writeHeader (DataOutput out, Header header) throws IOException {
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        writeString(out, header == null ? "" : gson.toJson(header, Header.class));
+    }
+
+    /**
+     * Read the magic bytes, the format version and the header.
+     *
+     * @param in The input to read from.
+     * @return The header, or {@code null} if the stream has no header.
+     * @throws IOException If reading fails or the stream is not a binary log.
+     */
+    public Header readHeader (DataInput in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a binary log.");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary log version: " + version);
+        }
+        String json = readString(in);
+        return json.isEmpty() ? null : gson.fromJson(json, Header.class);
+    }
+
+    /**
+     * Write the end of stream tag.
+     *
+     * @param out The output to write to.
+     * @throws IOException If writing fails.
+     */
+    public void writeEnd (DataOutput out) throws IOException {
+        out.writeByte(TAG_END);
+    }
+
+    /**
+     * Returns {@code true} if the given file starts with the binary log magic bytes.
+     *
+     * @param file The file to test.
+     * @return {@code true} if {@code file} is a binary log.
+     * @throws IOException If the file could not be read.
+     */
+    public static boolean isBinaryLog (File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] magic = new byte[MAGIC.length];
+            int read = 0;
+            while (read < magic.length) {
+                int n = in.read(magic, read, magic.length - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+            return Arrays.equals(magic, MAGIC);
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Operations
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Write an operation, preceded by string table records for any strings it introduces.
+     *
+     * @param out The output to write to.
+     * @param op The operation to write.
+     * @throws IOException If writing fails.
+     */
+    public void writeOperation (DataOutput out, Operation op) throws IOException {
+        internStrings(op);
+        writePendingStrings(out);
+        writeRecord(out, op);
+    }
+
+    /**
+     * Read the next operation, absorbing any string table records on the way.
+     *
+     * @param in The input to read from.
+     * @return The next operation, or {@code null} at the end of the stream.
+     * @throws IOException If reading fails.
+     */
+    public Operation readOperation (DataInput in) throws IOException {
+        int tag = readTag(in);
+        return tag == TAG_END ? null : readRecord(tag, in);
+    }
+
+    /**
+     * Read tags until a tag which is not {@link #TAG_STRING} is found, adding strings to
+     * the string table on the way.
+     *
+     * @param in The input to read from.
+     * @return The first tag which is not {@link #TAG_STRING}.
+     * @throws IOException If reading fails.
+     */
+    public int readTag (DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        while (tag == TAG_STRING) {
+            intern(readString(in));
+            tag = in.readUnsignedByte();
+        }
+        return tag;
+    }
+
+    /**
+     * Write an operation record without string table records. Strings used by the
+     * operation are added to the string table silently, so the reader must share the
+     * string table of this codec.
+     *
+     * @param out The output to write to.
+     * @param op The operation to write.
+     * @throws IOException If writing fails.
+     */
+    public void writeRecord (DataOutput out, Operation op) throws IOException {
+        out.writeByte(op.operation.ordinal() + 1);
+        writeVarint(out, intern(op.source));
+        writeIntArray(out, op.sourceRows);
+        writeZigZag(out, op.group);
+        switch (op.operation) {
+            case read:
+            case write:
+            case remove:
+                writeLocators(out, locator(op, Key.target), locator(op, Key.source), op);
+                break;
+            case swap:
+                writeLocators(out, locator(op, Key.var1), locator(op, Key.var2), op);
+                break;
+            case message:
+                Object message = op.body.get(Key.value);
+                Object halt = op.body.get(Key.halt);
+                out.writeByte((message != null ? HAS_MESSAGE : 0) | (halt instanceof Boolean ? HAS_HALT : 0));
+                if (message != null) {
+                    writeString(out, message.toString());
+                }
+                if (halt instanceof Boolean) {
+                    out.writeBoolean((Boolean) halt);
+                }
+                break;
+            case checkpoint:
+                writeSnapshots(out, ((OP_Checkpoint) op).getSnapshots());
+                break;
+            default:
+                throw new IOException("Unknown operation type: " + op.operation);
+        }
+    }
+
+    /**
+     * Read the operation record following the given tag.
+     *
+     * @param tag The tag of the record.
+     * @param in The input to read from.
+     * @return The decoded operation.
+     * @throws IOException If reading fails.
+     */
+    public Operation readRecord (int tag, DataInput in) throws IOException {
+        OperationType[] types = OperationType.values();
+        if (tag < 1 || tag > types.length) {
+            throw new IOException("Unknown record tag: " + tag);
+        }
+        OperationType type = types[tag - 1];
+        String source = lookup(readVarint(in));
+        int[] sourceRows = readIntArray(in);
+        int group = readZigZag(in);
+        Operation op;
+        switch (type) {
+            case read:
+            case write:
+            case remove:
+                op = readReadWrite(type, in);
+                break;
+            case swap:
+                op = readSwap(in);
+                break;
+            case message:
+                OP_Message message = new OP_Message();
+                int flags = in.readUnsignedByte();
+                if ((flags & HAS_MESSAGE) != 0) {
+                    message.setMessage(readString(in));
+                }
+                if ((flags & HAS_HALT) != 0) {
+                    message.setHalt(in.readBoolean());
+                }
+                op = message;
+                break;
+            case checkpoint:
+                OP_Checkpoint checkpoint = new OP_Checkpoint();
+                checkpoint.setSnapshots(readSnapshots(in));
+                op = checkpoint;
+                break;
+            default:
+                throw new IOException("Unknown operation type: " + type);
+        }
+        op.source = source;
+        op.sourceRows = sourceRows;
+        op.group = group;
+        return op;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private void internStrings (Operation op) {
+        intern(op.source);
+        for (Key key : LOCATOR_KEYS) {
+            Locator locator = locator(op, key);
+            if (locator != null) {
+                intern(locator.identifier);
+            }
+        }
+        if (op instanceof HighLevelOperation) {
+            for (Operation atomic : ((HighLevelOperation) op).atomicOperations) {
+                internStrings(atomic);
+            }
+        }
+        if (op instanceof OP_Checkpoint && ((OP_Checkpoint) op).getSnapshots() != null) {
+            for (String identifier : ((OP_Checkpoint) op).getSnapshots().keySet()) {
+                intern(identifier);
+            }
+        }
+    }
+
+    /**
+     * Returns the locator for the given key, unpacking it if needed.
+     */
+    private static Locator locator (Operation op, Key key) {
+        return OpParser.unpackArrayVariable(op.body.get(key));
+    }
+
+    private void writeLocators (DataOutput out, Locator first, Locator second, Operation op) throws IOException {
+        double[] value = OpParser.ensureDoubleArray(op.body.get(Key.value));
+        List<OP_ReadWrite> atomic = op instanceof HighLevelOperation ? ((HighLevelOperation) op).atomicOperations
+                : null;
+        int flags = (first != null ? HAS_TARGET : 0) | (second != null ? HAS_SOURCE : 0)
+                | (value != null ? HAS_VALUE : 0) | (atomic != null && !atomic.isEmpty() ? HAS_ATOMIC : 0);
+        out.writeByte(flags);
+        if (first != null) {
+            writeLocator(out, first);
+        }
+        if (second != null) {
+            writeLocator(out, second);
+        }
+        if (value != null) {
+            writeVarint(out, value.length);
+            for (double d : value) {
+                out.writeDouble(d);
+            }
+        }
+        if ((flags & HAS_ATOMIC) != 0) {
+            writeVarint(out, atomic.size());
+            for (OP_ReadWrite rw : atomic) {
+                writeRecord(out, rw);
+            }
+        }
+    }
+
+    private OP_ReadWrite readReadWrite (OperationType type, DataInput in) throws IOException {
+        OP_ReadWrite op;
+        if (type == OperationType.read) {
+            op = new OP_Read();
+        } else if (type == OperationType.write) {
+            op = new OP_Write();
+        } else {
+            op = new OP_ToggleScope();
+        }
+        int flags = in.readUnsignedByte();
+        if ((flags & HAS_TARGET) != 0) {
+            op.setTarget(readLocator(in));
+        }
+        if ((flags & HAS_SOURCE) != 0) {
+            op.setSource(readLocator(in));
+        }
+        if ((flags & HAS_VALUE) != 0) {
+            op.setValue(readDoubleArray(in));
+        }
+        return op;
+    }
+
+    private OP_Swap readSwap (DataInput in) throws IOException {
+        OP_Swap op = new OP_Swap();
+        int flags = in.readUnsignedByte();
+        if ((flags & HAS_TARGET) != 0) {
+            op.setVar1(readLocator(in));
+        }
+        if ((flags & HAS_SOURCE) != 0) {
+            op.setVar2(readLocator(in));
+        }
+        if ((flags & HAS_VALUE) != 0) {
+            op.setValues(readDoubleArray(in));
+        }
+        if ((flags & HAS_ATOMIC) != 0) {
+            int n = readVarint(in);
+            for (int i = 0; i < n; i++) {
+                op.atomicOperations.add((OP_ReadWrite) readRecord(in.readUnsignedByte(), in));
+            }
+        }
+        return op;
+    }
+
+    /**
+     * Write checkpoint snapshots as a count followed by, per structure: identifier, active
+     * flag, counters and elements. Each element is written as index, value, previous
+     * value, counters and inactive flag.
+     */
+    private void writeSnapshots (DataOutput out, Map<String, StructureSnapshot> snapshots) throws IOException {
+        if (snapshots == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        writeVarint(out, snapshots.size());
+        for (Map.Entry<String, StructureSnapshot> entry : snapshots.entrySet()) {
+            StructureSnapshot snapshot = entry.getValue();
+            writeVarint(out, intern(entry.getKey()));
+            out.writeBoolean(snapshot.active);
+            writeCounters(out, snapshot.counters, 0);
+            writeVarint(out, snapshot.size());
+            for (int i = 0; i < snapshot.size(); i++) {
+                writeIntArray(out, snapshot.indices[i]);
+                out.writeDouble(snapshot.values[i]);
+                out.writeDouble(snapshot.previousValues[i]);
+                writeCounters(out, snapshot.elementCounters, i * StructureSnapshot.COUNTERS);
+                out.writeBoolean(snapshot.inactive[i]);
+            }
+        }
+    }
+
+    private Map<String, StructureSnapshot> readSnapshots (DataInput in) throws IOException {
+        int count = readLength(in);
+        Map<String, StructureSnapshot> snapshots = new HashMap<String, StructureSnapshot>();
+        for (int s = 0; s < count; s++) {
+            String identifier = lookup(readVarint(in));
+            boolean active = in.readBoolean();
+            int[] counters = new int[StructureSnapshot.COUNTERS];
+            readCounters(in, counters, 0);
+            int size = readLength(in);
+            // An element takes at least 18 bytes plus one per counter.
+            int capacity = capacity(in, size, 18 + StructureSnapshot.COUNTERS);
+            int[][] indices = new int[capacity][];
+            double[] values = new double[capacity];
+            double[] previousValues = new double[capacity];
+            int[] elementCounters = new int[capacity * StructureSnapshot.COUNTERS];
+            boolean[] inactive = new boolean[capacity];
+            for (int i = 0; i < size; i++) {
+                if (i == capacity) {
+                    capacity = grow(capacity, size);
+                    indices = Arrays.copyOf(indices, capacity);
+                    values = Arrays.copyOf(values, capacity);
+                    previousValues = Arrays.copyOf(previousValues, capacity);
+                    elementCounters = Arrays.copyOf(elementCounters, capacity * StructureSnapshot.COUNTERS);
+                    inactive = Arrays.copyOf(inactive, capacity);
+                }
+                indices[i] = readIntArray(in);
+                values[i] = in.readDouble();
+                previousValues[i] = in.readDouble();
+                readCounters(in, elementCounters, i * StructureSnapshot.COUNTERS);
+                inactive[i] = in.readBoolean();
+            }
+            snapshots.put(identifier, new StructureSnapshot(identifier, active, counters, indices, values,
+                    previousValues, elementCounters, inactive));
+        }
+        return snapshots;
+    }
+
+    private static void writeCounters (DataOutput out, int[] counters, int offset) throws IOException {
+        for (int i = 0; i < StructureSnapshot.COUNTERS; i++) {
+            writeVarint(out, counters[offset + i]);
+        }
+    }
+
+    private static void readCounters (DataInput in, int[] counters, int offset) throws IOException {
+        for (int i = 0; i < StructureSnapshot.COUNTERS; i++) {
+            counters[offset + i] = readVarint(in);
+        }
+    }
+
+    private void writeLocator (DataOutput out, Locator locator) throws IOException {
+        writeVarint(out, intern(locator.identifier));
+        writeIntArray(out, locator.index);
+    }
+
+    private Locator readLocator (DataInput in) throws IOException {
+        String identifier = lookup(readVarint(in));
+        return new Locator(identifier, readIntArray(in));
+    }
+
+    private static double[] readDoubleArray (DataInput in) throws IOException {
+        int length = readLength(in);
+        double[] value = new double[capacity(in, length, 8)];
+        for (int i = 0; i < length; i++) {
+            if (i == value.length) {
+                value = Arrays.copyOf(value, grow(i, length));
+            }
+            value[i] = in.readDouble();
+        }
+        return value;
+    }
+
+    /**
+     * Write an int array as its length + 1 followed by zigzag varints. {@code null} is
+     * written as length 0.
+     */
+    private static void writeIntArray (DataOutput out, int[] array) throws IOException {
+        if (array == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        writeVarint(out, array.length + 1);
+        for (int i : array) {
+            writeZigZag(out, i);
+        }
+    }
+
+    private static int[] readIntArray (DataInput in) throws IOException {
+        int length = readLength(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        int[] array = new int[capacity(in, length, 1)];
+        for (int i = 0; i < length; i++) {
+            if (i == array.length) {
+                array = Arrays.copyOf(array, grow(i, length));
+            }
+            array[i] = readZigZag(in);
+        }
+        return array;
+    }
+
+    /**
+     * Read a length or count written as a varint.
+     *
+     * @throws IOException If the length is negative.
+     */
+    private static int readLength (DataInput in) throws IOException {
+        int length = readVarint(in);
+        if (length < 0) {
+            throw new IOException("Malformed length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Returns the capacity to allocate for {@code length} elements of at least
+     * {@code elementBytes} bytes each. Lengths are read from files and the network, so no
+     * more is allocated than the remaining input can fill. Arrays are grown using
+     * {@link #grow(int, int)} as elements are actually read.
+     */
+    private static int capacity (DataInput in, int length, int elementBytes) throws IOException {
+        int available = in instanceof InputStream ? ((InputStream) in).available() : 0;
+        return Math.min(length, Math.max(available / elementBytes, MIN_CAPACITY));
+    }
+
+    private static int grow (int capacity, int length) {
+        return (int) Math.min(length, 2L * capacity);
+    }
+
+    /**
+     * Write a string as a varint byte count followed by its UTF-8 bytes.
+     *
+     * @param out The output to write to.
+     * @param str The string to write.
+     * @throws IOException If writing fails.
+     */
+    public static void writeString (DataOutput out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutput, String)}.
+     *
+     * @param in The input to read from.
+     * @return The string read.
+     * @throws IOException If reading fails.
+     */
+    public static String readString (DataInput in) throws IOException {
+        int length = readLength(in);
+        byte[] bytes = new byte[capacity(in, length, 1)];
+        int read = 0;
+        while (read < length) {
+            if (read == bytes.length) {
+                bytes = Arrays.copyOf(bytes, grow(read, length));
+            }
+            int n = bytes.length - read;
+            in.readFully(bytes, read, n);
+            read += n;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write an unsigned varint, using 7 bits per byte.
+     *
+     * @param out The output to write to.
+     * @param value The value to write.
+     * @throws IOException If writing fails.
+     */
+    public static void writeVarint (DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Read an unsigned varint.
+     *
+     * @param in The input to read from.
+     * @return The value read.
+     * @throws IOException If reading fails or the varint is malformed.
+     */
+    public static int readVarint (DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint.");
+    }
+
+    /**
+     * Write a signed value as a zigzag encoded varint.
+     *
+     * @param out The output to write to.
+     * @param value The value to write.
+     * @throws IOException If writing fails.
+     */
+    public static void writeZigZag (DataOutput out, int value) throws IOException {
+        writeVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Read a zigzag encoded varint.
+     *
+     * @param in The input to read from.
+     * @return The value read.
+     * @throws IOException If reading fails.
+     */
+    public static int readZigZag (DataInput in) throws IOException {
+        int value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
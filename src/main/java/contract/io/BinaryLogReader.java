@@ -0,0 +1,92 @@
+package contract.io;
+
+import com.google.gson.JsonIOException;
+import contract.wrapper.Header;
+import contract.wrapper.Operation;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming reader for the compact binary trace format described in
+ * {@link BinaryCodec}.
+ */
+public class BinaryLogReader implements LogSource {
+
+    private final BinaryCodec codec = new BinaryCodec();
+    private final DataInputStream in;
+    private final Header header;
+    private Operation next;
+
+    /**
+     * Create a new BinaryLogReader for the given file.
+     *
+     * @param logFile The file to read.
+     * @throws IOException If the file could not be opened or is not a binary log.
+     */
+    public BinaryLogReader (File logFile) throws IOException {
+        this(new FileInputStream(logFile));
+    }
+
+    /**
+     * Create a new BinaryLogReader for the given stream.
+     *
+     * @param stream The stream to read from.
+     * @throws IOException If the stream could not be read or is not a binary log.
+     */
+    public BinaryLogReader (InputStream stream) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+        try {
+            header = codec.readHeader(in);
+            next = codec.readOperation(in);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Header getHeader () {
+        return header;
+    }
+
+    @Override
+    public boolean hasNext () {
+        return next != null;
+    }
+
+    /**
+     * Returns the next operation in the log.
+     *
+     * @return The next operation in the log.
+     * @throws NoSuchElementException If there are no more operations.
+     * @throws JsonIOException        When the stream could not be read.
+     */
+    @Override
+    public Operation next () {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        Operation current = next;
+        try {
+            next = codec.readOperation(in);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return current;
+    }
+
+    @Override
+    public void close () {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package contract.io;
+
+import contract.wrapper.Header;
+import contract.wrapper.Operation;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writer for the compact binary trace format described in {@link BinaryCodec}.
+ */
+public class BinaryLogWriter implements Closeable {
+
+    private final BinaryCodec codec = new BinaryCodec();
+    private final DataOutputStream out;
+    /**
+     * The log to write a summary for once closed, or {@code null}.
+     */
+    private final File summaryTarget;
+    private final LogSummary summary = new LogSummary();
+    private boolean headerWritten;
+
+    /**
+     * Create a new BinaryLogWriter for the given target file. Any existing content will
+     * be overwritten. A {@link LogSummary} of the log is written next to it when closed.
+     *
+     * @param target The file to write.
+     * @throws FileNotFoundException If {@code target} could not be opened.
+     */
+    public BinaryLogWriter (File target) throws FileNotFoundException {
+        this(new FileOutputStream(target), target);
+    }
+
+    /**
+     * Create a new BinaryLogWriter for the given stream. The stream is closed when this
+     * BinaryLogWriter is closed.
+     *
+     * @param stream The stream to write to.
+     */
+    public BinaryLogWriter (OutputStream stream) {
+        this(stream, null);
+    }
+
+    private BinaryLogWriter (OutputStream stream, File summaryTarget) {
+        out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        this.summaryTarget = summaryTarget;
+    }
+
+    /**
+     * Write the header of the log. Must be called before any operations are appended, and
+     * at most once.
+     *
+     * @param header The header to write. May be {@code null}.
+     * @throws IOException If writing fails.
+     * @throws IllegalStateException If the header has already been written.
+     */
+    public void writeHeader (Header header) throws IOException {
+        if (headerWritten) {
+            throw new IllegalStateException("The header must be written once, before any operations.");
+        }
+        codec.writeHeader(out, header);
+        headerWritten = true;
+    }
+
+    /**
+     * Append an operation to the log. Writes an empty header first if no header has been
+     * written.
+     *
+     * @param operation The operation to append.
+     * @throws IOException If writing fails.
+     */
+    public void append (Operation operation) throws IOException {
+        if (!headerWritten) {
+            writeHeader(null);
+        }
+        codec.writeOperation(out, operation);
+        summary.accept(operation);
+    }
+
+    /**
+     * Append a list of operations to the log.
+     *
+     * @param operations The operations to append.
+     * @throws IOException If writing fails.
+     */
+    public void append (List<Operation> operations) throws IOException {
+        for (Operation op : operations) {
+            append(op);
+        }
+    }
+
+    /**
+     * Terminate the log and close the target.
+     *
+     * @throws IOException If writing fails.
+     */
+    @Override
+    public void close () throws IOException {
+        try {
+            if (!headerWritten) {
+                writeHeader(null);
+            }
+            codec.writeEnd(out);
+        } finally {
+            out.close();
+        }
+        if (summaryTarget != null) {
+            summary.write(summaryTarget);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package contract.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream reading from the current position of a ByteBuffer.
+ */
+class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Create a new ByteBufferInputStream. Reading advances the position of
+     * {@code buffer}.
+     *
+     * @param buffer The buffer to read from.
+     */
+    ByteBufferInputStream (ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read () {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read (byte[] b, int off, int len) {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        len = Math.min(len, buffer.remaining());
+        buffer.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public int available () {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,123 @@
+package contract.io;
+
+import contract.datastructure.DataStructure;
+import contract.operation.OP_Checkpoint;
+import contract.operation.OperationType;
+import contract.utility.OpParser;
+import contract.utility.StructParser;
+import contract.utility.StructUtil;
+import contract.wrapper.AnnotatedVariable;
+import contract.wrapper.Header;
+import contract.wrapper.Operation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks the state of the structures of a log as it is recorded, and decides where
+ * checkpoints (see {@link OP_Checkpoint}) should be inserted. Checkpoints are due every
+ * {@code interval} operations, and optionally whenever the {@code group} of the
+ * operations changes.
+ */
+public class Checkpointer {
+
+    /**
+     * Default number of operations between checkpoints.
+     */
+    public static final int DEFAULT_INTERVAL = 1000;
+
+    private final Map<String, DataStructure> structures = new HashMap<String, DataStructure>();
+    private final int interval;
+    private final boolean atGroupBoundaries;
+    private int sinceLast;
+    private int lastGroup;
+    private boolean started;
+
+    /**
+     * Create a new Checkpointer.
+     *
+     * @param header The header of the log, declaring its structures. May be {@code null}.
+     * @param interval The number of operations between checkpoints, or 0 to disable.
+     * @param atGroupBoundaries If {@code true}, a checkpoint is also inserted whenever
+     * the group of the operations changes.
+     */
+    public Checkpointer (Header header, int interval, boolean atGroupBoundaries) {
+        this.interval = interval;
+        this.atGroupBoundaries = atGroupBoundaries;
+        declare(header);
+    }
+
+    /**
+     * Add the structures declared in a header. Structures already known are kept.
+     *
+     * @param header A header. May be {@code null}.
+     */
+    public void declare (Header header) {
+        if (header == null || header.annotatedVariables == null) {
+            return;
+        }
+        for (AnnotatedVariable av : header.annotatedVariables.values()) {
+            if (!structures.containsKey(av.identifier)) {
+                DataStructure ds = StructParser.unpackAnnotatedVariable(av);
+                if (ds != null) {
+                    structures.put(av.identifier, ds);
+                }
+            }
+        }
+    }
+
+    /**
+     * Execute an operation on the tracked structures. If a checkpoint is due before the
+     * operation, it is returned and should be written ahead of the operation.
+     *
+     * @param op The operation about to be written.
+     * @return A checkpoint to write before {@code op}, or {@code null}.
+     */
+    public OP_Checkpoint accept (Operation op) {
+        return accept(op, false);
+    }
+
+    /**
+     * Execute an operation on the tracked structures. If a checkpoint is due before the
+     * operation, or {@code force} is {@code true}, it is returned and should be written
+     * ahead of the operation.
+     *
+     * @param op The operation about to be written.
+     * @param force If {@code true}, a checkpoint is returned even if none is due, unless
+     * no operation has been executed yet.
+     * @return A checkpoint to write before {@code op}, or {@code null}.
+     */
+    public OP_Checkpoint accept (Operation op, boolean force) {
+        if (op.operation == OperationType.checkpoint) {
+            return null;
+        }
+        OP_Checkpoint checkpoint = null;
+        if (started && (force || (interval > 0 && sinceLast >= interval)
+                || (atGroupBoundaries && op.group != lastGroup))) {
+            checkpoint = checkpoint();
+        }
+        Operation unpacked = OpParser.unpackOperation(op);
+        if (unpacked != null) {
+            StructUtil.execute(structures, unpacked);
+            for (DataStructure ds : structures.values()) {
+                // No one draws these structures, so drop the drawing state.
+                ds.getModifiedElements().clear();
+                ds.getResetElements().clear();
+            }
+        }
+        sinceLast++;
+        lastGroup = op.group;
+        started = true;
+        return checkpoint;
+    }
+
+    /**
+     * Create a checkpoint of the current state, regardless of whether one is due.
+     *
+     * @return A checkpoint of the current state.
+     */
+    public OP_Checkpoint checkpoint () {
+        sinceLast = 0;
+        return StructUtil.checkpoint(structures);
+    }
+}
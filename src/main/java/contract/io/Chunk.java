@@ -0,0 +1,136 @@
+package contract.io;
+
+import contract.assets.Const;
+import contract.wrapper.Operation;
+import contract.wrapper.Root;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A numbered part of a Wrapper too large to send at once. The first chunk of a transfer
+ * carries the header, and every chunk carries a slice of the body, so each chunk can be
+ * unwrapped as soon as it arrives. Receivers use {@link ChunkAssembler} to put the
+ * chunks back in order and to detect chunks lost or received twice.
+ */
+public class Chunk implements Serializable {
+
+    /**
+     * Version number for this class.
+     */
+    private static final long serialVersionUID = Const.VERSION_NUMBER;
+    /**
+     * Default maximum estimated size of a chunk, in bytes.
+     */
+    public static final int DEFAULT_SIZE = 256 * 1024;
+
+    /**
+     * The id of the transfer this chunk belongs to.
+     */
+    public final long transferId;
+    /**
+     * The position of this chunk in the transfer, starting at 0.
+     */
+    public final int sequence;
+    /**
+     * {@code true} if this is the last chunk of the transfer.
+     */
+    public final boolean last;
+    /**
+     * The part of the Wrapper carried by this chunk.
+     */
+    public final Root root;
+
+    /**
+     * Create a new Chunk.
+     *
+     * @param transferId The id of the transfer this chunk belongs to.
+     * @param sequence The position of this chunk in the transfer.
+     * @param last {@code true} if this is the last chunk of the transfer.
+     * @param root The part of the Wrapper carried by this chunk.
+     */
+    public Chunk (long transferId, int sequence, boolean last, Root root) {
+        this.transferId = transferId;
+        this.sequence = sequence;
+        this.last = last;
+        this.root = root;
+    }
+
+    /**
+     * Split a Wrapper into chunks whose estimated size is at most {@code maxBytes}. A
+     * chunk always holds at least one operation. Chunks are created as the iterator
+     * advances, so only one chunk at a time is held in addition to the Wrapper.
+     *
+     * @param root The Wrapper to split.
+     * @param maxBytes The maximum estimated size of a chunk, in bytes.
+     * @return An iterator over the chunks of {@code root}.
+     */
+    public static Iterator<Chunk> split (Root root, int maxBytes) {
+        return new Splitter(root, maxBytes);
+    }
+
+    @Override
+    public String toString () {
+        return "Chunk[" + transferId + ":" + sequence + (last ? ", last]" : "]");
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Internal class
+     *
+     */
+    // ============================================================= //
+
+    private static final class Splitter implements Iterator<Chunk> {
+        private final Root root;
+        private final int maxBytes;
+        private final long transferId = ThreadLocalRandom.current().nextLong();
+        private final Iterator<Operation> body;
+        private Operation carry;
+        private int sequence;
+        private boolean done;
+
+        private Splitter (Root root, int maxBytes) {
+            this.root = root;
+            this.maxBytes = maxBytes;
+            body = root.body == null ? null : root.body.iterator();
+        }
+
+        @Override
+        public boolean hasNext () {
+            return !done;
+        }
+
+        @Override
+        public Chunk next () {
+            if (done) {
+                throw new NoSuchElementException();
+            }
+            List<Operation> ops = null;
+            if (body != null) {
+                ops = new ArrayList<Operation>();
+                int bytes = 0;
+                while (carry != null || body.hasNext()) {
+                    Operation op = carry != null ? carry : body.next();
+                    carry = null;
+                    int size = BatchingSender.estimateSize(op);
+                    if (!ops.isEmpty() && bytes + size > maxBytes) {
+                        carry = op;
+                        break;
+                    }
+                    ops.add(op);
+                    bytes += size;
+                }
+            }
+            done = carry == null && (body == null || !body.hasNext());
+            Chunk chunk = new Chunk(transferId, sequence, done, new Root(sequence == 0 ? root.header : null, ops));
+            sequence++;
+            return chunk;
+        }
+    }
+}
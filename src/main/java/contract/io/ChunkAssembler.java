@@ -0,0 +1,198 @@
+package contract.io;
+
+import contract.wrapper.Root;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Puts received {@link Chunk}s back in order. Chunks are released as soon as every chunk
+ * before them has arrived, so receivers can unwrap a transfer while it is still being
+ * received. Each sender has at most one transfer in progress; a chunk from a new transfer
+ * ends the previous one. <br>
+ * Chunks received twice are discarded and counted. When a chunk is still missing after
+ * more than {@code window} later chunks of the same transfer have arrived, or when the
+ * sender starts a new transfer, the missing chunks are counted as lost and the rest of
+ * the transfer is discarded, since the operations received after a gap would not make
+ * sense on their own.
+ */
+public class ChunkAssembler {
+
+    /**
+     * Default number of chunks buffered while waiting for a missing chunk.
+     */
+    public static final int DEFAULT_WINDOW = 16;
+
+    private static final int FINISHED_MEMORY = 64;
+
+    private final int window;
+    private final Map<Object, Transfer> transfers = new HashMap<Object, Transfer>();
+    private final Map<Long, Boolean> finished = new LinkedHashMap<Long, Boolean>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry (Map.Entry<Long, Boolean> eldest) {
+            return size() > FINISHED_MEMORY;
+        }
+    };
+    private long completed;
+    private long duplicates;
+    private long lost;
+    private long aborted;
+
+    /**
+     * Create a new ChunkAssembler with the default window.
+     */
+    public ChunkAssembler () {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * Create a new ChunkAssembler.
+     *
+     * @param window The number of chunks to buffer while waiting for a missing chunk.
+     */
+    public ChunkAssembler (int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window < 1");
+        }
+        this.window = window;
+    }
+
+    /**
+     * Accept a received chunk.
+     *
+     * @param sender The sender of the chunk.
+     * @param chunk The received chunk.
+     * @return The parts of the transfer which are ready, in order. May be empty.
+     */
+    public synchronized List<Root> accept (Object sender, Chunk chunk) {
+        Boolean complete = finished.get(chunk.transferId);
+        if (complete != null) {
+            if (complete) {
+                duplicates++;
+            } // Else the rest of an aborted transfer.
+            return Collections.emptyList();
+        }
+        Transfer transfer = transfers.get(sender);
+        if (transfer == null || transfer.id != chunk.transferId) {
+            if (transfer != null) {
+                abort(sender, transfer, "superseded by transfer " + chunk.transferId);
+            }
+            transfer = new Transfer(chunk.transferId);
+            transfers.put(sender, transfer);
+        }
+        if (chunk.sequence < transfer.next || transfer.pending.containsKey(chunk.sequence)) {
+            duplicates++;
+            return Collections.emptyList();
+        }
+        transfer.pending.put(chunk.sequence, chunk);
+        List<Root> ready = new ArrayList<Root>();
+        for (Chunk c = transfer.pending.remove(transfer.next); c != null; c = transfer.pending.remove(transfer.next)) {
+            ready.add(c.root);
+            transfer.next++;
+            if (c.last) {
+                transfers.remove(sender);
+                finished.put(transfer.id, Boolean.TRUE);
+                completed++;
+                return ready;
+            }
+        }
+        if (transfer.pending.size() > window) {
+            abort(sender, transfer, "chunk " + transfer.next + " missing");
+        }
+        return ready;
+    }
+
+    /**
+     * Check whether a recent transfer has been received in full.
+     *
+     * @param transferId The id of the transfer.
+     * @return {@code true} if every chunk of the transfer has been released.
+     */
+    public synchronized boolean isComplete (long transferId) {
+        return Boolean.TRUE.equals(finished.get(transferId));
+    }
+
+    /**
+     * Returns the number of transfers received in full.
+     *
+     * @return The number of completed transfers.
+     */
+    public synchronized long getCompleted () {
+        return completed;
+    }
+
+    /**
+     * Returns the number of chunks discarded because they had already been received.
+     *
+     * @return The number of duplicate chunks.
+     */
+    public synchronized long getDuplicates () {
+        return duplicates;
+    }
+
+    /**
+     * Returns the number of chunks known to be lost. Chunks missing from the end of a
+     * transfer cannot be counted, so at least one chunk is counted per aborted transfer.
+     *
+     * @return The number of lost chunks.
+     */
+    public synchronized long getLost () {
+        return lost;
+    }
+
+    /**
+     * Returns the number of transfers discarded because chunks were lost.
+     *
+     * @return The number of aborted transfers.
+     */
+    public synchronized long getAborted () {
+        return aborted;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private void abort (Object sender, Transfer transfer, String reason) {
+        int missing = 1;
+        if (!transfer.pending.isEmpty()) {
+            int highest = transfer.pending.lastKey();
+            missing = highest - transfer.next + 1 - transfer.pending.size();
+        }
+        lost += missing;
+        aborted++;
+        transfers.remove(sender);
+        finished.put(transfer.id, Boolean.FALSE);
+        System.err.println("Transfer " + transfer.id + " from " + sender + " aborted after " + transfer.next
+                + " chunks: " + reason + ".");
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Internal class
+     *
+     */
+    // ============================================================= //
+
+    private static final class Transfer {
+        private final long id;
+        private final TreeMap<Integer, Chunk> pending = new TreeMap<Integer, Chunk>();
+        private int next;
+
+        private Transfer (long id) {
+            this.id = id;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package contract.io;
 import contract.wrapper.Root;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 
 public interface Communicator {
@@ -20,6 +21,19 @@ public interface Communicator {
      */
     public List<Root> getAllQueuedMessages ();
 
+    /**
+     * Remove all received Wrappers in queue and add them to the given collection, in the
+     * order they were received.
+     *
+     * @param target The collection to add the Wrappers to.
+     * @return The number of Wrappers moved.
+     */
+    public default int drainQueuedMessages (Collection<? super Root> target) {
+        List<Root> queued = getAllQueuedMessages();
+        target.addAll(queued);
+        return queued.size();
+    }
+
     /**
      * /** Send the given Wrapper to all everyone listening on the current channel.
      *
@@ -50,6 +64,97 @@ public interface Communicator {
      */
     public boolean sendString (String JSONString);
 
+    /**
+     * Send a part of a Wrapper to everyone listening on the current channel. See
+     * {@link Chunk}. Communicators which do not support chunks send the part as an
+     * ordinary Wrapper, which is unwrapped the same way but without any check for lost or
+     * duplicate chunks.
+     *
+     * @param chunk The chunk to send.
+     * @return True if the chunk was successfully sent. False otherwise.
+     */
+    public default boolean sendChunk (Chunk chunk) {
+        return sendWrapper(chunk.root);
+    }
+
+    /**
+     * Send a Wrapper concerning a single structure to everyone listening on the current
+     * channel, see {@link Topic}. Communicators which do not support topics send the
+     * Wrapper as usual.
+     *
+     * @param topic The topic to send.
+     * @return True if the topic was successfully sent. False otherwise.
+     */
+    public default boolean sendTopic (Topic topic) {
+        return sendWrapper(topic.root);
+    }
+
+    /**
+     * Receive only topics concerning the given structures. Wrappers sent without a topic
+     * are still received.
+     *
+     * @param identifiers The identifiers of the structures to receive, or {@code null} to
+     * receive everything.
+     * @return True if this Communicator drops other topics, false if it does not support
+     * subscriptions.
+     */
+    public default boolean subscribe (Collection<String> identifiers) {
+        return false;
+    }
+
+    /**
+     * Send a flow control report to everyone listening on the current channel. See
+     * {@link FlowControl}.
+     *
+     * @param credit The report to send.
+     * @return True if the report was sent, false if it could not be sent or flow control
+     * is not supported.
+     */
+    public default boolean sendCredit (FlowControl.Credit credit) {
+        return false;
+    }
+
+    /**
+     * Returns the flow control state built from reports received by this Communicator.
+     *
+     * @return The flow control state, or {@code null} if flow control is not supported.
+     */
+    public default FlowControl getFlowControl () {
+        return null;
+    }
+
+    /**
+     * Returns the id of a member which has joined the channel since it was last called.
+     * Listeners are notified of joins with {@link CommunicatorMessage#HELLO}.
+     *
+     * @return The id of a new member, or {@code null} if there is none or joins are not
+     * reported.
+     */
+    public default Integer popJoinedMember () {
+        return null;
+    }
+
+    /**
+     * Send a Wrapper bringing a new member up to date to that member only, such as the
+     * one created by {@link ReplayBuffer#catchUp()}. Wrappers streamed after this call are
+     * not part of the catch-up. The receiver holds back live Wrappers from this sender until
+     * the catch-up is complete, notifies its listener with
+     * {@link CommunicatorMessage#CATCH_UP}, then delivers the catch-up followed by the held
+     * back Wrappers. Listeners such as {@link LogStreamManager} discard everything they
+     * hold when notified, so the receiver refuses the catch-up if other senders have
+     * delivered Wrappers to it.
+     *
+     * @param receiverId The id of the member to catch up.
+     * @param catchUp The Wrapper to send.
+     * @param chunkSize The maximum estimated size of a chunk in bytes, or 0 to send the
+     * Wrapper whole. See {@link Chunk}.
+     * @return True if the Wrapper was sent, false if it could not be sent or catching up
+     * is not supported.
+     */
+    public default boolean sendCatchUp (int receiverId, Root catchUp, int chunkSize) {
+        return false;
+    }
+
     /*
      * Internal class
      */
@@ -93,6 +198,31 @@ public interface Communicator {
          * Info about the sending member contained as a String in payload.
          */
         public static final short FIRST_CONTACT_ACK = 14;
+        /**
+         * Flow control report from a receiver, contained as a
+         * {@link FlowControl.Credit} in payload.
+         */
+        public static final short CREDIT = 15;
+        /**
+         * Message containing a part of a Wrapper, as a {@link Chunk} in payload.
+         */
+        public static final short CHUNK = 16;
+        /**
+         * Part of a Wrapper for catching up, as a {@link Chunk} in payload. Sent only to
+         * the member catching up. Listeners are notified with this type right before a
+         * complete catch-up is delivered, and should then discard what they hold.
+         */
+        public static final short CATCH_UP = 17;
+        /**
+         * Marks the point of the live stream where a catch-up was taken. Holds the id of
+         * the member catching up as an Integer in payload.
+         */
+        public static final short CATCH_UP_MARK = 18;
+        /**
+         * Message containing a Wrapper concerning a single structure, as a {@link Topic}
+         * in payload.
+         */
+        public static final short TOPIC = 19;
         /**
          * They payload for this message. May be null.
          */
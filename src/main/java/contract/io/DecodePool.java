@@ -0,0 +1,129 @@
+package contract.io;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of worker threads for decoding received messages away from the network thread.
+ * Tasks are assigned to workers by key, typically the sender of the message, so tasks
+ * with the same key run one at a time in the order they were submitted, while tasks with
+ * different keys may run in parallel. <br>
+ * <b>NOTE:</b> The queues of the workers are unbounded. Use {@link FlowControl} to keep
+ * senders from outrunning slow receivers.
+ */
+public class DecodePool implements Closeable {
+
+    /**
+     * Default number of workers.
+     */
+    public static final int DEFAULT_WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    private final ExecutorService[] workers;
+
+    /**
+     * Create a new DecodePool.
+     *
+     * @param workers The number of worker threads.
+     */
+    public DecodePool (int workers) {
+        this(workers, null);
+    }
+
+    /**
+     * Create a new DecodePool replacing another. Tasks submitted to the new pool run
+     * only once every task submitted to {@code previous} has run, so tasks with the same
+     * key stay in order while switching pools.
+     *
+     * @param workers The number of worker threads.
+     * @param previous The pool being replaced, or {@code null}. Should be closed by the
+     * caller once the new pool is in use.
+     */
+    public DecodePool (int workers, DecodePool previous) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers < 1");
+        }
+        this.workers = new ExecutorService[workers];
+        for (int i = 0; i < workers; i++) {
+            final String name = "DecodePool-" + i;
+            this.workers[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (previous != null) {
+                this.workers[i].execute(previous::awaitTermination);
+            }
+        }
+    }
+
+    /**
+     * Run a task on the worker assigned to the given key. Exceptions thrown by the task
+     * are reported and do not affect later tasks.
+     *
+     * @param key The key of the task, such as the sender of a message. May be
+     * {@code null}.
+     * @param task The task to run.
+     * @return False if the pool is closed, true otherwise.
+     */
+    public boolean execute (Object key, Runnable task) {
+        int hash = key == null ? 0 : key.hashCode();
+        ExecutorService worker = workers[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % workers.length];
+        try {
+            worker.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Decoding failed: " + e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return false; // Closed, possibly while submitting.
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of workers in this pool.
+     *
+     * @return The number of worker threads.
+     */
+    public int getWorkerCount () {
+        return workers.length;
+    }
+
+    /**
+     * Wait until the pool has been closed and every task submitted to it has run. Must
+     * not be called from a worker of this pool.
+     */
+    public void awaitTermination () {
+        try {
+            for (ExecutorService worker : workers) {
+                while (!worker.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // Keep waiting.
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run the tasks already submitted, then stop the workers. Waits at most one second.
+     */
+    @Override
+    public void close () {
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        try {
+            for (ExecutorService worker : workers) {
+                worker.awaitTermination(1, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
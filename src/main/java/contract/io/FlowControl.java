@@ -0,0 +1,291 @@
+package contract.io;
+
+import contract.assets.Const;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sender side of the credit-based flow control between a sender and slow receivers.
+ * Receivers report how many operations they have received and consumed, and how many
+ * they are willing to hold, as {@link Credit}s in
+ * {@link Communicator.CommunicatorMessage#CREDIT} messages. The credit of a receiver is
+ * its window minus its backlog, minus the operations sent since its last report. The
+ * credit of the sender is that of the slowest receiver. Receivers report at least every
+ * {@link #HEARTBEAT_INTERVAL}, even when they make no progress, so receivers which have
+ * not reported for a while are assumed gone and are ignored.
+ */
+public class FlowControl {
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Ignore credit and send as fast as possible. The lag is still tracked.
+     */
+    public static final short POLICY_NONE = 0;
+    /**
+     * Wait for credit before sending, up to a maximum time.
+     */
+    public static final short POLICY_BLOCK = 1;
+    /**
+     * Drop operations while there is no credit.
+     */
+    public static final short POLICY_SAMPLE = 2;
+    /**
+     * Default time after which a silent receiver is ignored, in milliseconds.
+     */
+    public static final long DEFAULT_EXPIRY = 5000;
+    /**
+     * Maximum time between reports from a receiver, in milliseconds. Short enough that a
+     * stalled receiver is never mistaken for one which has left.
+     */
+    public static final long HEARTBEAT_INTERVAL = DEFAULT_EXPIRY / 4;
+
+    private final Map<Integer, Receiver> receivers = new HashMap<Integer, Receiver>();
+    private final long expiryNanos;
+    // Guarded by this.
+    private long sent;
+    private long dropped;
+
+    // ============================================================= //
+    /*
+     *
+     * Constructors
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Create a new FlowControl using the default expiry time.
+     */
+    public FlowControl () {
+        this(DEFAULT_EXPIRY);
+    }
+
+    /**
+     * Create a new FlowControl.
+     *
+     * @param expiryMillis The time after which a silent receiver is ignored, in
+     * milliseconds.
+     */
+    public FlowControl (long expiryMillis) {
+        expiryNanos = TimeUnit.MILLISECONDS.toNanos(expiryMillis);
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Interface
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Record a credit report from a receiver. Wakes any sender waiting for credit.
+     * Reports may arrive out of order, so a report older than the last one recorded for
+     * the same receiver is ignored.
+     *
+     * @param receiverId The id of the reporting receiver.
+     * @param credit The report.
+     */
+    public synchronized void update (int receiverId, Credit credit) {
+        Receiver previous = receivers.get(receiverId);
+        if (previous != null && (credit.received < previous.credit.received
+                || (credit.received == previous.credit.received && credit.consumed < previous.credit.consumed))) {
+            return;
+        }
+        receivers.put(receiverId, new Receiver(credit, sent, System.nanoTime()));
+        notifyAll();
+    }
+
+    /**
+     * Record operations as sent, using up credit.
+     *
+     * @param count The number of operations sent.
+     */
+    public synchronized void sent (int count) {
+        sent += count;
+    }
+
+    /**
+     * Record operations as dropped for lack of credit.
+     *
+     * @param count The number of operations dropped.
+     */
+    public synchronized void dropped (int count) {
+        dropped += count;
+    }
+
+    /**
+     * Returns the number of operations which may be sent before the slowest receiver is
+     * full. May be negative if receivers are already over their window.
+     *
+     * @return The current credit, or {@link Long#MAX_VALUE} if no receiver has reported.
+     */
+    public synchronized long getCredit () {
+        expire();
+        long credit = Long.MAX_VALUE;
+        for (Receiver r : receivers.values()) {
+            credit = Math.min(credit, r.credit.window - r.credit.backlog() - (sent - r.sentAtReport));
+        }
+        return credit;
+    }
+
+    /**
+     * Returns the largest backlog reported by a receiver: the number of operations it
+     * has received but not yet consumed.
+     *
+     * @return The lag of the slowest receiver, or 0 if no receiver has reported.
+     */
+    public synchronized long getLag () {
+        expire();
+        long lag = 0;
+        for (Receiver r : receivers.values()) {
+            lag = Math.max(lag, r.credit.backlog());
+        }
+        return lag;
+    }
+
+    /**
+     * Returns the number of receivers taking part in flow control.
+     *
+     * @return The number of receivers which have reported recently.
+     */
+    public synchronized int getReceiverCount () {
+        expire();
+        return receivers.size();
+    }
+
+    /**
+     * Returns the number of operations recorded as sent.
+     *
+     * @return The number of operations sent.
+     */
+    public synchronized long getSent () {
+        return sent;
+    }
+
+    /**
+     * Returns the number of operations recorded as dropped.
+     *
+     * @return The number of operations dropped.
+     */
+    public synchronized long getDropped () {
+        return dropped;
+    }
+
+    /**
+     * Wait until there is credit for the given number of operations.
+     *
+     * @param count The number of operations to send.
+     * @param timeoutMillis The maximum time to wait, in milliseconds.
+     * @return True if there is enough credit, false if the time ran out.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public synchronized boolean awaitCredit (int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long credit;
+        while ((credit = getCredit()) < count) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            // Wake up now and then, since expiring receivers may free credit too.
+            TimeUnit.NANOSECONDS.timedWait(this, Math.min(remaining, expiryNanos));
+        }
+        return credit >= count;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private void expire () {
+        long now = System.nanoTime();
+        for (Iterator<Receiver> it = receivers.values().iterator(); it.hasNext(); ) {
+            if (now - it.next().reportedAt > expiryNanos) {
+                it.remove();
+            }
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Internal class
+     *
+     */
+    // ============================================================= //
+
+    private static final class Receiver {
+        private final Credit credit;
+        private final long sentAtReport;
+        private final long reportedAt;
+
+        private Receiver (Credit credit, long sentAtReport, long reportedAt) {
+            this.credit = credit;
+            this.sentAtReport = sentAtReport;
+            this.reportedAt = reportedAt;
+        }
+    }
+
+    /**
+     * A credit report sent by a receiver.
+     */
+    public static class Credit implements Serializable {
+
+        /**
+         * Version number for this class.
+         */
+        private static final long serialVersionUID = Const.VERSION_NUMBER;
+
+        /**
+         * The number of operations received.
+         */
+        public final long received;
+        /**
+         * The number of operations consumed.
+         */
+        public final long consumed;
+        /**
+         * The number of unconsumed operations the receiver is willing to hold.
+         */
+        public final int window;
+
+        /**
+         * Create a new Credit.
+         *
+         * @param received The number of operations received.
+         * @param consumed The number of operations consumed.
+         * @param window The number of unconsumed operations the receiver is willing to
+         * hold.
+         */
+        public Credit (long received, long consumed, int window) {
+            this.received = received;
+            this.consumed = consumed;
+            this.window = window;
+        }
+
+        /**
+         * Returns the number of operations received but not yet consumed.
+         *
+         * @return The backlog of the receiver.
+         */
+        public long backlog () {
+            return Math.max(0, received - consumed);
+        }
+    }
+}
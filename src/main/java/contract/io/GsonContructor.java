@@ -2,10 +2,40 @@ package contract.io;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import contract.datastructure.AbstractType;
+import contract.datastructure.RawType;
+import contract.datastructure.StructureSnapshot;
+import contract.datastructure.VisualType;
+import contract.operation.HighLevelOperation;
+import contract.operation.Key;
+import contract.operation.OP_Checkpoint;
+import contract.operation.OP_Message;
+import contract.operation.OP_Read;
+import contract.operation.OP_ReadWrite;
+import contract.operation.OP_Swap;
+import contract.operation.OP_ToggleScope;
+import contract.operation.OP_Write;
+import contract.operation.OperationType;
+import contract.wrapper.AnnotatedVariable;
+import contract.wrapper.Locator;
+import contract.wrapper.Operation;
 
-public abstract class GsonContructor {
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
-    private static final GsonBuilder gsonBuilder = new GsonBuilder();
+public abstract class GsonContructor {
 
     /**
      * Returns a Gson instance with all the required bells and whistles attached.
@@ -23,78 +53,702 @@ public abstract class GsonContructor {
      * @return A Gson instance that works properly.
      */
     public static Gson getGson (boolean prettyPrinting) {
-        // gsonBuilder.registerTypeAdapter(AnnotatedVariable.class, new
-        // AnnotatedVariableAdapter());
+        GsonBuilder gsonBuilder = new GsonBuilder();
+        gsonBuilder.registerTypeAdapterFactory(new OperationAdapterFactory());
+        gsonBuilder.registerTypeAdapter(Locator.class, new LocatorAdapter());
+        gsonBuilder.registerTypeAdapter(StructureSnapshot.class, new SnapshotAdapter());
+        gsonBuilder.registerTypeAdapterFactory(new AnnotatedVariableAdapterFactory());
         if (prettyPrinting) {
             gsonBuilder.setPrettyPrinting();
         }
         return gsonBuilder.create();
     }
 
-    // private static class AnnotatedVariableAdapter extends
-    // TypeAdapter<AnnotatedVariable> {
-    //
-    // @Override
-    // public void write(JsonWriter out, AnnotatedVariable value) throws
-    // IOException {
-    // out.beginObject();
-    // out.endObject();
-    // }
-    //
-    // @Override
-    // public AnnotatedVariable read(JsonReader in) throws IOException {
-    // String identifier = null, rawType = null, abstractType = null, visual =
-    // null;
-    // Map<String, Object> attributes = null;
-    // in.beginObject();
-    // while (in.hasNext()) {
-    // String name = in.nextName();
-    // switch (name) {
-    // case "identifier":
-    // identifier = in.nextString();
-    // break;
-    // case "rawType":
-    // rawType = in.nextString();
-    // break;
-    // case "abstractType":
-    // abstractType = in.nextString();
-    // break;
-    // case "visual":
-    // visual = in.nextString();
-    // break;
-    // case "attributes":
-    // attributes = new HashMap<String, Object>();
-    // populateAttributes(attributes, in);
-    // break;
-    // }
-    // }
-    // in.endObject();
-    // AnnotatedVariable av = new AnnotatedVariable(identifier,
-    // RawType.fromString(rawType),
-    // AbstractType.fromString(abstractType), VisualType.fromString(visual),
-    // attributes);
-    // return av;
-    // }
-    //
-    // private void populateAttributes(Map<String, Object> attributes,
-    // JsonReader in) throws IOException {
-    // ArrayList<Integer> size = new ArrayList<Integer>();
-    // in.beginObject();
-    // if (in.peek() == JsonToken.END_OBJECT) {
-    // return;
-    // }
-    // in.nextName(); // Assume nextName() is "size".
-    // in.beginArray();
-    // outer: while (true) {
-    // if (in.peek() == JsonToken.NUMBER) {
-    // size.add(in.nextInt());
-    // } else {
-    // break outer;
-    // }
-    // }
-    // in.endArray();
-    // in.endObject();
-    // attributes.put(Key.size.name(), (Object) size);
-    // }
-    // }
+    // ============================================================= //
+    /*
+     *
+     * Operations
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Creates OperationAdapters for Operation and all its subclasses.
+     */
+    private static class OperationAdapterFactory implements TypeAdapterFactory {
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> TypeAdapter<T> create (Gson gson, TypeToken<T> type) {
+            if (Operation.class.isAssignableFrom(type.getRawType())) {
+                return (TypeAdapter<T>) new OperationAdapter(gson);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Decodes operations straight into their concrete classes, with locators as Locator
+     * and values as double arrays.
+     */
+    private static class OperationAdapter extends TypeAdapter<Operation> {
+
+        private static final TypeToken<Map<String, StructureSnapshot>> SNAPSHOTS =
+                new TypeToken<Map<String, StructureSnapshot>>() {
+                };
+
+        private final Gson gson;
+
+        private OperationAdapter (Gson gson) {
+            this.gson = gson;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        @Override
+        public void write (JsonWriter out, Operation op) throws IOException {
+            if (op == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (op.operation != null) {
+                out.name("operation").value(op.operation.name());
+            }
+            if (op.body != null) {
+                out.name("body");
+                out.beginObject();
+                for (Map.Entry<Key, Object> entry : op.body.entrySet()) {
+                    Object value = entry.getValue();
+                    if (value == null) {
+                        continue;
+                    }
+                    out.name(entry.getKey().name());
+                    if (value instanceof Locator) {
+                        writeLocator(out, (Locator) value);
+                    } else if (value instanceof double[]) {
+                        writeDoubleArray(out, (double[]) value);
+                    } else if (value instanceof int[]) {
+                        writeIntArray(out, (int[]) value);
+                    } else if (value instanceof String) {
+                        out.value((String) value);
+                    } else if (value instanceof Boolean) {
+                        out.value((Boolean) value);
+                    } else {
+                        ((TypeAdapter) gson.getAdapter(value.getClass())).write(out, value);
+                    }
+                }
+                out.endObject();
+            }
+            if (op.source != null) {
+                out.name("source").value(op.source);
+            }
+            if (op.sourceRows != null) {
+                out.name("sourceRows");
+                writeIntArray(out, op.sourceRows);
+            }
+            out.name("group").value(op.group);
+            if (op instanceof HighLevelOperation) {
+                List<OP_ReadWrite> atomicOperations = ((HighLevelOperation) op).atomicOperations;
+                if (atomicOperations != null && !atomicOperations.isEmpty()) {
+                    out.name("atomicOperations");
+                    out.beginArray();
+                    for (OP_ReadWrite rw : atomicOperations) {
+                        write(out, rw);
+                    }
+                    out.endArray();
+                }
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Operation read (JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            OperationType type = null;
+            String unknownType = null;
+            String source = null;
+            int[] sourceRows = null;
+            int group = -1;
+            EnumMap<Key, Object> body = null;
+            List<Operation> atomicOperations = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "operation":
+                        String operation = in.nextString();
+                        try {
+                            type = OperationType.valueOf(operation);
+                        } catch (IllegalArgumentException e) {
+                            unknownType = operation;
+                        }
+                        break;
+                    case "body":
+                        body = readBody(in);
+                        break;
+                    case "source":
+                        source = in.nextString();
+                        break;
+                    case "sourceRows":
+                        sourceRows = readIntArray(in);
+                        break;
+                    case "group":
+                        group = in.nextInt();
+                        break;
+                    case "atomicOperations":
+                        atomicOperations = new ArrayList<Operation>();
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            atomicOperations.add(read(in));
+                        }
+                        in.endArray();
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+
+            if (type == null) {
+                // Skip the operation rather than the whole log, as OpParser does.
+                System.err.println("Unknown operation type: " + unknownType);
+                return null;
+            }
+            if (body == null) {
+                body = new EnumMap<Key, Object>(Key.class);
+            }
+            Operation op = create(type, body);
+            if (op == null) {
+                return null;
+            }
+            op.source = source;
+            op.sourceRows = sourceRows;
+            op.group = group;
+            if (atomicOperations != null && op instanceof HighLevelOperation) {
+                for (Operation atomic : atomicOperations) {
+                    if (atomic instanceof OP_ReadWrite) {
+                        ((HighLevelOperation) op).atomicOperations.add((OP_ReadWrite) atomic);
+                    }
+                }
+            }
+            return op;
+        }
+
+        /**
+         * Read an operation body. Locators are decoded as Locator, numeric values as
+         * double arrays, and strings and booleans as themselves.
+         */
+        private EnumMap<Key, Object> readBody (JsonReader in) throws IOException {
+            EnumMap<Key, Object> body = new EnumMap<Key, Object>(Key.class);
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                Key key;
+                try {
+                    key = Key.valueOf(name);
+                } catch (IllegalArgumentException e) {
+                    in.skipValue();
+                    continue;
+                }
+                switch (in.peek()) {
+                    case NULL:
+                        in.nextNull();
+                        break;
+                    case BEGIN_OBJECT:
+                        if (key == Key.snapshot) {
+                            body.put(key, gson.getAdapter(SNAPSHOTS).read(in));
+                        } else if (key == Key.target || key == Key.source || key == Key.var1 || key == Key.var2) {
+                            body.put(key, readLocator(in));
+                        } else {
+                            body.put(key, gson.getAdapter(Object.class).read(in));
+                        }
+                        break;
+                    case NUMBER:
+                        body.put(key, new double[]{in.nextDouble()});
+                        break;
+                    case BEGIN_ARRAY:
+                        body.put(key, readDoubleArray(in));
+                        break;
+                    case BOOLEAN:
+                        body.put(key, in.nextBoolean());
+                        break;
+                    case STRING:
+                        body.put(key, in.nextString());
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return body;
+        }
+
+        /**
+         * Create the concrete operation for the given type and body.
+         *
+         * @return The operation, or {@code null} if the type is not supported.
+         */
+        private static Operation create (OperationType type, Map<Key, Object> body) {
+            switch (type) {
+                case read:
+                case write:
+                case remove:
+                    OP_ReadWrite rw;
+                    if (type == OperationType.read) {
+                        rw = new OP_Read();
+                    } else if (type == OperationType.write) {
+                        rw = new OP_Write();
+                    } else {
+                        rw = new OP_ToggleScope();
+                    }
+                    rw.body.putAll(body);
+                    return rw;
+                case swap:
+                    OP_Swap swap = new OP_Swap();
+                    swap.body.putAll(body);
+                    return swap;
+                case checkpoint:
+                    OP_Checkpoint checkpoint = new OP_Checkpoint();
+                    checkpoint.body.putAll(body);
+                    return checkpoint;
+                case message:
+                    OP_Message message = new OP_Message();
+                    message.body.putAll(body);
+                    Object value = body.get(Key.value);
+                    if (value instanceof double[]) {
+                        double[] d = (double[]) value;
+                        message.setMessage(d.length == 1 ? Double.toString(d[0]) : Arrays.toString(d));
+                    }
+                    return message;
+                default:
+                    System.err.println("Unknown operation type: " + type);
+                    return null;
+            }
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Locators
+     *
+     */
+    // ============================================================= //
+
+    private static class LocatorAdapter extends TypeAdapter<Locator> {
+
+        @Override
+        public void write (JsonWriter out, Locator value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+            } else {
+                writeLocator(out, value);
+            }
+        }
+
+        @Override
+        public Locator read (JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return readLocator(in);
+        }
+    }
+
+    private static void writeLocator (JsonWriter out, Locator locator) throws IOException {
+        out.beginObject();
+        if (locator.identifier != null) {
+            out.name("identifier").value(locator.identifier);
+        }
+        if (locator.index != null) {
+            out.name("index");
+            writeIntArray(out, locator.index);
+        }
+        out.endObject();
+    }
+
+    private static Locator readLocator (JsonReader in) throws IOException {
+        String identifier = null;
+        int[] index = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else if (name.equals("identifier")) {
+                identifier = in.nextString();
+            } else if (name.equals("index")) {
+                index = readIntArray(in);
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Locator(identifier, index);
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Snapshots
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Writes snapshots as plain JSON. Elements without a value, such as removed elements,
+     * hold NaN, which JSON cannot represent: NaN is written as {@code null} and infinities
+     * as strings.
+     */
+    private static class SnapshotAdapter extends TypeAdapter<StructureSnapshot> {
+
+        @Override
+        public void write (JsonWriter out, StructureSnapshot value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("identifier").value(value.identifier);
+            out.name("active").value(value.active);
+            out.name("counters");
+            writeIntArray(out, value.counters);
+            out.name("indices");
+            out.beginArray();
+            for (int[] index : value.indices) {
+                writeIntArray(out, index);
+            }
+            out.endArray();
+            out.name("values");
+            writeSpecialDoubleArray(out, value.values);
+            out.name("previousValues");
+            writeSpecialDoubleArray(out, value.previousValues);
+            out.name("elementCounters");
+            writeIntArray(out, value.elementCounters);
+            out.name("inactive");
+            out.beginArray();
+            for (boolean b : value.inactive) {
+                out.value(b);
+            }
+            out.endArray();
+            out.endObject();
+        }
+
+        @Override
+        public StructureSnapshot read (JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String identifier = null;
+            boolean active = false;
+            int[] counters = new int[0];
+            List<int[]> indices = new ArrayList<int[]>();
+            double[] values = new double[0];
+            double[] previousValues = new double[0];
+            int[] elementCounters = new int[0];
+            boolean[] inactive = new boolean[0];
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "identifier":
+                        identifier = in.nextString();
+                        break;
+                    case "active":
+                        active = in.nextBoolean();
+                        break;
+                    case "counters":
+                        counters = readIntArray(in);
+                        break;
+                    case "indices":
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            indices.add(readIntArray(in));
+                        }
+                        in.endArray();
+                        break;
+                    case "values":
+                        values = readSpecialDoubleArray(in);
+                        break;
+                    case "previousValues":
+                        previousValues = readSpecialDoubleArray(in);
+                        break;
+                    case "elementCounters":
+                        elementCounters = readIntArray(in);
+                        break;
+                    case "inactive":
+                        List<Boolean> flags = new ArrayList<Boolean>();
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            flags.add(in.nextBoolean());
+                        }
+                        in.endArray();
+                        inactive = new boolean[flags.size()];
+                        for (int i = 0; i < inactive.length; i++) {
+                            inactive[i] = flags.get(i);
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return new StructureSnapshot(identifier, active, counters, indices.toArray(new int[indices.size()][]),
+                    values, previousValues, elementCounters, inactive);
+        }
+
+        private static void writeSpecialDoubleArray (JsonWriter out, double[] array) throws IOException {
+            out.beginArray();
+            for (double d : array) {
+                if (Double.isNaN(d)) {
+                    out.nullValue();
+                } else if (Double.isInfinite(d)) {
+                    out.value(Double.toString(d));
+                } else {
+                    out.value(d);
+                }
+            }
+            out.endArray();
+        }
+
+        private static double[] readSpecialDoubleArray (JsonReader in) throws IOException {
+            DoubleBuffer buffer = new DoubleBuffer();
+            in.beginArray();
+            while (in.hasNext()) {
+                switch (in.peek()) {
+                    case NULL:
+                        in.nextNull();
+                        buffer.add(Double.NaN);
+                        break;
+                    case STRING:
+                        buffer.add(Double.parseDouble(in.nextString()));
+                        break;
+                    default:
+                        buffer.add(in.nextDouble());
+                        break;
+                }
+            }
+            in.endArray();
+            return Arrays.copyOf(buffer.array, buffer.size);
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Annotated variables
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Creates the AnnotatedVariableAdapter for AnnotatedVariable. Subclasses such as
+     * DataStructure are written as plain AnnotatedVariables.
+     */
+    private static class AnnotatedVariableAdapterFactory implements TypeAdapterFactory {
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T> TypeAdapter<T> create (Gson gson, TypeToken<T> type) {
+            if (AnnotatedVariable.class.isAssignableFrom(type.getRawType())) {
+                return (TypeAdapter<T>) new AnnotatedVariableAdapter(gson);
+            }
+            return null;
+        }
+    }
+
+    private static class AnnotatedVariableAdapter extends TypeAdapter<AnnotatedVariable> {
+
+        private final Gson gson;
+
+        private AnnotatedVariableAdapter (Gson gson) {
+            this.gson = gson;
+        }
+
+        @Override
+        public void write (JsonWriter out, AnnotatedVariable value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("identifier").value(value.identifier);
+            if (value.rawType != null) {
+                out.name("rawType").value(value.rawType.name());
+            }
+            if (value.abstractType != null) {
+                out.name("abstractType").value(value.abstractType.name());
+            }
+            if (value.visual != null) {
+                out.name("visual").value(value.visual.name());
+            }
+            out.name("attributes");
+            gson.getAdapter(Map.class).write(out, value.attributes);
+            out.endObject();
+        }
+
+        @Override
+        public AnnotatedVariable read (JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String identifier = null;
+            RawType rawType = null;
+            AbstractType abstractType = null;
+            VisualType visual = null;
+            Map<String, Object> attributes = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "identifier":
+                        identifier = in.nextString();
+                        break;
+                    case "rawType":
+                        rawType = enumValue(RawType.class, in.nextString());
+                        break;
+                    case "abstractType":
+                        abstractType = enumValue(AbstractType.class, in.nextString());
+                        break;
+                    case "visual":
+                        visual = enumValue(VisualType.class, in.nextString());
+                        break;
+                    case "attributes":
+                        attributes = readAttributes(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            if (identifier == null) {
+                throw new JsonSyntaxException("AnnotatedVariable identifier missing.");
+            }
+            return new AnnotatedVariable(identifier, rawType, abstractType, visual, attributes);
+        }
+
+        /**
+         * Read the attributes map. The size attribute is decoded as an int array.
+         */
+        private Map<String, Object> readAttributes (JsonReader in) throws IOException {
+            Map<String, Object> attributes = new HashMap<String, Object>();
+            TypeAdapter<Object> objectAdapter = gson.getAdapter(Object.class);
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals(Key.size.name()) && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    attributes.put(name, readIntArray(in));
+                } else {
+                    attributes.put(name, objectAdapter.read(in));
+                }
+            }
+            in.endObject();
+            return attributes;
+        }
+
+        private static <E extends Enum<E>> E enumValue (Class<E> type, String name) {
+            try {
+                return Enum.valueOf(type, name);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private static void writeIntArray (JsonWriter out, int[] array) throws IOException {
+        out.beginArray();
+        for (int i : array) {
+            out.value(i);
+        }
+        out.endArray();
+    }
+
+    private static void writeDoubleArray (JsonWriter out, double[] array) throws IOException {
+        out.beginArray();
+        for (double d : array) {
+            out.value(d);
+        }
+        out.endArray();
+    }
+
+    private static int[] readIntArray (JsonReader in) throws IOException {
+        int[] array = new int[8];
+        int size = 0;
+        in.beginArray();
+        while (in.hasNext()) {
+            if (size == array.length) {
+                array = Arrays.copyOf(array, size * 2);
+            }
+            array[size++] = (int) in.nextDouble();
+        }
+        in.endArray();
+        return Arrays.copyOf(array, size);
+    }
+
+    /**
+     * Read a possibly nested array of numbers into a flat array of doubles.
+     */
+    private static double[] readDoubleArray (JsonReader in) throws IOException {
+        DoubleBuffer buffer = new DoubleBuffer();
+        readDoubleArray(in, buffer);
+        return Arrays.copyOf(buffer.array, buffer.size);
+    }
+
+    private static void readDoubleArray (JsonReader in, DoubleBuffer buffer) throws IOException {
+        in.beginArray();
+        while (in.hasNext()) {
+            if (in.peek() == JsonToken.BEGIN_ARRAY) {
+                readDoubleArray(in, buffer);
+            } else {
+                buffer.add(in.nextDouble());
+            }
+        }
+        in.endArray();
+    }
+
+    /**
+     * A growable array of doubles.
+     */
+    private static class DoubleBuffer {
+        private double[] array = new double[8];
+        private int size;
+
+        private void add (double d) {
+            if (size == array.length) {
+                array = Arrays.copyOf(array, size * 2);
+            }
+            array[size++] = d;
+        }
+    }
 }
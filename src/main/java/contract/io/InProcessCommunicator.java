@@ -0,0 +1,252 @@
+package contract.io;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import contract.assets.Const;
+import contract.wrapper.Root;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Communicator for producers and receivers running in the same JVM. Wrappers are handed
+ * by reference to every other member of the channel, without serialisation or network,
+ * and listeners are notified on the thread of the sender. If several members send at
+ * once, listeners may be notified from several threads, but never at the same time. <br>
+ * <b>NOTE:</b> Since Wrappers are shared rather than copied, neither senders nor
+ * receivers should modify them after sending.
+ */
+public class InProcessCommunicator implements Communicator {
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * The members of every channel in this JVM.
+     */
+    private static final Map<String, List<InProcessCommunicator>> channels =
+            new ConcurrentHashMap<String, List<InProcessCommunicator>>();
+
+    public final String hierarchy;
+    public boolean suppressIncoming;
+    private final int senderId;
+    private final String channel;
+    private final ComListener listener;
+    private final MpscQueue<Root> incomingQueue = new MpscQueue<Root>();
+    private final FlowControl flowControl = new FlowControl();
+    /**
+     * Serialises delivery to the listener, which may be called from several senders.
+     */
+    private final Object deliveryLock = new Object();
+    private Gson gson;
+
+    // ============================================================= //
+    /*
+     *
+     * Constructors
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Create a new InProcessCommunicator with a random transmitter id. Joins the default
+     * channel.
+     *
+     * @param hierarchy The user hierarchy for this InProcessCommunicator.
+     * @param listener The listener for this InProcessCommunicator.
+     * @param suppressIncoming If true, incoming Wrappers will be ignored.
+     */
+    public InProcessCommunicator (String hierarchy, ComListener listener, boolean suppressIncoming) {
+        this(hierarchy, (int) (Math.random() * Integer.MAX_VALUE), Const.DEFAULT_CHANNEL, listener,
+                suppressIncoming);
+    }
+
+    /**
+     * Create a new InProcessCommunicator with the given transmitter id. Joins the given
+     * channel.
+     *
+     * @param hierarchy The user hierarchy for this InProcessCommunicator.
+     * @param senderId The transmitter id for this InProcessCommunicator.
+     * @param channel The channel to join.
+     * @param listener The listener for this InProcessCommunicator.
+     * @param suppressIncoming If true, incoming Wrappers will be ignored.
+     */
+    public InProcessCommunicator (String hierarchy, int senderId, String channel, ComListener listener,
+                                  boolean suppressIncoming) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener may not be null.");
+        }
+        this.hierarchy = "InProcessCommunicator[" + hierarchy + "], id = " + senderId;
+        this.senderId = senderId;
+        this.channel = channel;
+        this.listener = listener;
+        this.suppressIncoming = suppressIncoming;
+        channels.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<InProcessCommunicator>()).add(this);
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Getters and Setters
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns the name of the channel this InProcessCommunicator is a member of.
+     *
+     * @return The name of the channel.
+     */
+    public String getChannel () {
+        return channel;
+    }
+
+    /**
+     * Returns the number of members of the channel, including this one.
+     *
+     * @return The number of members of the channel.
+     */
+    public int getMemberCount () {
+        List<InProcessCommunicator> members = channels.get(channel);
+        return members == null ? 0 : members.size();
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Interface
+     *
+     */
+    // ============================================================= //
+
+    @Override
+    public Root popQueuedMessage () {
+        return incomingQueue.poll();
+    }
+
+    @Override
+    public List<Root> getAllQueuedMessages () {
+        ArrayList<Root> allQueuedMessages = new ArrayList<Root>();
+        incomingQueue.drainTo(allQueuedMessages);
+        return allQueuedMessages;
+    }
+
+    @Override
+    public int drainQueuedMessages (Collection<? super Root> target) {
+        return incomingQueue.drainTo(target);
+    }
+
+    /**
+     * Hand the given Wrapper to every other member of the channel.
+     *
+     * @param outgoing The Wrapper to send.
+     * @return True if the Wrapper was handed over, false if this InProcessCommunicator is
+     * closed.
+     */
+    @Override
+    public boolean sendWrapper (Root outgoing) {
+        List<InProcessCommunicator> members = channels.get(channel);
+        if (members == null || !members.contains(this)) {
+            return false;
+        }
+        for (InProcessCommunicator member : members) {
+            if (member != this) {
+                member.deliver(outgoing);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean sendWrappers (List<Root> outgoing) {
+        boolean allSuccessful = true;
+        for (Root w : outgoing) {
+            allSuccessful = allSuccessful && sendWrapper(w);
+        }
+        return allSuccessful;
+    }
+
+    /**
+     * Parse the given String and hand the Wrapper to every other member of the channel.
+     * <br>
+     * <b>NOTE:</b> JSONString must be a valid serialisation of a Wrapper.
+     *
+     * @param JSONString The JSON String to send.
+     * @return True if the String was successfully sent. False otherwise.
+     */
+    @Override
+    public boolean sendString (String JSONString) {
+        Root root;
+        try {
+            root = getGson().fromJson(JSONString, Root.class);
+        } catch (JsonParseException e) {
+            System.err.println("JSON String malformed: " + JSONString);
+            return false;
+        }
+        return sendWrapper(root);
+    }
+
+    @Override
+    public boolean sendCredit (FlowControl.Credit credit) {
+        List<InProcessCommunicator> members = channels.get(channel);
+        if (members == null) {
+            return false;
+        }
+        for (InProcessCommunicator member : members) {
+            if (member != this) {
+                member.flowControl.update(senderId, credit);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public FlowControl getFlowControl () {
+        return flowControl;
+    }
+
+    /**
+     * Leave the channel. Wrappers already queued may still be read.
+     */
+    @Override
+    public void close () {
+        List<InProcessCommunicator> members = channels.get(channel);
+        if (members != null) {
+            members.remove(this);
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private void deliver (Root w) {
+        if (suppressIncoming) {
+            return;
+        }
+        synchronized (deliveryLock) {
+            incomingQueue.offer(w);
+            listener.messageReceived(CommunicatorMessage.WRAPPER);
+        }
+    }
+
+    private synchronized Gson getGson () {
+        if (gson == null) {
+            gson = GsonContructor.build();
+        }
+        return gson;
+    }
+}
@@ -2,18 +2,40 @@ package contract.io;
 
 import com.google.gson.Gson;
 import contract.assets.Const;
+import contract.utility.OpParser;
+import contract.wrapper.Operation;
 import contract.wrapper.Root;
+import org.jgroups.Address;
 import org.jgroups.JChannel;
 import org.jgroups.Message;
 import org.jgroups.ReceiverAdapter;
+import org.jgroups.View;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 
 /**
- * Interprocess communication implementation using the JGroups library.
+ * Interprocess communication implementation using the JGroups library. <br>
+ * Control messages, such as membership info and flow control reports, are sent out of
+ * band: they are not ordered with other messages, skip the bundling of outgoing messages
+ * and are handled as soon as they arrive rather than after the Wrappers already waiting
+ * to be decoded. Membership stays responsive while large Wrappers are being streamed.
  *
  * @author Richard Sundqvist
  */
@@ -35,6 +57,23 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
      * Send messages in JSON mode (Wrapper serialised as JSON String).
      */
     public static final short SENDER_MODE_JSON = 1;
+    /**
+     * Send messages in binary mode (Wrapper encoded using {@link WireCodec}).
+     */
+    public static final short SENDER_MODE_BINARY = 2;
+    /**
+     * Maximum number of live Wrappers held back while waiting for a catch-up, after which
+     * the catch-up is given up.
+     */
+    public static final int MAX_CATCH_UP_BACKLOG = 4096;
+
+    /**
+     * Minimum time between requests for info from the same member, in milliseconds.
+     */
+    public static final long CONTACT_RETRY_MILLIS = 2000;
+
+    private static final int MAX_JOINED_MEMBERS = 64;
+
     /**
      * If true, most incoming messages will be ignored. The messageReceived() method of
      * the listener will be called only if the listener has requested a head count of
@@ -46,11 +85,45 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
     private final int senderId;
     private short senderMode;
     private String channel;
-    private final List<Root> incomingQueue;
+    private final MpscQueue<Root> incomingQueue;
     private final ComListener listener;
     private final Gson gson;
     private JChannel jChannel;
-    private final HashMap<Integer, String> allTransmitters;
+    private final Map<Integer, String> allTransmitters;
+    private final FlowControl flowControl = new FlowControl();
+    private final ChunkAssembler chunkAssembler = new ChunkAssembler();
+    private volatile DecodePool decodePool = new DecodePool(DecodePool.DEFAULT_WORKERS);
+    /**
+     * Serialises delivery to the listener, which may be called from several workers.
+     */
+    private final Object deliveryLock = new Object();
+    /**
+     * Serialises control notifications, which must not wait behind Wrapper delivery.
+     */
+    private final Object controlLock = new Object();
+    private int compressionLevel = Deflater.NO_COMPRESSION;
+    /**
+     * Identifiers of headers sent, used to prime compression. Guarded by itself.
+     */
+    private final Set<String> dictionaryIdentifiers = new LinkedHashSet<String>();
+    private final Map<Integer, Address> memberAddresses = new ConcurrentHashMap<Integer, Address>();
+    /**
+     * Members seen for the first time, not yet popped. Guarded by itself.
+     */
+    private final ArrayDeque<Integer> joinedMembers = new ArrayDeque<Integer>();
+    private final ChunkAssembler catchUpAssembler = new ChunkAssembler();
+    private final Map<Integer, CatchUp> catchUps = new ConcurrentHashMap<Integer, CatchUp>();
+    /**
+     * Members which have delivered Wrappers to the listener.
+     */
+    private final Set<Integer> dataSenders = ConcurrentHashMap.newKeySet();
+    private volatile Set<String> subscription;
+    // Membership, see viewAccepted().
+    private final Map<Address, Integer> memberIds = new ConcurrentHashMap<Address, Integer>();
+    private final Map<Address, Long> contactRequests = new ConcurrentHashMap<Address, Long>();
+    private Set<Address> view; // Guarded by memberIds.
+    private final AtomicLong controlSent = new AtomicLong();
+    private final AtomicLong controlReceived = new AtomicLong();
 
     // ============================================================= //
     /*
@@ -103,17 +176,17 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
         this.listener = listener;
         this.suppressIncoming = suppressIncoming;
         setNativeSenderMode();
-        gson = new Gson();
-        incomingQueue = new ArrayList<Root>();
-        allTransmitters = new HashMap<Integer, String>();
+        gson = GsonContructor.build();
+        incomingQueue = new MpscQueue<Root>();
+        allTransmitters = new ConcurrentHashMap<Integer, String>();
         try {
             jChannel = new JChannel("udp.xml");
             jChannel.connect(this.channel);
             jChannel.setReceiver(this);
+            viewAccepted(jChannel.getView()); // In case it was installed before setReceiver().
             // Say hello
-            Message hello = new Message();
-            hello.setObject(new CommunicatorMessage(null, senderId, CommunicatorMessage.HELLO));
-            jChannel.send(hello);
+            controlSent.incrementAndGet();
+            jChannel.send(controlMessage(null, new CommunicatorMessage(null, senderId, CommunicatorMessage.HELLO)));
         } catch (Exception e1) {
             e1.printStackTrace();
         }
@@ -137,7 +210,8 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
     }
 
     /**
-     * Change channel this JGroupCommunicator will use to communicate.
+     * Change channel this JGroupCommunicator will use to communicate. Everything known
+     * about the members of the previous channel is forgotten.
      *
      * @param channel The name of the channel this JGroupCommunicator will use.
      */
@@ -148,7 +222,21 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
         this.channel = channel;
         try {
             jChannel.disconnect();
+            synchronized (memberIds) {
+                // Members of the old channel are unknown on the new one.
+                view = null;
+                memberIds.clear();
+                memberAddresses.clear();
+                allTransmitters.clear();
+                contactRequests.clear();
+                catchUps.clear();
+                dataSenders.clear();
+            }
+            synchronized (joinedMembers) {
+                joinedMembers.clear();
+            }
             jChannel.connect(this.channel);
+            viewAccepted(jChannel.getView());
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -169,6 +257,63 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
         senderMode = SENDER_MODE_JSON;
     }
 
+    /**
+     * Set the sender mode of this JGroupCommunicator to Binary (Wrapper encoded using
+     * {@link WireCodec}). Binary messages are much smaller and cheaper to encode and
+     * decode than serialised Wrappers.
+     */
+    public void setBinarySenderMode () {
+        senderMode = SENDER_MODE_BINARY;
+    }
+
+    /**
+     * Set the number of workers decoding received messages, see {@link DecodePool}.
+     * Messages from the same sender are decoded and delivered in order. With no workers,
+     * messages are decoded on the JGroups delivery thread, which a slow listener will
+     * then stall.
+     *
+     * @param workers The number of workers, or 0 to decode on the delivery thread.
+     */
+    public void setDecodeWorkers (int workers) {
+        DecodePool old = decodePool;
+        if (workers > 0) {
+            decodePool = new DecodePool(workers, old); // Waits for the old pool to drain.
+            if (old != null) {
+                old.close();
+            }
+        } else if (old != null) {
+            // Messages refused by the closed pool wait for it in decode().
+            old.close();
+            old.awaitTermination();
+            decodePool = null;
+        }
+    }
+
+    /**
+     * Compress outgoing Wrappers in any sender mode, see
+     * {@link WireCodec#compress(byte[], int, Collection)}. Compression is primed with the
+     * identifiers of the headers sent so far. Receivers detect compressed messages
+     * automatically. Worthwhile when the network rather than the CPU is the bottleneck.
+     *
+     * @param level The compression level from 1 (fastest) to 9 (smallest), or
+     * {@link Deflater#NO_COMPRESSION} to disable compression.
+     */
+    public void setCompressionLevel (int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        compressionLevel = level;
+    }
+
+    /**
+     * Returns the compression level of this JGroupCommunicator.
+     *
+     * @return The compression level, or {@link Deflater#NO_COMPRESSION} if disabled.
+     */
+    public int getCompressionLevel () {
+        return compressionLevel;
+    }
+
     /**
      * Returns the sender mode of this JGroupCommunicator.
      *
@@ -178,6 +323,47 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
         return senderMode;
     }
 
+    /**
+     * Returns the number of membership control messages (such as
+     * {@link CommunicatorMessage#FIRST_CONTACT}) sent by this JGroupCommunicator.
+     *
+     * @return The number of control messages sent.
+     */
+    public long getControlMessagesSent () {
+        return controlSent.get();
+    }
+
+    /**
+     * Returns the number of membership control messages received by this
+     * JGroupCommunicator, not counting its own.
+     *
+     * @return The number of control messages received.
+     */
+    public long getControlMessagesReceived () {
+        return controlReceived.get();
+    }
+
+    /**
+     * Returns the number of members in the current view of the channel, including this
+     * one.
+     *
+     * @return The number of members, or 0 if not connected.
+     */
+    public int getMemberCount () {
+        synchronized (memberIds) {
+            return view == null ? 0 : view.size() + 1;
+        }
+    }
+
+    /**
+     * Returns the assembler for received chunks, which counts lost and duplicate chunks.
+     *
+     * @return The ChunkAssembler of this JGroupCommunicator.
+     */
+    public ChunkAssembler getChunkAssembler () {
+        return chunkAssembler;
+    }
+
     // ============================================================= //
     /*
      *
@@ -186,9 +372,121 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
      */
     // ============================================================= //
 
+    /**
+     * Hand a received message to the decode workers, or decode it right away if there are
+     * none.
+     *
+     * @param incoming The received message.
+     */
     @Override
     public void receive (Message incoming) {
-        Object messageObject = incoming.getObject();
+        if (incoming.isFlagSet(Message.Flag.OOB)) {
+            handle(incoming); // Control messages are small, don't queue them behind data.
+            return;
+        }
+        decode(incoming.getSrc(), () -> handle(incoming));
+    }
+
+    /**
+     * Track membership of the channel. Members already in the channel ask each new member
+     * for info, using a message sent only to that member; a member which has just joined
+     * waits to be asked. Anything known about members which have left is forgotten.
+     *
+     * @param newView The new view of the channel.
+     */
+    @Override
+    public void viewAccepted (View newView) {
+        if (newView == null || newView.getMembers() == null) {
+            return;
+        }
+        Address self = jChannel == null ? null : jChannel.getAddress();
+        Set<Address> members = new HashSet<Address>(newView.getMembers());
+        members.remove(self);
+        List<Address> joined = new ArrayList<Address>();
+        synchronized (memberIds) {
+            if (view != null) {
+                for (Address address : members) {
+                    if (!view.contains(address)) {
+                        joined.add(address);
+                    }
+                }
+                for (Address address : view) {
+                    if (!members.contains(address)) {
+                        forget(address);
+                    }
+                }
+            }
+            view = members;
+        }
+        for (Address address : joined) {
+            requestMemberInfo(address);
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // =============================================================
+
+    /**
+     * Run a task on the decode pool, after the tasks already queued for the same sender.
+     * If the pool is closed because it was replaced, the task goes to the new pool, which
+     * runs it once the old pool has drained. The task runs on the calling thread only
+     * when there is no pool left, after every queued task has run.
+     *
+     * @param sender The sender the task belongs to.
+     * @param task The task to run.
+     */
+    private void decode (Address sender, Runnable task) {
+        DecodePool pool = decodePool;
+        while (pool != null) {
+            if (pool.execute(sender, task)) {
+                return;
+            }
+            if (decodePool == pool) {
+                pool.awaitTermination(); // Being removed, or closed along with the channel.
+                if (decodePool == pool) {
+                    break;
+                }
+            }
+            pool = decodePool;
+        }
+        task.run();
+    }
+
+    private void handle (Message incoming) {
+        Object messageObject;
+        byte[] buffer = incoming.getRawBuffer();
+        int offset = incoming.getOffset();
+        int length = incoming.getLength();
+        try {
+            boolean compressed = WireCodec.isCompressed(buffer, offset, length);
+            if (compressed) {
+                buffer = WireCodec.decompress(buffer, offset, length);
+                offset = 0;
+                length = buffer.length;
+            }
+            Set<String> subscription = this.subscription;
+            if (subscription != null) {
+                String topic = WireCodec.peekTopic(buffer, offset, length);
+                if (topic != null && !subscription.contains(topic)) {
+                    return; // Not subscribed, don't bother decoding.
+                }
+            }
+            if (WireCodec.isEncoded(buffer, offset, length)) {
+                messageObject = WireCodec.decode(buffer, offset, length);
+            } else if (compressed) {
+                messageObject = new ObjectInputStream(new ByteArrayInputStream(buffer)).readObject();
+            } else {
+                messageObject = incoming.getObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Binary message malformed: " + e.getMessage());
+            return;
+        }
         if (messageObject instanceof CommunicatorMessage == false) {
             System.err.println("Invalid message type: " + messageObject);
             return;
@@ -197,75 +495,311 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
         if (message.senderId == senderId) {
             return; // Don't process our own messages.
         }
-        if (allTransmitters.keySet().contains(new Integer(message.senderId)) == false) {
-            requestMemberInfo(CommunicatorMessage.FIRST_CONTACT);
+        if (isControl(message.messageType)) {
+            controlReceived.incrementAndGet();
+        } else if (allTransmitters.containsKey(message.senderId) == false) {
+            requestMemberInfo(incoming.getSrc()); // Missed by viewAccepted().
         }
         switch (message.messageType) {
             case CommunicatorMessage.WRAPPER:
                 if (suppressIncoming) {
                     return;
                 }
-                addAndFireEvent((Root) message.payload);
+                deliver(message.senderId, (Root) message.payload);
                 break;
             case CommunicatorMessage.JSON:
                 if (suppressIncoming) {
                     return;
                 }
                 try {
-                    addAndFireEvent(gson.fromJson((String) message.payload, Root.class));
+                    deliver(message.senderId, gson.fromJson((String) message.payload, Root.class));
                 } catch (Exception e) {
                     System.err.println("JSON String malformed: " + message.payload);
                 }
                 break;
+            case CommunicatorMessage.CHUNK:
+                if (suppressIncoming) {
+                    return;
+                }
+                for (Root part : chunkAssembler.accept(message.senderId, (Chunk) message.payload)) {
+                    deliver(message.senderId, part);
+                }
+                break;
+            case CommunicatorMessage.TOPIC:
+                if (suppressIncoming || !isSubscribed((Topic) message.payload)) {
+                    return;
+                }
+                deliver(message.senderId, ((Topic) message.payload).root);
+                break;
+            case CommunicatorMessage.CATCH_UP:
+                if (suppressIncoming) {
+                    return;
+                }
+                acceptCatchUp(message.senderId, (Chunk) message.payload);
+                break;
+            case CommunicatorMessage.CATCH_UP_MARK:
+                if (suppressIncoming || !Integer.valueOf(senderId).equals(message.payload)) {
+                    return;
+                }
+                markCatchUp(message.senderId);
+                break;
+            case CommunicatorMessage.CREDIT:
+                // Handled even if suppressing, since senders are the ones who need it.
+                if (message.payload instanceof FlowControl.Credit) {
+                    flowControl.update(message.senderId, (FlowControl.Credit) message.payload);
+                }
+                break;
+            case CommunicatorMessage.HELLO:
+            case CommunicatorMessage.FIRST_CONTACT:
+            case CommunicatorMessage.FIRST_CONTACT_ACK:
+                register(message.senderId, incoming.getSrc());
+                handleInformationExchange((String) message.payload, message.messageType, message.senderId,
+                        incoming.getSrc());
+                break;
             default:
-                handleInformationExchange((String) message.payload, message.messageType, message.senderId);
+                handleInformationExchange((String) message.payload, message.messageType, message.senderId,
+                        incoming.getSrc());
                 break;
         }
     }
 
-    // ============================================================= //
-    /*
-     *
-     * Utility
-     *
+    /**
+     * Hand a received Wrapper to the listener, unless it is held back until a catch-up
+     * from the same sender has arrived.
      */
-    // =============================================================
+    private void deliver (int sender, Root w) {
+        dataSenders.add(sender);
+        CatchUp catchUp = catchUps.isEmpty() ? null : catchUps.get(sender);
+        if (catchUp == null || !catchUp.marked) {
+            addAndFireEvent(w);
+            return;
+        }
+        catchUp.live.add(w);
+        if (catchUp.live.size() > MAX_CATCH_UP_BACKLOG) {
+            System.err.println("Catch-up from " + sender + " not received, resuming live stream.");
+            catchUps.remove(sender);
+            for (Root r : catchUp.live) {
+                addAndFireEvent(r);
+            }
+        }
+    }
 
-    private void handleInformationExchange (String member_string, short messageType, int senderId) {
+    private boolean isSubscribed (Topic topic) {
+        Set<String> subscription = this.subscription;
+        return subscription == null || subscription.contains(topic.identifier);
+    }
+
+    private void acceptCatchUp (int sender, Chunk chunk) {
+        CatchUp catchUp = catchUps.get(sender);
+        if (catchUp == null || (catchUp.transferId != null && catchUp.transferId != chunk.transferId)) {
+            catchUp = new CatchUp(); // A catch-up without a mark, or a newer one.
+            catchUps.put(sender, catchUp);
+        }
+        catchUp.transferId = chunk.transferId;
+        catchUp.parts.addAll(catchUpAssembler.accept(sender, chunk));
+        catchUp.complete = catchUpAssembler.isComplete(chunk.transferId);
+        if (catchUp.complete && catchUp.marked) {
+            finishCatchUp(sender, catchUp);
+        }
+    }
+
+    private void markCatchUp (int sender) {
+        CatchUp catchUp = catchUps.get(sender);
+        if (catchUp == null || catchUp.marked) {
+            catchUp = new CatchUp();
+            catchUps.put(sender, catchUp);
+        }
+        catchUp.marked = true;
+        if (catchUp.complete) {
+            finishCatchUp(sender, catchUp);
+        }
+    }
+
+    /**
+     * Replace what has been received from the sender with the catch-up, then deliver the
+     * live Wrappers held back while waiting for it. The listener cannot tell which sender
+     * its data came from, so the catch-up is refused if other senders have delivered
+     * Wrappers too.
+     */
+    private void finishCatchUp (int sender, CatchUp catchUp) {
+        catchUps.remove(sender);
+        boolean onlySender = true;
+        for (Integer dataSender : dataSenders) {
+            onlySender = onlySender && dataSender == sender;
+        }
+        if (onlySender) {
+            notifyListener(CommunicatorMessage.CATCH_UP);
+            for (Root r : catchUp.parts) {
+                addAndFireEvent(r);
+            }
+        } else {
+            System.err.println("Catch-up from " + sender + " refused: other senders are streaming.");
+        }
+        dataSenders.add(sender);
+        for (Root r : catchUp.live) {
+            addAndFireEvent(r);
+        }
+    }
+
+    /**
+     * Remember the address of a member. The first time a member is seen, listeners are
+     * notified with {@link CommunicatorMessage#HELLO}.
+     */
+    private void register (int memberId, Address address) {
+        if (address == null) {
+            return;
+        }
+        memberIds.put(address, memberId);
+        if (memberAddresses.putIfAbsent(memberId, address) == null) {
+            synchronized (joinedMembers) {
+                if (joinedMembers.size() == MAX_JOINED_MEMBERS) {
+                    joinedMembers.pollFirst();
+                }
+                joinedMembers.addLast(memberId);
+            }
+            // Listeners may answer with a catch-up, keep that off the control lane.
+            Runnable notify = () -> notifyListener(CommunicatorMessage.HELLO);
+            decode(address, notify);
+        }
+    }
+
+    /**
+     * Notify the listener. {@link CommunicatorMessage#CATCH_UP} replaces delivered data
+     * and is serialised with Wrapper delivery. Other notifications only report member
+     * changes: they have their own lock so that they never wait for a large Wrapper to
+     * be handled.
+     */
+    private void notifyListener (short messageType) {
+        Object lock = messageType == CommunicatorMessage.CATCH_UP ? deliveryLock : controlLock;
+        synchronized (lock) {
+            listener.messageReceived(messageType);
+        }
+    }
+
+    /**
+     * Create a message for the control lane, see the class description.
+     */
+    private static Message controlMessage (Address destination, CommunicatorMessage message) {
+        Message m = new Message(destination);
+        m.setObject(message);
+        m.setFlag(Message.Flag.OOB, Message.Flag.DONT_BUNDLE);
+        return m;
+    }
+
+    /**
+     * Forget a member which has left the channel. Must hold the memberIds lock.
+     */
+    private void forget (Address address) {
+        contactRequests.remove(address);
+        Integer memberId = memberIds.remove(address);
+        if (memberId != null) {
+            allTransmitters.remove(memberId);
+            memberAddresses.remove(memberId);
+            catchUps.remove(memberId);
+            dataSenders.remove(memberId);
+        }
+    }
+
+    private static boolean isControl (short messageType) {
+        return messageType >= CommunicatorMessage.HELLO && messageType <= CommunicatorMessage.FIRST_CONTACT_ACK;
+    }
+
+    private void handleInformationExchange (String member_string, short messageType, int senderId, Address src) {
         switch (messageType) {
             case CommunicatorMessage.BROADCAST_CHANNEL_CHECK_IN:
-                sendMemberInfo(CommunicatorMessage.CHECKING_IN);
+                sendMemberInfo(src, CommunicatorMessage.CHECKING_IN);
                 break;
             case CommunicatorMessage.FIRST_CONTACT:
-                sendMemberInfo(CommunicatorMessage.FIRST_CONTACT_ACK);
+                if (member_string != null) {
+                    allTransmitters.put(senderId, member_string);
+                }
+                sendMemberInfo(src, CommunicatorMessage.FIRST_CONTACT_ACK);
                 break;
             case CommunicatorMessage.CHECKING_IN:
                 if (listenForMemeberInfo) {
                     currentMemberStrings.add(member_string);
-                    listener.messageReceived(CommunicatorMessage.CHECKING_IN);
+                    notifyListener(CommunicatorMessage.CHECKING_IN);
                 }
                 break;
             case CommunicatorMessage.HELLO:
-                requestMemberInfo(CommunicatorMessage.FIRST_CONTACT);
+                if (allTransmitters.containsKey(senderId) == false) {
+                    requestMemberInfo(src);
+                }
                 break;
             case CommunicatorMessage.FIRST_CONTACT_ACK:
-                allTransmitters.put(new Integer(senderId), member_string);
+                allTransmitters.put(senderId, member_string);
+                if (src != null) {
+                    contactRequests.remove(src);
+                }
                 break;
         }
     }
 
-    private void requestMemberInfo (short context) {
-        Message memberInfo = new Message();
-        memberInfo.setObject(new CommunicatorMessage(null, senderId, context));
+    private byte[] compress (Root outgoing, CommunicatorMessage message) throws IOException {
+        byte[] data;
+        if (senderMode == SENDER_MODE_NATIVE && message.messageType != CommunicatorMessage.TOPIC) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(message);
+            }
+            data = bytes.toByteArray();
+        } else {
+            data = WireCodec.encode(message);
+        }
+        synchronized (dictionaryIdentifiers) {
+            if (outgoing.header != null && outgoing.header.annotatedVariables != null) {
+                dictionaryIdentifiers.addAll(outgoing.header.annotatedVariables.keySet());
+            }
+            byte[] compressed = WireCodec.compress(data, compressionLevel, dictionaryIdentifiers);
+            // Small messages may grow, send those as usual.
+            return compressed.length < data.length ? compressed : null;
+        }
+    }
+
+    private boolean send (Address destination, Root outgoing, CommunicatorMessage message) {
+        Message outMessage = new Message(destination);
         try {
-            jChannel.send(memberInfo);
+            byte[] compressed = compressionLevel == Deflater.NO_COMPRESSION ? null : compress(outgoing, message);
+            if (compressed != null) {
+                outMessage.setBuffer(compressed);
+            } else if (senderMode == SENDER_MODE_BINARY || message.messageType == CommunicatorMessage.TOPIC) {
+                outMessage.setBuffer(WireCodec.encode(message));
+            } else {
+                outMessage.setObject(message);
+            }
+        } catch (IOException e) {
+            System.err.println("Message could not be sent: " + e);
+            return false;
+        }
+        try {
+            jChannel.send(outMessage);
         } catch (Exception e) {
+            System.err.println("Message could not be sent: " + e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Ask a member for info, unless it was asked recently. Our own info is included, so
+     * that the member learns about us without asking back.
+     */
+    private void requestMemberInfo (Address destination) {
+        if (destination == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Long last = contactRequests.get(destination);
+        if (last != null && now - last < CONTACT_RETRY_MILLIS) {
+            return;
         }
+        contactRequests.put(destination, now);
+        sendMemberInfo(destination, CommunicatorMessage.FIRST_CONTACT);
     }
 
-    private void sendMemberInfo (short context) {
-        Message memberInfo = new Message();
-        memberInfo.setObject(new CommunicatorMessage(hierarchy, senderId, context));
+    private void sendMemberInfo (Address destination, short context) {
+        Message memberInfo = controlMessage(destination, new CommunicatorMessage(hierarchy, senderId, context));
+        controlSent.incrementAndGet();
         try {
             jChannel.send(memberInfo);
         } catch (Exception e) {
@@ -294,10 +828,11 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
         if (listenForMemeberInfo == false) {
             currentMemberStrings.clear();
         } else {
-            Message m = new Message();
-            m.setObject(new CommunicatorMessage(null, senderId, CommunicatorMessage.BROADCAST_CHANNEL_CHECK_IN));
+            Message m = controlMessage(null,
+                    new CommunicatorMessage(null, senderId, CommunicatorMessage.BROADCAST_CHANNEL_CHECK_IN));
             currentMemberStrings.add("ME: " + hierarchy);
-            listener.messageReceived(CommunicatorMessage.CHECKING_IN);
+            notifyListener(CommunicatorMessage.CHECKING_IN);
+            controlSent.incrementAndGet();
             try {
                 jChannel.send(m);
             } catch (Exception e) {
@@ -305,7 +840,7 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
         }
     }
 
-    private final List<String> currentMemberStrings = new ArrayList<String>();
+    private final List<String> currentMemberStrings = Collections.synchronizedList(new ArrayList<String>());
 
     /**
      * Returns a list of agents connected to the channel.
@@ -329,29 +864,33 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
 
     /**
      * Returns the first received Wrapper in queue. Returns null if the queue is empty.
+     * The queue may be consumed by only one thread at a time.
      *
      * @return The first received Wrapper in queue.
      */
     @Override
     public Root popQueuedMessage () {
-        return incomingQueue.remove(0);
+        return incomingQueue.poll();
     }
 
     /**
-     * Returns the all received Wrappers in queue, then clears the queue.
+     * Returns the all received Wrappers in queue, then clears the queue. The queue may be
+     * consumed by only one thread at a time.
      *
      * @return The all received Wrappers in queue.
      */
     @Override
     public List<Root> getAllQueuedMessages () {
         ArrayList<Root> allQueuedMessages = new ArrayList<Root>();
-        if (incomingQueue.isEmpty() == false) {
-            allQueuedMessages.addAll(incomingQueue);
-            incomingQueue.clear();
-        }
+        incomingQueue.drainTo(allQueuedMessages);
         return allQueuedMessages;
     }
 
+    @Override
+    public int drainQueuedMessages (Collection<? super Root> target) {
+        return incomingQueue.drainTo(target);
+    }
+
     /**
      * Send the given Wrapper to all everyone listening on the current channel.
      *
@@ -359,22 +898,28 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
      */
     @Override
     public boolean sendWrapper (Root outgoing) {
-        Message outMessage = new Message();
-        if (senderMode == SENDER_MODE_NATIVE) {
-            outMessage.setObject(new CommunicatorMessage(outgoing, senderId, CommunicatorMessage.WRAPPER));
+        CommunicatorMessage message;
+        if (senderMode == SENDER_MODE_NATIVE || senderMode == SENDER_MODE_BINARY) {
+            message = new CommunicatorMessage(outgoing, senderId, CommunicatorMessage.WRAPPER);
         } else if (senderMode == SENDER_MODE_JSON) {
-            outMessage.setObject(new CommunicatorMessage(gson.toJson(outgoing), senderId, CommunicatorMessage.JSON));
+            message = new CommunicatorMessage(gson.toJson(outgoing), senderId, CommunicatorMessage.JSON);
         } else {
             System.err.println("Message could not be sent: Sender mode invalid.");
             return false;
         }
-        try {
-            jChannel.send(outMessage);
-        } catch (Exception e) {
-            System.err.println("Message could not be sent: " + e);
-            return false;
-        }
-        return true;
+        return send(null, outgoing, message);
+    }
+
+    /**
+     * Send a part of a Wrapper to everyone listening on the current channel. In JSON mode,
+     * chunks are sent as in native mode.
+     *
+     * @param chunk The chunk to send.
+     * @return True if the chunk was successfully sent. False otherwise.
+     */
+    @Override
+    public boolean sendChunk (Chunk chunk) {
+        return send(null, chunk.root, new CommunicatorMessage(chunk, senderId, CommunicatorMessage.CHUNK));
     }
 
     /**
@@ -397,6 +942,92 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
         return true;
     }
 
+    @Override
+    public boolean sendCredit (FlowControl.Credit credit) {
+        Message m = controlMessage(null, new CommunicatorMessage(credit, senderId, CommunicatorMessage.CREDIT));
+        try {
+            jChannel.send(m);
+        } catch (Exception e) {
+            System.err.println("Credit could not be sent: " + e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public FlowControl getFlowControl () {
+        return flowControl;
+    }
+
+    /**
+     * Send a Wrapper concerning a single structure to everyone listening on the current
+     * channel. Topics are always encoded using {@link WireCodec}, whatever the sender
+     * mode, so that subscribers can drop them without decoding them.
+     *
+     * @param topic The topic to send.
+     * @return True if the topic was successfully sent. False otherwise.
+     */
+    @Override
+    public boolean sendTopic (Topic topic) {
+        return send(null, topic.root, new CommunicatorMessage(topic, senderId, CommunicatorMessage.TOPIC));
+    }
+
+    /**
+     * Receive only topics concerning the given structures. Topics for other structures
+     * are dropped before they are decoded.
+     *
+     * @param identifiers The identifiers of the structures to receive, or {@code null} to
+     * receive everything.
+     * @return True.
+     */
+    @Override
+    public boolean subscribe (Collection<String> identifiers) {
+        subscription = identifiers == null ? null : Collections.unmodifiableSet(new HashSet<String>(identifiers));
+        return true;
+    }
+
+    @Override
+    public Integer popJoinedMember () {
+        synchronized (joinedMembers) {
+            return joinedMembers.pollFirst();
+        }
+    }
+
+    /**
+     * Send a catch-up to a single member. A mark is sent to everyone first, so that the
+     * receiver can tell which Wrappers of the live stream are part of the catch-up.
+     *
+     * @param receiverId The id of the member to catch up.
+     * @param catchUp The Wrapper to send.
+     * @param chunkSize The maximum estimated size of a chunk in bytes, or 0 to send the
+     * Wrapper whole.
+     * @return True if the catch-up was sent, false if the member is unknown or sending
+     * failed.
+     */
+    @Override
+    public boolean sendCatchUp (int receiverId, Root catchUp, int chunkSize) {
+        Address destination = memberAddresses.get(receiverId);
+        if (destination == null) {
+            return false;
+        }
+        Message mark = new Message();
+        mark.setObject(new CommunicatorMessage(receiverId, senderId, CommunicatorMessage.CATCH_UP_MARK));
+        try {
+            jChannel.send(mark);
+        } catch (Exception e) {
+            System.err.println("Catch-up could not be sent: " + e);
+            return false;
+        }
+        Iterator<Chunk> chunks = Chunk.split(catchUp, chunkSize > 0 ? chunkSize : Integer.MAX_VALUE);
+        boolean allSuccessful = true;
+        while (allSuccessful && chunks.hasNext()) {
+            Chunk chunk = chunks.next();
+            allSuccessful = send(destination, chunk.root,
+                    new CommunicatorMessage(chunk, senderId, CommunicatorMessage.CATCH_UP));
+        }
+        return allSuccessful;
+    }
+
     @Override
     public boolean sendWrappers (List<Root> outgoing) {
         boolean allSuccessful = true;
@@ -413,19 +1044,54 @@ public class JGroupCommunicator extends ReceiverAdapter implements Communicator
     @Override
     public void close () {
         jChannel.close();
+        if (decodePool != null) {
+            decodePool.close();
+        }
     }
 
     /**
-     * Add a wrapper to the incoming queue and signal listener.
+     * Unpack the operations of a wrapper, then add it to the incoming queue and signal
+     * listener.
      *
      * @param w The wrapper to add the the incoming queue.
      */
     private void addAndFireEvent (Root w) {
-        incomingQueue.add(w);
-        listener.messageReceived(CommunicatorMessage.WRAPPER);
+        Root unpacked = w;
+        if (w.body != null) {
+            // Unpack here rather than in the listener, off the delivery thread.
+            List<Operation> body = new ArrayList<Operation>(w.body.size());
+            for (Operation op : w.body) {
+                Operation u = op == null ? null : OpParser.unpackOperation(op);
+                body.add(u != null ? u : op); // Nulls are kept for the listener to count.
+            }
+            unpacked = new Root(w.header, body);
+        }
+        synchronized (deliveryLock) {
+            incomingQueue.offer(unpacked);
+            listener.messageReceived(CommunicatorMessage.WRAPPER);
+        }
     }
 
     public Collection<String> allKnownEntities () {
         return allTransmitters.values();
     }
+
+    // ============================================================= //
+    /*
+     *
+     * Internal class
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * A catch-up in progress. Only accessed by the worker of the sender.
+     */
+    private static final class CatchUp {
+        private Long transferId;
+        private boolean marked;
+        private boolean complete;
+        private final List<Root> parts = new ArrayList<Root>();
+        private final List<Root> live = new ArrayList<Root>();
+    }
 }
@@ -0,0 +1,96 @@
+package contract.io;
+
+import contract.wrapper.Header;
+import contract.wrapper.Operation;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Command line tool converting logs between the JSON format and the compact binary
+ * format. The direction is determined by the format of the input file. <br>
+ * <br>
+ * Usage: {@code LogConverter [-pretty] <input> <output>}
+ */
+public abstract class LogConverter {
+
+    private LogConverter () {
+    } // Not to be instantiated.
+
+    public static void main (String[] args) {
+        boolean pretty = args.length == 3 && args[0].equals("-pretty");
+        if (args.length != 2 && !pretty) {
+            System.err.println("Usage: LogConverter [-pretty] <input> <output>");
+            System.exit(1);
+        }
+        File input = new File(args[args.length - 2]);
+        File output = new File(args[args.length - 1]);
+        try {
+            long start = System.currentTimeMillis();
+            int count;
+            if (BinaryCodec.isBinaryLog(input)) {
+                count = toJson(input, output, pretty);
+            } else {
+                count = toBinary(input, output);
+            }
+            System.out.println("Converted " + count + " operations in " + (System.currentTimeMillis() - start)
+                    + " ms: " + input.length() + " -> " + output.length() + " bytes.");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Conversion failed: " + e);
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Convert a JSON log to the binary format. The binary format needs the header first,
+     * so if the header follows the body in {@code input}, the body is skipped once to
+     * find it.
+     *
+     * @param input The JSON log to read.
+     * @param output The binary log to write.
+     * @return The number of operations converted.
+     * @throws IOException If reading or writing fails.
+     */
+    public static int toBinary (File input, File output) throws IOException {
+        int count = 0;
+        Header header;
+        try (LogReader scan = new LogReader(input)) {
+            header = scan.getHeader();
+            if (header == null) {
+                scan.skipBody();
+                header = scan.getHeader();
+            }
+        }
+        try (LogReader reader = new LogReader(input); BinaryLogWriter writer = new BinaryLogWriter(output)) {
+            writer.writeHeader(header);
+            while (reader.hasNext()) {
+                writer.append(reader.next());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Convert a binary log to the JSON format.
+     *
+     * @param input The binary log to read.
+     * @param output The JSON log to write.
+     * @param prettyPrinting Set to {@code true} to enable human-readable output.
+     * @return The number of operations converted.
+     * @throws IOException If reading or writing fails.
+     */
+    public static int toJson (File input, File output, boolean prettyPrinting) throws IOException {
+        int count = 0;
+        try (BinaryLogReader reader = new BinaryLogReader(input);
+             LogWriter writer = new LogWriter(output, prettyPrinting)) {
+            writer.writeHeader(reader.getHeader());
+            while (reader.hasNext()) {
+                Operation op = reader.next();
+                writer.append(op);
+                count++;
+            }
+        }
+        return count;
+    }
+}
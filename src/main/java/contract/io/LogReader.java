@@ -0,0 +1,248 @@
+package contract.io;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import contract.utility.OpParser;
+import contract.wrapper.Header;
+import contract.wrapper.Operation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming reader for JSON log files. Walks the {@code header} and {@code body} of the
+ * root object token by token, decoding one {@link Operation} at a time. Memory use does
+ * not depend on the length of the log. Operations of unknown types are reported on
+ * {@code System.err} and skipped.
+ */
+public class LogReader implements LogSource {
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    private final Gson gson = GsonContructor.build();
+    private final JsonReader in;
+    private Header header;
+    /**
+     * True while the reader is positioned inside the body array.
+     */
+    private boolean inBody;
+    /**
+     * True once the end of the root object has been reached.
+     */
+    private boolean done;
+    /**
+     * The operation read ahead by {@link #hasNext()}, or {@code null}.
+     */
+    private Operation next;
+
+    // ============================================================= //
+    /*
+     *
+     * Constructors
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Create a new LogReader for the given file.
+     *
+     * @param logFile The file to read.
+     * @throws FileNotFoundException If {@code logFile} could not be opened.
+     * @throws JsonSyntaxException   If the file is not a JSON object.
+     * @throws JsonIOException       When the file could not be read.
+     */
+    public LogReader (File logFile) throws FileNotFoundException {
+        this(new BufferedReader(new InputStreamReader(new FileInputStream(logFile), StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Create a new LogReader for the given reader. The reader is closed if the start of
+     * the log could not be parsed.
+     *
+     * @param reader The reader to read from.
+     * @throws JsonSyntaxException If the stream is not a JSON object.
+     * @throws JsonIOException     When the stream could not be read.
+     */
+    public LogReader (Reader reader) {
+        in = new JsonReader(reader);
+        in.setLenient(true);
+        try {
+            in.beginObject();
+            advance();
+        } catch (IOException e) {
+            close();
+            throw wrap(e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Getters and Setters
+     *
+     */
+    // ============================================================= //
+
+    @Override
+    public Header getHeader () {
+        return header;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Interface
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns {@code true} if the body has more operations. The next operation is read
+     * ahead, so that operations of unknown types can be skipped.
+     *
+     * @return {@code true} if the body has more operations.
+     * @throws JsonSyntaxException If the operation could not be parsed.
+     * @throws JsonIOException     When the stream could not be read.
+     */
+    @Override
+    public boolean hasNext () {
+        while (next == null && inBody) {
+            next = readOperation();
+        }
+        return next != null;
+    }
+
+    /**
+     * Returns the next operation in the body, unpacked using {@link OpParser}.
+     *
+     * @return The next operation in the body.
+     * @throws NoSuchElementException If there are no more operations.
+     * @throws JsonSyntaxException    If the operation could not be parsed.
+     * @throws JsonIOException        When the stream could not be read.
+     */
+    @Override
+    public Operation next () {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Operation op = next;
+        next = null;
+        return op;
+    }
+
+    /**
+     * Skip the rest of the body without decoding it. Any header following the body is
+     * read, so {@link #getHeader()} returns it afterwards.
+     *
+     * @throws JsonSyntaxException If the log is malformed.
+     * @throws JsonIOException     When the stream could not be read.
+     */
+    public void skipBody () {
+        next = null;
+        if (!inBody) {
+            return;
+        }
+        try {
+            while (in.hasNext()) {
+                in.skipValue();
+            }
+            in.endArray();
+            inBody = false;
+            advance();
+        } catch (IOException e) {
+            throw wrap(e);
+        }
+    }
+
+    @Override
+    public void close () {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Read the next operation in the body, leaving the body once it ends.
+     *
+     * @return The operation, or {@code null} if its type is unknown.
+     */
+    private Operation readOperation () {
+        try {
+            Operation op = gson.fromJson(in, Operation.class);
+            if (!in.hasNext()) {
+                in.endArray();
+                inBody = false;
+                advance();
+            }
+            return op == null ? null : OpParser.unpackOperation(op);
+        } catch (IOException e) {
+            throw wrap(e);
+        }
+    }
+
+    /**
+     * Read names in the root object until the body array is entered or the root object
+     * ends. The header is decoded on the way.
+     */
+    private void advance () throws IOException {
+        while (!done) {
+            if (!in.hasNext()) {
+                in.endObject();
+                done = true;
+                return;
+            }
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else if (name.equals("header")) {
+                header = gson.fromJson(in, Header.class);
+            } else if (name.equals("body")) {
+                in.beginArray();
+                if (in.hasNext()) {
+                    inBody = true;
+                    return;
+                }
+                in.endArray();
+            } else {
+                in.skipValue();
+            }
+        }
+    }
+
+    private static RuntimeException wrap (IOException e) {
+        if (e instanceof MalformedJsonException) {
+            return new JsonSyntaxException(e);
+        }
+        return new JsonIOException(e);
+    }
+}
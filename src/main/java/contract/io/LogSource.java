@@ -0,0 +1,76 @@
+package contract.io;
+
+import com.google.gson.JsonIOException;
+import contract.wrapper.Header;
+import contract.wrapper.Operation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * A source of operations read from a log, one at a time.
+ */
+public interface LogSource extends Iterator<Operation>, Closeable {
+
+    /**
+     * Returns the header of the log. May return {@code null} until the body has been
+     * consumed if the header is placed after the body.
+     *
+     * @return The header of the log, or {@code null}.
+     */
+    public Header getHeader ();
+
+    /**
+     * Close this LogSource, without throwing.
+     */
+    @Override
+    public void close ();
+
+    /**
+     * Pass every remaining operation to {@code consumer}, then close this LogSource.
+     *
+     * @param consumer The consumer to notify for each operation.
+     * @return The number of operations read.
+     */
+    public default int forEachRemainingAndClose (Consumer<Operation> consumer) {
+        int count = 0;
+        try {
+            while (hasNext()) {
+                consumer.accept(next());
+                count++;
+            }
+        } finally {
+            close();
+        }
+        return count;
+    }
+
+    /**
+     * Open a log file for reading. The format (JSON or binary) is detected automatically.
+     * Segmented logs are opened as a whole by passing their {@link SegmentManifest}.
+     *
+     * @param logFile The file to read.
+     * @return A LogSource for the file.
+     * @throws FileNotFoundException If {@code logFile} could not be opened.
+     * @throws JsonIOException       If {@code logFile} could not be read.
+     */
+    public static LogSource open (File logFile) throws FileNotFoundException {
+        if (SegmentManifest.isManifest(logFile)) {
+            return new SegmentedLogReader(logFile);
+        }
+        try {
+            if (BinaryCodec.isBinaryLog(logFile)) {
+                return new BinaryLogReader(logFile);
+            }
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return new LogReader(logFile);
+    }
+}
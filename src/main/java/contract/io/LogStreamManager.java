@@ -1,32 +1,41 @@
 package contract.io;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
-import com.google.gson.stream.JsonReader;
 import contract.datastructure.DataStructure;
 import contract.io.Communicator.CommunicatorMessage;
+import contract.operation.OP_Checkpoint;
 import contract.wrapper.AnnotatedVariable;
 import contract.wrapper.Header;
 import contract.wrapper.Operation;
 import contract.wrapper.Root;
 import contract.utility.OpParser;
 import contract.utility.StructParser;
+import contract.utility.StructUtil;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * A LogStreamManager handles communication between processes, components, and the OS file
@@ -42,6 +51,24 @@ public class LogStreamManager implements ComListener {
      * by default to increase performance.
      */
     public boolean PRETTY_PRINTING = false;
+    /**
+     * Communicate with other processes over the network, see {@link JGroupCommunicator}.
+     */
+    public static final short TRANSPORT_JGROUPS = 0;
+    /**
+     * Communicate within this JVM only, see {@link InProcessCommunicator}.
+     */
+    public static final short TRANSPORT_IN_PROCESS = 1;
+    /**
+     * Communicate with processes on the same host through a memory-mapped ring, see
+     * {@link SharedMemoryCommunicator}. A LogStreamManager suppressing incoming messages
+     * is the producer, others are consumers.
+     */
+    public static final short TRANSPORT_SHARED_MEMORY = 2;
+    /**
+     * Communicate over TCP on localhost, see {@link TcpCommunicator}.
+     */
+    public static final short TRANSPORT_TCP = 3;
     private final Gson gson = GsonContructor.build();
     private final Communicator communicator;
     private ComListener listener;
@@ -49,6 +76,30 @@ public class LogStreamManager implements ComListener {
     private Map<String, DataStructure> dataStructures;
     private List<Operation> operations;
     private Map<String, List<String>> sources;
+    private SegmentedLogWriter recorder;
+    private BatchingSender batcher;
+    private int chunkSize = Chunk.DEFAULT_SIZE;
+    private volatile ReplayBuffer replay;
+    private boolean topicRouting;
+    private volatile Set<String> subscription;
+    /**
+     * Set by {@link CommunicatorMessage#CATCH_UP}: the next operation unwrapped starts a
+     * catch-up, and is restored from if it is a checkpoint.
+     */
+    private boolean catchingUp;
+    // Flow control, sender side
+    private short flowPolicy = FlowControl.POLICY_NONE;
+    private long flowMaxWait;
+    // Flow control, receiver side
+    private int flowWindow;
+    private long reportedAt;
+    private ScheduledExecutorService heartbeat;
+    private long received;
+    private long consumed;
+    private long reportedReceived;
+    private long reportedConsumed;
+    private int checkpointInterval;
+    private boolean checkpointAtGroups;
 
     /**
      * Creates a new LogStreamManager. Will not unwrap streamed messages if the listener
@@ -70,7 +121,68 @@ public class LogStreamManager implements ComListener {
      * "JavaAnnotationProcessor" or "GUI".
      */
     public LogStreamManager (String agentDescriptor, boolean suppressIncoming) {
-        communicator = new JGroupCommunicator("LogStreamManager/" + agentDescriptor, this, suppressIncoming);
+        this(agentDescriptor, suppressIncoming, TRANSPORT_JGROUPS);
+    }
+
+    /**
+     * Creates a new LogStreamManager using the given transport. Will not unwrap streamed
+     * messages if the listener is null.
+     *
+     * @param agentDescriptor The name of the agent using this LogStreamManager, such as
+     * "JavaAnnotationProcessor" or "GUI".
+     * @param suppressIncoming If {@code true}, most incoming messages will be ignored.
+     * @param transport The transport to use, such as {@link #TRANSPORT_JGROUPS} or
+     * {@link #TRANSPORT_IN_PROCESS}.
+     * @throws UncheckedIOException If the shared memory ring or TCP connection could not
+     * be created.
+     */
+    public LogStreamManager (String agentDescriptor, boolean suppressIncoming, short transport) {
+        this(agentDescriptor, suppressIncoming, transport, false);
+    }
+
+    /**
+     * Creates a new LogStreamManager using the given transport, optionally sending on a
+     * dedicated thread (see {@link AsyncCommunicator}) so that streaming never blocks the
+     * caller. Will not unwrap streamed messages if the listener is null.
+     *
+     * @param agentDescriptor The name of the agent using this LogStreamManager, such as
+     * "JavaAnnotationProcessor" or "GUI".
+     * @param suppressIncoming If {@code true}, most incoming messages will be ignored.
+     * @param transport The transport to use, such as {@link #TRANSPORT_JGROUPS} or
+     * {@link #TRANSPORT_IN_PROCESS}.
+     * @param async If {@code true}, wrap the transport in an {@link AsyncCommunicator}
+     * with the default capacity, blocking when full.
+     * @throws UncheckedIOException If the shared memory ring or TCP connection could not
+     * be created.
+     */
+    public LogStreamManager (String agentDescriptor, boolean suppressIncoming, short transport, boolean async) {
+        String hierarchy = "LogStreamManager/" + agentDescriptor;
+        Communicator transportCommunicator;
+        switch (transport) {
+            case TRANSPORT_JGROUPS:
+                transportCommunicator = new JGroupCommunicator(hierarchy, this, suppressIncoming);
+                break;
+            case TRANSPORT_IN_PROCESS:
+                transportCommunicator = new InProcessCommunicator(hierarchy, this, suppressIncoming);
+                break;
+            case TRANSPORT_SHARED_MEMORY:
+                try {
+                    transportCommunicator = new SharedMemoryCommunicator(hierarchy, this, suppressIncoming);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                break;
+            case TRANSPORT_TCP:
+                try {
+                    transportCommunicator = new TcpCommunicator(hierarchy, this, suppressIncoming);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown transport: " + transport);
+        }
+        communicator = async ? new AsyncCommunicator(transportCommunicator) : transportCommunicator;
         dataStructures = new HashMap<String, DataStructure>();
         operations = new ArrayList<Operation>();
         sources = null;
@@ -112,6 +224,21 @@ public class LogStreamManager implements ComListener {
         this.operations = operations;
     }
 
+    /**
+     * Limit the number of operations kept in memory. Older operations are spilled to a
+     * temporary file and read back in when accessed, see {@link SpillingOperationList}.
+     * Operations currently held are kept.
+     *
+     * @param window The number of operations to keep in memory.
+     */
+    public void setSpillWindow (int window) {
+        List<Operation> old = operations;
+        operations = new SpillingOperationList(window, old);
+        if (old instanceof SpillingOperationList) {
+            ((SpillingOperationList) old).close();
+        }
+    }
+
     /**
      * Returns the source map held by this LogStreamManager.
      *
@@ -153,8 +280,54 @@ public class LogStreamManager implements ComListener {
      * @throws JsonIOException       When Gson fails to read {@code logFile}.
      */
     public boolean readLog (File logFile) throws JsonIOException, JsonSyntaxException, FileNotFoundException {
-        Root contractRoot = gson.fromJson(new JsonReader(new FileReader(logFile)), Root.class);
-        return unwrap(contractRoot);
+        return readLog(logFile, operations::add);
+    }
+
+    /**
+     * Read and unwrap the header of a log file, then stream the operations of the body to
+     * {@code consumer} one at a time. The operations are not stored by this
+     * LogStreamManager, so memory use does not depend on the length of the log. Both JSON
+     * and binary logs are accepted.
+     *
+     * @param logFile The file to read.
+     * @param consumer The consumer to notify for each operation.
+     * @return {@code true} if the log was successfully read. {@code false} otherwise.
+     * @throws FileNotFoundException If {@code logFile} could not be opened.
+     * @throws JsonSyntaxException   If the file could not be parsed by Gson.
+     * @throws JsonIOException       When Gson fails to read {@code logFile}.
+     */
+    public boolean readLog (File logFile, Consumer<Operation> consumer) throws JsonIOException, JsonSyntaxException,
+            FileNotFoundException {
+        LogSource reader = LogSource.open(logFile);
+        boolean headerFirst = reader.getHeader() != null;
+        if (headerFirst && !unwrap(new Root(reader.getHeader(), null))) {
+            reader.close();
+            return false;
+        }
+        reader.forEachRemainingAndClose(consumer);
+        if (!headerFirst && reader.getHeader() != null) {
+            return unwrap(new Root(reader.getHeader(), null));
+        }
+        return true;
+    }
+
+    /**
+     * Read, unwrap and store data from a JSON log file, decoding the body in parallel on
+     * the common {@link java.util.concurrent.ForkJoinPool}. Operations are added in the
+     * order they appear in the file.
+     *
+     * @param logFile The file to read.
+     * @return {@code true} if the log was successfully read. {@code false} otherwise.
+     * @throws IOException         If {@code logFile} could not be read.
+     * @throws JsonSyntaxException If the file could not be parsed by Gson.
+     */
+    public boolean readLogParallel (File logFile) throws IOException, JsonSyntaxException {
+        Root root = new ParallelLogReader().read(logFile);
+        if (!unwrap(new Root(root.header, null))) {
+            return false;
+        }
+        operations.addAll(root.body);
+        return true;
     }
 
     /**
@@ -206,6 +379,23 @@ public class LogStreamManager implements ComListener {
         printLog(targetPath, new Root(header, operations), autoName);
     }
 
+    /**
+     * Print the operations and header information currently held by this
+     * LogStreamManager using the compact binary format. Such logs are typically several
+     * times smaller than JSON logs and much faster to read.
+     *
+     * @param target The location and file name of the file to print.
+     * @throws IOException If the log could not be written.
+     */
+    public void printBinaryLog (File target) throws IOException {
+        HashMap<String, AnnotatedVariable> annotatedVariables = new HashMap<>();
+        annotatedVariables.putAll(dataStructures);
+        try (BinaryLogWriter writer = new BinaryLogWriter(target)) {
+            writer.writeHeader(new Header(Header.VERSION_UNKNOWN, annotatedVariables, sources));
+            writer.append(operations);
+        }
+    }
+
     /**
      * Stream the data held by this LogStreamManager using the current Communicator.
      *
@@ -236,21 +426,82 @@ public class LogStreamManager implements ComListener {
 
     /**
      * Stream the given Wrapper using the Communicator carried by this LogStreamManager.
+     * Wrappers larger than the chunk size are sent in chunks, see
+     * {@link #setChunkSize(int)}.
      *
      * @param wrapper The Wrapper to stream.
      * @return True if successful, false otherwise.
      */
     public boolean stream (Root wrapper) {
-        return communicator.sendWrapper(wrapper);
+        flush();
+        ReplayBuffer replay = this.replay;
+        if (replay == null) {
+            return send(wrapper);
+        }
+        synchronized (replay) {
+            replay.record(wrapper);
+            return send(wrapper);
+        }
+    }
+
+    private boolean send (Root wrapper) {
+        if (!topicRouting) {
+            return send(null, wrapper);
+        }
+        boolean allSuccessful = true;
+        for (Topic topic : Topic.split(wrapper)) {
+            allSuccessful = allSuccessful && send(topic.identifier, topic.root);
+        }
+        return allSuccessful;
+    }
+
+    /**
+     * Send a Wrapper, in chunks if it is larger than the chunk size. Chunks carry no
+     * identifier: subscribers filter their operations when unwrapping them.
+     *
+     * @param identifier The identifier of the topic, or {@code null} to send a plain
+     * Wrapper.
+     */
+    private boolean send (String identifier, Root wrapper) {
+        if (chunkSize > 0 && wrapper.body != null && wrapper.body.size() > 1) {
+            Iterator<Chunk> chunks = Chunk.split(wrapper, chunkSize);
+            Chunk chunk = chunks.next();
+            if (!chunk.last) {
+                boolean allSuccessful = communicator.sendChunk(chunk);
+                while (allSuccessful && chunks.hasNext()) {
+                    allSuccessful = communicator.sendChunk(chunks.next());
+                }
+                return allSuccessful;
+            }
+        }
+        if (identifier == null) {
+            return communicator.sendWrapper(wrapper);
+        }
+        return communicator.sendTopic(new Topic(identifier, wrapper));
     }
 
     /**
      * Stream the given Wrapper using the Communicator carried by this LogStreamManager.
+     * If batching is enabled, the operation is added to the current batch instead, see
+     * {@link #setBatching(int, int, long)}.
      *
      * @param operation The Operation to stream.
      * @return True if successful, false otherwise.
      */
     public boolean stream (Operation operation) {
+        if (!admit(1)) {
+            return false;
+        }
+        if (batcher != null) {
+            ReplayBuffer replay = this.replay;
+            if (replay == null) {
+                return batcher.add(operation);
+            }
+            synchronized (replay) {
+                replay.record(operation);
+                return batcher.add(operation);
+            }
+        }
         ArrayList<Operation> operations = new ArrayList<>();
         operations.add(operation);
         return this.stream(new Root(null, operations));
@@ -264,7 +515,15 @@ public class LogStreamManager implements ComListener {
      * @return True if successful, false otherwise.
      */
     public boolean stream (String json) {
-        return communicator.sendString(json);
+        flush();
+        ReplayBuffer replay = this.replay;
+        if (replay == null) {
+            return communicator.sendString(json);
+        }
+        synchronized (replay) {
+            replay.record(gson.fromJson(json, Root.class));
+            return communicator.sendString(json);
+        }
     }
 
     /**
@@ -275,6 +534,9 @@ public class LogStreamManager implements ComListener {
      * @return True if successful, false otherwise.
      */
     public boolean streamOperations (List<Operation> operations) {
+        if (!admit(operations.size())) {
+            return false;
+        }
         return this.stream(new Root(null, operations));
     }
 
@@ -299,13 +561,264 @@ public class LogStreamManager implements ComListener {
      * @return True if ALL wrappers successfully sent, false otherwise.
      */
     public boolean streamWrappers (List<Root> wrappers) {
+        flush();
+        ReplayBuffer replay = this.replay;
         boolean allSuccessful = true;
         for (Root w : wrappers) {
-            allSuccessful = allSuccessful && communicator.sendWrapper(w);
+            if (replay == null) {
+                allSuccessful = allSuccessful && communicator.sendWrapper(w);
+            } else {
+                synchronized (replay) {
+                    replay.record(w);
+                    allSuccessful = allSuccessful && communicator.sendWrapper(w);
+                }
+            }
         }
         return allSuccessful;
     }
 
+    /**
+     * Gather operations streamed using {@link #stream(Operation)} into batches, sending
+     * each batch as a single message. See {@link BatchingSender} for how batches are
+     * flushed. Anything else streamed by this LogStreamManager flushes the current batch
+     * first, so the order of the stream is kept. Any previous batch is flushed.
+     *
+     * @param maxOperations The maximum number of operations per batch, or 0 to disable
+     * batching.
+     * @param maxBytes The maximum estimated size of a batch in bytes, or 0 for no limit.
+     * @param lingerMillis The time a batch may wait for more operations in milliseconds,
+     * or 0 to only flush on the limits and on {@link #flush()}.
+     * @return The sender used for batching, or {@code null} if batching was disabled.
+     */
+    public BatchingSender setBatching (int maxOperations, int maxBytes, long lingerMillis) {
+        if (batcher != null) {
+            batcher.close();
+            batcher = null;
+        }
+        if (maxOperations > 0) {
+            batcher = new BatchingSender(communicator, maxOperations, maxBytes, lingerMillis);
+            batcher.setTopicRouting(topicRouting);
+        }
+        return batcher;
+    }
+
+    /**
+     * Set the maximum estimated size of the messages used to stream large Wrappers, such
+     * as the one sent by {@link #streamLogData()}. Larger Wrappers are split into
+     * {@link Chunk}s which receivers unwrap as they arrive. A chunk always holds at least
+     * one operation.
+     *
+     * @param bytes The maximum estimated size of a chunk in bytes, or 0 to always send
+     * Wrappers whole.
+     */
+    public void setChunkSize (int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("bytes < 0");
+        }
+        chunkSize = bytes;
+    }
+
+    /**
+     * Returns the maximum estimated size of a chunk, see {@link #setChunkSize(int)}.
+     *
+     * @return The chunk size in bytes, or 0 if chunking is disabled.
+     */
+    public int getChunkSize () {
+        return chunkSize;
+    }
+
+    /**
+     * Keep what this LogStreamManager streams in a {@link ReplayBuffer}, so that members
+     * joining the channel later are caught up with a catch-up sent only to them. Has no
+     * effect on Communicators which do not report joins. <br>
+     * A receiving LogStreamManager discards all of its data when a catch-up arrives, so
+     * receivers refuse catch-ups while other senders are streaming to them.
+     *
+     * @param capacity The number of operations to keep before older operations are
+     * compacted into a checkpoint, or 0 to stop keeping a replay buffer.
+     * @return The replay buffer, or {@code null} if it was disabled.
+     */
+    public ReplayBuffer setReplay (int capacity) {
+        replay = capacity > 0 ? new ReplayBuffer(capacity) : null;
+        return replay;
+    }
+
+    /**
+     * Send a catch-up from the replay buffer to the given member. Does nothing if the
+     * replay buffer is disabled or empty.
+     *
+     * @param receiverId The id of the member to catch up.
+     * @return True if a catch-up was sent, false otherwise.
+     */
+    public boolean catchUp (int receiverId) {
+        ReplayBuffer replay = this.replay;
+        if (replay == null) {
+            return false;
+        }
+        synchronized (replay) {
+            flush(); // Operations in the batch are already in the buffer.
+            Root catchUp = replay.catchUp();
+            return catchUp != null && communicator.sendCatchUp(receiverId, catchUp, chunkSize);
+        }
+    }
+
+    /**
+     * Send operations split into topics by the structure they concern, so that receivers
+     * which have subscribed to other structures can drop them early. See {@link Topic}.
+     * Wrappers are split before being chunked. Topics large enough to be sent in chunks
+     * are not dropped early: subscribers filter them when unwrapping them.
+     *
+     * @param topicRouting {@code true} to split streamed operations into topics.
+     */
+    public void setTopicRouting (boolean topicRouting) {
+        this.topicRouting = topicRouting;
+        if (batcher != null) {
+            batcher.setTopicRouting(topicRouting);
+        }
+    }
+
+    /**
+     * Receive only variables and operations concerning the given structures. Operations
+     * which concern no structure, such as messages, are still received. If the
+     * Communicator supports subscriptions, it drops topics for other structures before
+     * decoding them; anything else is filtered when unwrapped.
+     *
+     * @param identifiers The identifiers of the structures to receive, or {@code null} to
+     * receive everything.
+     */
+    public void subscribe (Collection<String> identifiers) {
+        subscription = identifiers == null ? null : Collections.unmodifiableSet(new HashSet<String>(identifiers));
+        communicator.subscribe(identifiers);
+    }
+
+    /**
+     * Send any operations waiting in the current batch. Has no effect if batching is
+     * disabled.
+     *
+     * @return True if the batch was sent or was empty, false otherwise.
+     */
+    public boolean flush () {
+        return batcher == null || batcher.flush();
+    }
+
+    /**
+     * Set how operations streamed by this LogStreamManager are throttled to match the
+     * slowest receiver taking part in flow control, see {@link FlowControl}. Has no
+     * effect if the Communicator does not support flow control.
+     *
+     * @param policy One of {@link FlowControl#POLICY_NONE},
+     * {@link FlowControl#POLICY_BLOCK} and {@link FlowControl#POLICY_SAMPLE}.
+     * @param maxWaitMillis The maximum time to wait for credit when blocking, after which
+     * operations are sent anyway.
+     */
+    public void setFlowControl (short policy, long maxWaitMillis) {
+        flowPolicy = policy;
+        flowMaxWait = maxWaitMillis;
+    }
+
+    /**
+     * Returns the number of operations the slowest receiver has yet to consume.
+     *
+     * @return The lag of the slowest receiver, or 0 if unknown.
+     */
+    public long getLag () {
+        FlowControl flowControl = communicator.getFlowControl();
+        return flowControl == null ? 0 : flowControl.getLag();
+    }
+
+    /**
+     * Take part in flow control as a receiver. Senders will keep at most {@code window}
+     * operations waiting to be consumed by this LogStreamManager, provided it reports
+     * what it has consumed using {@link #consumed(int)}.
+     *
+     * @param window The number of unconsumed operations to accept, or 0 to stop taking
+     * part in flow control.
+     */
+    public synchronized void setFlowWindow (int window) {
+        flowWindow = window;
+        reportedReceived = received;
+        consumed = received; // Anything received before is not counted against us.
+        reportCredit(true);
+        if (window > 0 && heartbeat == null) {
+            heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "FlowControlHeartbeat");
+                thread.setDaemon(true);
+                return thread;
+            });
+            heartbeat.scheduleAtFixedRate(this::heartbeat, FlowControl.HEARTBEAT_INTERVAL,
+                    FlowControl.HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+        } else if (window <= 0 && heartbeat != null) {
+            heartbeat.shutdownNow();
+            heartbeat = null;
+        }
+    }
+
+    /**
+     * Report operations as consumed, such as when they have been rendered, giving
+     * senders credit to send more.
+     *
+     * @param count The number of operations consumed.
+     */
+    public synchronized void consumed (int count) {
+        consumed = Math.min(received, consumed + count);
+        reportCredit(false);
+    }
+
+    /**
+     * Returns the number of received operations not yet reported as consumed.
+     *
+     * @return The backlog of this LogStreamManager.
+     */
+    public synchronized long getBacklog () {
+        return received - consumed;
+    }
+
+    private boolean admit (int count) {
+        FlowControl flowControl = communicator.getFlowControl();
+        if (flowControl == null) {
+            return true;
+        }
+        if (flowPolicy == FlowControl.POLICY_BLOCK) {
+            try {
+                flowControl.awaitCredit(count, flowMaxWait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else if (flowPolicy == FlowControl.POLICY_SAMPLE && flowControl.getCredit() < count) {
+            flowControl.dropped(count);
+            return false;
+        }
+        flowControl.sent(count);
+        return true;
+    }
+
+    /**
+     * Report credit to senders if enough has changed since the last report. A quarter of
+     * the window keeps senders busy without flooding them with reports.
+     */
+    private void reportCredit (boolean force) {
+        if (flowWindow <= 0) {
+            return;
+        }
+        long step = Math.max(1, flowWindow / 4);
+        if (force || consumed - reportedConsumed >= step || received - reportedReceived >= step) {
+            reportedReceived = received;
+            reportedConsumed = consumed;
+            reportedAt = System.nanoTime();
+            communicator.sendCredit(new FlowControl.Credit(received, consumed, flowWindow));
+        }
+    }
+
+    /**
+     * Report credit if nothing has been reported for a while, so that senders keep
+     * throttling for a receiver which has stalled rather than assume it has left.
+     */
+    private synchronized void heartbeat () {
+        if (System.nanoTime() - reportedAt >= TimeUnit.MILLISECONDS.toNanos(FlowControl.HEARTBEAT_INTERVAL) / 2) {
+            reportCredit(true);
+        }
+    }
+
     /**
      * Print a simplified version of the given wrapper.
      *
@@ -352,16 +865,131 @@ public class LogStreamManager implements ComListener {
      * @param autoName if {@code true}, a name will be automatically generated.
      */
     public void printLog (String targetPath, Root wrapper, boolean autoName) throws FileNotFoundException {
-        Gson GSON;
         DateFormat dateFormat = new SimpleDateFormat("yy-MM-dd_HHmmss");
         Calendar cal = Calendar.getInstance();
         String fileName = autoName ? File.separator + dateFormat.format(cal.getTime()) + ".wrapper" : "";
-        if (PRETTY_PRINTING) {
-            GSON = new GsonBuilder().setPrettyPrinting().create();
-        } else {
-            GSON = gson;
+        LogWriter writer = new LogWriter(new File(targetPath + fileName), PRETTY_PRINTING);
+        writer.writeHeader(wrapper.header);
+        if (wrapper.body != null) {
+            writer.append(wrapper.body);
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * Open a {@link LogWriter} for the given target and write the header information
+     * currently held by this LogStreamManager. Operations may then be appended to the
+     * writer as they arrive, without blocking the caller. The writer must be closed once
+     * the session is over.
+     *
+     * @param target The location and file name of the file to print.
+     * @return A LogWriter to which operations may be appended.
+     * @throws FileNotFoundException If {@code target} could not be opened.
+     */
+    public LogWriter openLogWriter (File target) throws FileNotFoundException {
+        HashMap<String, AnnotatedVariable> annotatedVariables = new HashMap<>();
+        annotatedVariables.putAll(dataStructures);
+        LogWriter writer = new LogWriter(target, PRETTY_PRINTING);
+        writer.writeHeader(new Header(Header.VERSION_UNKNOWN, annotatedVariables, sources));
+        return writer;
+    }
+
+    /**
+     * Start recording all operations received by this LogStreamManager to a segmented
+     * log. The segments roll over according to the limits set on the returned writer.
+     * Since every operation is recorded as it arrives, {@link #clearOperations()} may be
+     * called freely during the session without losing data. Recording does not limit the
+     * operations held in memory: call {@link #clearOperations()} to release them. Any
+     * previous recording is stopped.
+     *
+     * @param manifestFile The manifest of the segmented log.
+     * @return The writer used for recording, on which roll limits may be set.
+     * @throws IOException If a previous recording could not be stopped.
+     */
+    public SegmentedLogWriter startRecording (File manifestFile) throws IOException {
+        stopRecording();
+        recorder = new SegmentedLogWriter(manifestFile, currentHeader(), PRETTY_PRINTING);
+        if (checkpointInterval > 0 || checkpointAtGroups) {
+            recorder.setCheckpoints(checkpointInterval, checkpointAtGroups);
+        }
+        return recorder;
+    }
+
+    /**
+     * Set how often checkpoints are written by recordings started from now on. See
+     * {@link #startRecording(File)} and {@link #seek(int)}.
+     *
+     * @param interval The number of operations between checkpoints, or 0 to disable.
+     * @param atGroupBoundaries If {@code true}, a checkpoint is also written whenever the
+     * group of the operations changes.
+     */
+    public void setCheckpoints (int interval, boolean atGroupBoundaries) {
+        checkpointInterval = interval;
+        checkpointAtGroups = atGroupBoundaries;
+    }
+
+    /**
+     * Bring the known structures to the state they have after executing the first
+     * {@code position} operations held by this LogStreamManager. The nearest checkpoint
+     * is restored and only the operations after it are replayed, so the cost of a seek is
+     * bounded by the checkpoint interval of the log.
+     *
+     * @param position The number of operations to have executed, counting checkpoints.
+     * @return The number of operations replayed.
+     * @throws IndexOutOfBoundsException If {@code position} is out of range.
+     */
+    public int seek (int position) {
+        return StructUtil.seek(dataStructures, operations, position);
+    }
+
+    /**
+     * Stop recording, finishing the current segment and the manifest. Has no effect if no
+     * recording is in progress.
+     *
+     * @throws IOException If the recording could not be written.
+     */
+    public void stopRecording () throws IOException {
+        if (recorder != null) {
+            SegmentedLogWriter r = recorder;
+            recorder = null;
+            r.close();
+        }
+    }
+
+    private static boolean isSubscribed (Set<String> subscription, Operation op) {
+        Set<String> identifiers = StructUtil.identifiers(op);
+        if (identifiers.isEmpty()) {
+            return true;
+        }
+        for (String identifier : identifiers) {
+            if (subscription.contains(identifier)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Header currentHeader () {
+        HashMap<String, AnnotatedVariable> annotatedVariables = new HashMap<>();
+        annotatedVariables.putAll(dataStructures);
+        return new Header(Header.VERSION_UNKNOWN, annotatedVariables, sources);
+    }
+
+    private void record (Operation op) {
+        try {
+            recorder.append(op);
+        } catch (IOException e) {
+            System.err.println("Recording stopped: " + e.getMessage());
+            try {
+                stopRecording(); // Finish the manifest with the segments written so far.
+            } catch (IOException closeFailed) {
+                System.err.println("Recording could not be finished: " + closeFailed.getMessage());
+            }
         }
-        printString(targetPath + fileName, GSON.toJson(wrapper));
     }
 
     private void printString (String completePath, String str) throws FileNotFoundException {
@@ -378,9 +1006,13 @@ public class LogStreamManager implements ComListener {
      * @return True if the wrapper was successfully unwrapped. False otherwise.
      */
     public boolean unwrap (Root wrapper) {
+        Set<String> subscription = this.subscription;
         if (wrapper.header != null) {
             if (wrapper.header.annotatedVariables != null) {
                 for (AnnotatedVariable av : wrapper.header.annotatedVariables.values()) {
+                    if (subscription != null && !subscription.contains(av.identifier)) {
+                        continue;
+                    }
                     DataStructure ds = StructParser.unpackAnnotatedVariable(av);
                     if (ds == null) {
                         return false;
@@ -389,10 +1021,39 @@ public class LogStreamManager implements ComListener {
                 }
             }
             sources = wrapper.header.sources;
+            if (recorder != null) {
+                recorder.setHeader(currentHeader());
+            }
         }
         if (wrapper.body != null) {
+            int filtered = 0;
             for (Operation op : wrapper.body) {
-                operations.add(OpParser.unpackOperation(op));
+                Operation unpacked = op == null ? null : OpParser.unpackOperation(op);
+                if (unpacked == null) {
+                    filtered++; // Unknown type, already reported.
+                    continue;
+                }
+                if (catchingUp) {
+                    catchingUp = false;
+                    if (unpacked instanceof OP_Checkpoint) {
+                        // A catch-up starts from the state held by its checkpoint.
+                        StructUtil.restore(dataStructures, (OP_Checkpoint) unpacked);
+                    }
+                }
+                if (subscription != null && !isSubscribed(subscription, unpacked)) {
+                    filtered++;
+                    continue;
+                }
+                operations.add(unpacked);
+                if (recorder != null) {
+                    record(unpacked);
+                }
+            }
+            synchronized (this) {
+                // Senders count every operation sent, so filtered ones are consumed at once.
+                received += wrapper.body.size();
+                consumed += filtered;
+                reportCredit(false);
             }
         }
         return true;
@@ -411,6 +1072,18 @@ public class LogStreamManager implements ComListener {
 
     @Override
     public void messageReceived (short messageType) {
+        if (messageType == CommunicatorMessage.HELLO) {
+            for (Integer id = communicator.popJoinedMember(); id != null; id = communicator.popJoinedMember()) {
+                catchUp(id);
+            }
+            return;
+        } else if (messageType == CommunicatorMessage.CATCH_UP) {
+            // Whatever was received so far is part of the catch-up. The Communicator only
+            // sends this while the catching-up sender is the only one streaming to us.
+            communicator.getAllQueuedMessages();
+            clearData();
+            catchingUp = true;
+        }
         if (listener == null) {
             return;
         }
@@ -466,6 +1139,23 @@ public class LogStreamManager implements ComListener {
     }
 
     public void close () {
+        try {
+            stopRecording();
+        } catch (IOException e) {
+            System.err.println("Failed to finish recording: " + e.getMessage());
+        }
+        if (batcher != null) {
+            batcher.close();
+        }
+        synchronized (this) {
+            if (heartbeat != null) {
+                heartbeat.shutdownNow();
+                heartbeat = null;
+            }
+        }
+        if (operations instanceof SpillingOperationList) {
+            ((SpillingOperationList) operations).close();
+        }
         communicator.close();
     }
 }
@@ -0,0 +1,304 @@
+package contract.io;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import contract.operation.Key;
+import contract.operation.OperationType;
+import contract.utility.OpParser;
+import contract.wrapper.Locator;
+import contract.wrapper.Operation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Statistics for a log, computed while the log is written and stored in a small sidecar
+ * file next to it. The summary can be read without parsing the body of the log.
+ * Operations are attributed to every variable they refer to as target, source,
+ * {@code var1} or {@code var2}. Checkpoints are not counted.
+ */
+public class LogSummary implements Consumer<Operation> {
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * File suffix of the sidecar summary.
+     */
+    public static final String SUFFIX = ".summary";
+
+    private long operations;
+    private final Map<String, Integer> operationCounts = new TreeMap<String, Integer>();
+    private final Map<String, Integer> identifierCounts = new TreeMap<String, Integer>();
+    private final Map<String, double[]> valueRanges = new TreeMap<String, double[]>();
+    private final Map<Integer, Integer> groupCounts = new TreeMap<Integer, Integer>();
+    private int[] sourceRowRange;
+
+    // ============================================================= //
+    /*
+     *
+     * Getters and Setters
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns the total number of operations.
+     *
+     * @return The total number of operations.
+     */
+    public long getOperationCount () {
+        return operations;
+    }
+
+    /**
+     * Returns the number of operations of the given type.
+     *
+     * @param type An operation type.
+     * @return The number of operations of type {@code type}.
+     */
+    public int getOperationCount (OperationType type) {
+        return get(operationCounts, type.name());
+    }
+
+    /**
+     * Returns the number of operations referring to the given variable.
+     *
+     * @param identifier The identifier of a variable.
+     * @return The number of operations referring to {@code identifier}.
+     */
+    public int getIdentifierCount (String identifier) {
+        return get(identifierCounts, identifier);
+    }
+
+    /**
+     * Returns the identifiers of all variables referred to by the log.
+     *
+     * @return The identifiers of all variables referred to.
+     */
+    public Set<String> getIdentifiers () {
+        return identifierCounts.keySet();
+    }
+
+    /**
+     * Returns the smallest and largest value carried by operations referring to the given
+     * variable.
+     *
+     * @param identifier The identifier of a variable.
+     * @return An array {@code {min, max}}, or {@code null} if no values were found.
+     */
+    public double[] getValueRange (String identifier) {
+        return valueRanges.get(identifier);
+    }
+
+    /**
+     * Returns the number of operations in the given group.
+     *
+     * @param group A group number.
+     * @return The number of operations in {@code group}.
+     */
+    public int getGroupCount (int group) {
+        return get(groupCounts, group);
+    }
+
+    /**
+     * Returns the number of operations per group.
+     *
+     * @return A map of group numbers and their operation counts.
+     */
+    public Map<Integer, Integer> getGroupCounts () {
+        return groupCounts;
+    }
+
+    /**
+     * Returns the smallest and largest source row referred to by the log.
+     *
+     * @return An array {@code {first, last}}, or {@code null} if no source rows were
+     * found.
+     */
+    public int[] getSourceRowRange () {
+        return sourceRowRange;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Control
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Add an operation to this summary. Operations need not be unpacked.
+     *
+     * @param op The operation to add.
+     */
+    @Override
+    public void accept (Operation op) {
+        if (op == null || op.operation == OperationType.checkpoint) {
+            return;
+        }
+        operations++;
+        if (op.operation != null) {
+            increment(operationCounts, op.operation.name());
+        }
+        increment(groupCounts, op.group);
+        if (op.sourceRows != null) {
+            for (int row : op.sourceRows) {
+                if (sourceRowRange == null) {
+                    sourceRowRange = new int[]{row, row};
+                } else {
+                    sourceRowRange[0] = Math.min(sourceRowRange[0], row);
+                    sourceRowRange[1] = Math.max(sourceRowRange[1], row);
+                }
+            }
+        }
+        if (op.body == null) {
+            return;
+        }
+        Object value = op.body.get(Key.value);
+        double[] values = null;
+        if (value instanceof double[] || value instanceof Double
+                || (value instanceof ArrayList && !((ArrayList<?>) value).isEmpty())) {
+            values = OpParser.ensureDoubleArray(value);
+        }
+        Set<String> identifiers = new HashSet<String>(4);
+        addIdentifier(op, Key.target, identifiers);
+        addIdentifier(op, Key.source, identifiers);
+        addIdentifier(op, Key.var1, identifiers);
+        addIdentifier(op, Key.var2, identifiers);
+        for (String identifier : identifiers) {
+            increment(identifierCounts, identifier);
+            if (values != null && values.length > 0) {
+                updateRange(identifier, values);
+            }
+        }
+    }
+
+    /**
+     * Write this summary to the sidecar file of the given log.
+     *
+     * @param log The log this summary describes.
+     * @throws IOException If the summary could not be written.
+     */
+    public void write (File log) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(summaryFile(log)), StandardCharsets.UTF_8)) {
+            new Gson().toJson(this, out);
+        }
+    }
+
+    /**
+     * Returns the sidecar summary file for the given log.
+     *
+     * @param log A log file.
+     * @return The summary file for {@code log}.
+     */
+    public static File summaryFile (File log) {
+        return new File(log.getPath() + SUFFIX);
+    }
+
+    /**
+     * Read the sidecar summary of the given log.
+     *
+     * @param log A log file.
+     * @return The summary of {@code log}, or {@code null} if the log has no summary or
+     * the log has been modified since the summary was written.
+     * @throws JsonIOException     If the summary could not be read.
+     * @throws JsonSyntaxException If the summary is not valid.
+     */
+    public static LogSummary read (File log) {
+        File file = summaryFile(log);
+        if (!file.isFile() || file.lastModified() < log.lastModified()) {
+            return null;
+        }
+        try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            return new Gson().fromJson(in, LogSummary.class);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * Returns the summary of the given log. If the log has no current summary, the log is
+     * read in full and a new summary is written.
+     *
+     * @param log A log file.
+     * @return The summary of {@code log}.
+     * @throws FileNotFoundException If {@code log} could not be opened.
+     * @throws JsonIOException       If {@code log} could not be read.
+     * @throws JsonSyntaxException   If {@code log} could not be parsed.
+     */
+    public static LogSummary of (File log) throws FileNotFoundException {
+        LogSummary summary = read(log);
+        if (summary == null) {
+            summary = new LogSummary();
+            LogSource.open(log).forEachRemainingAndClose(summary);
+            try {
+                summary.write(log);
+            } catch (IOException e) {
+                // Summary is still valid, just not cached.
+            }
+        }
+        return summary;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private static void addIdentifier (Operation op, Key key, Set<String> identifiers) {
+        Object locator = op.body.get(key);
+        if (locator != null) {
+            Locator l = OpParser.unpackArrayVariable(locator);
+            if (l != null && l.identifier != null) {
+                identifiers.add(l.identifier);
+            }
+        }
+    }
+
+    private void updateRange (String identifier, double[] values) {
+        double[] range = valueRanges.get(identifier);
+        if (range == null) {
+            range = new double[]{values[0], values[0]};
+            valueRanges.put(identifier, range);
+        }
+        for (double d : values) {
+            range[0] = Math.min(range[0], d);
+            range[1] = Math.max(range[1], d);
+        }
+    }
+
+    private static <K> void increment (Map<K, Integer> map, K key) {
+        Integer count = map.get(key);
+        map.put(key, count == null ? 1 : count + 1);
+    }
+
+    private static <K> int get (Map<K, Integer> map, K key) {
+        Integer count = map.get(key);
+        return count == null ? 0 : count;
+    }
+}
@@ -0,0 +1,296 @@
+package contract.io;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import contract.wrapper.Header;
+import contract.wrapper.Operation;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Append-mode writer for JSON log files. The target is opened once, the {@link Header}
+ * is written first and {@link Operation}s are then appended one at a time through a
+ * buffered {@link JsonWriter}. All writing is done on a background thread, so callers
+ * are never blocked by the file system. Every method returns a future which completes
+ * once the data has been handed to the underlying stream. <br>
+ * <b>NOTE:</b> The log is not valid JSON until {@link #close()} or {@link #finish()} has
+ * been called.
+ */
+public class LogWriter implements Closeable {
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    private final Gson gson;
+    private final JsonWriter out;
+    private final ExecutorService executor;
+    /**
+     * The log to write a summary for once finished, or {@code null}.
+     */
+    private final File summaryTarget;
+    private final LogSummary summary = new LogSummary();
+    /**
+     * The last submitted task. Used to report the completion of the writer as a whole.
+     */
+    private CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+    /**
+     * Set if a write has failed. All later writes will fail with this exception.
+     */
+    private volatile IOException failure;
+    // Caller-side state, guarded by this.
+    private boolean headerSubmitted;
+    private boolean bodySubmitted;
+    private boolean finished;
+    // Writer-side state, only touched by the writer thread.
+    private boolean rootOpen;
+    private boolean bodyOpen;
+
+    // ============================================================= //
+    /*
+     *
+     * Constructors
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Create a new LogWriter for the given target file. Any existing content will be
+     * overwritten. A {@link LogSummary} of the log is written next to it when finished.
+     *
+     * @param target The file to write.
+     * @param prettyPrinting Set to {@code true} to enable human-readable output.
+     * @throws FileNotFoundException If {@code target} could not be opened.
+     */
+    public LogWriter (File target, boolean prettyPrinting) throws FileNotFoundException {
+        this(new FileOutputStream(target), prettyPrinting, target);
+    }
+
+    /**
+     * Create a new LogWriter for the given stream. The stream is closed when this
+     * LogWriter is closed.
+     *
+     * @param stream The stream to write to.
+     * @param prettyPrinting Set to {@code true} to enable human-readable output.
+     */
+    public LogWriter (OutputStream stream, boolean prettyPrinting) {
+        this(stream, prettyPrinting, null);
+    }
+
+    private LogWriter (OutputStream stream, boolean prettyPrinting, File summaryTarget) {
+        this.summaryTarget = summaryTarget;
+        gson = GsonContructor.build();
+        out = new JsonWriter(new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16));
+        if (prettyPrinting) {
+            out.setIndent("  ");
+        }
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LogWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Control
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Write the header of the log. Must be called before any operations are appended, and
+     * at most once.
+     *
+     * @param header The header to write. May be {@code null}.
+     * @return A future which completes when the header has been written.
+     * @throws IllegalStateException If operations have already been appended.
+     */
+    public synchronized CompletableFuture<Void> writeHeader (Header header) {
+        if (headerSubmitted || bodySubmitted) {
+            throw new IllegalStateException("The header must be written once, before any operations.");
+        }
+        headerSubmitted = true;
+        return submit(() -> {
+            openRoot();
+            out.name("header");
+            gson.toJson(header, Header.class, out);
+        });
+    }
+
+    /**
+     * Append an operation to the body of the log.
+     *
+     * @param operation The operation to append.
+     * @return A future which completes when the operation has been written.
+     */
+    public synchronized CompletableFuture<Void> append (Operation operation) {
+        bodySubmitted = true;
+        return submit(() -> writeOperation(operation));
+    }
+
+    /**
+     * Append a list of operations to the body of the log. The list should not be modified
+     * until the returned future has completed.
+     *
+     * @param operations The operations to append.
+     * @return A future which completes when the operations have been written.
+     */
+    public synchronized CompletableFuture<Void> append (List<Operation> operations) {
+        bodySubmitted = true;
+        return submit(() -> {
+            for (Operation op : operations) {
+                writeOperation(op);
+            }
+        });
+    }
+
+    /**
+     * Flush buffered data to the target.
+     *
+     * @return A future which completes when the data has been flushed.
+     */
+    public synchronized CompletableFuture<Void> flush () {
+        return submit(out::flush);
+    }
+
+    /**
+     * Terminate the log and close the target. No more data may be written once this
+     * method has been called. Calling this method more than once has no effect.
+     *
+     * @return A future which completes when the target has been closed.
+     */
+    public synchronized CompletableFuture<Void> finish () {
+        if (finished) {
+            return last;
+        }
+        finished = true;
+        CompletableFuture<Void> f = submitAlways(() -> {
+            try {
+                if (failure == null) {
+                    openRoot();
+                    if (bodyOpen) {
+                        out.endArray();
+                    }
+                    out.endObject();
+                }
+            } finally {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // An incomplete document is expected after a failed write.
+                    if (failure == null) {
+                        throw e;
+                    }
+                }
+            }
+            if (summaryTarget != null && failure == null) {
+                summary.write(summaryTarget);
+            }
+        });
+        executor.shutdown();
+        return f;
+    }
+
+    /**
+     * Terminate the log, close the target and wait for all pending writes to complete.
+     *
+     * @throws IOException If any write failed.
+     */
+    @Override
+    public void close () throws IOException {
+        try {
+            finish().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing log.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException(cause);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private void writeOperation (Operation op) throws IOException {
+        openRoot();
+        if (!bodyOpen) {
+            out.name("body");
+            out.beginArray();
+            bodyOpen = true;
+        }
+        gson.toJson(op, op.getClass(), out);
+        summary.accept(op);
+    }
+
+    private void openRoot () throws IOException {
+        if (!rootOpen) {
+            out.beginObject();
+            rootOpen = true;
+        }
+    }
+
+    private CompletableFuture<Void> submit (IOTask task) {
+        if (finished) {
+            throw new IllegalStateException("LogWriter has been closed.");
+        }
+        return submitAlways(() -> {
+            if (failure != null) {
+                throw failure;
+            }
+            task.run();
+        });
+    }
+
+    private CompletableFuture<Void> submitAlways (IOTask task) {
+        last = CompletableFuture.runAsync(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+        return last;
+    }
+
+    /**
+     * A write task which may throw an IOException.
+     */
+    private interface IOTask {
+        void run () throws IOException;
+    }
+}
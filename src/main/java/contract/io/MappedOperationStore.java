@@ -0,0 +1,408 @@
+package contract.io;
+
+import com.google.gson.JsonIOException;
+import contract.wrapper.Header;
+import contract.wrapper.Operation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Random-access store for binary logs (see {@link BinaryCodec}). The log is mapped into
+ * memory using {@link FileChannel#map} and a sidecar index holding the offset of every
+ * operation is kept next to it. Any operation can be fetched in constant time without
+ * decoding unrelated operations. <br>
+ * <br>
+ * The index is built by a single scan of the log the first time it is opened, and is
+ * rebuilt whenever the log changes. It is written to a temporary file which then replaces
+ * the index, so a crash never leaves a partial index behind. It is laid out as follows:
+ * <pre>
+ * index := MAGIC version logLength logLastModified maxRecordLength count offset[count]
+ *          stringCount string[stringCount]
+ * </pre>
+ */
+public class MappedOperationStore implements Closeable {
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * File suffix of the sidecar index.
+     */
+    public static final String INDEX_SUFFIX = ".idx";
+    private static final byte[] INDEX_MAGIC = {'C', 'T', 'R', 'I'};
+    private static final int INDEX_VERSION = 1;
+    /**
+     * Size of the fixed part of the index, preceding the offsets.
+     */
+    private static final int INDEX_HEADER_SIZE = INDEX_MAGIC.length + 4 + 8 + 8 + 4 + 4;
+    /**
+     * Distance between the starts of two consecutive mapped windows of the log.
+     */
+    private static final long STRIDE = 1L << 30;
+    /**
+     * Number of offsets in each mapped window of the index.
+     */
+    private static final int OFFSETS_PER_WINDOW = 1 << 27;
+
+    private final BinaryCodec codec = new BinaryCodec();
+    private final RandomAccessFile logFile;
+    private final RandomAccessFile indexFile;
+    private final Header header;
+    private final LongBuffer[] offsetWindows;
+    private final int size;
+    private final long logLength;
+    /**
+     * Length of each mapped window. Windows overlap by the length of the longest record,
+     * so every record is fully contained in the window its offset falls in.
+     */
+    private final long windowLength;
+    private final MappedByteBuffer[] windows;
+
+    // ============================================================= //
+    /*
+     *
+     * Constructors
+     *
+     */
+    // ============================================================= //
+
+    private MappedOperationStore (File log, File index) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)))) {
+            header = codec.readHeader(in);
+        }
+        RandomAccessFile logAccess = new RandomAccessFile(log, "r");
+        RandomAccessFile indexAccess = null;
+        try {
+            indexAccess = new RandomAccessFile(index, "r");
+            logLength = logAccess.length();
+
+            indexAccess.seek(INDEX_HEADER_SIZE - 8);
+            long maxRecordLength = indexAccess.readInt();
+            size = indexAccess.readInt();
+            offsetWindows = new LongBuffer[(size + OFFSETS_PER_WINDOW - 1) / OFFSETS_PER_WINDOW];
+
+            // String table follows the offsets.
+            FileChannel channel = indexAccess.getChannel();
+            channel.position(INDEX_HEADER_SIZE + (long) size * 8);
+            DataInputStream strings = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            int stringCount = strings.readInt();
+            for (int i = 0; i < stringCount; i++) {
+                codec.intern(BinaryCodec.readString(strings));
+            }
+
+            windowLength = STRIDE + maxRecordLength;
+            windows = new MappedByteBuffer[(int) (logLength / STRIDE) + 1];
+        } catch (IOException | RuntimeException e) {
+            logAccess.close();
+            if (indexAccess != null) {
+                indexAccess.close();
+            }
+            throw e;
+        }
+        logFile = logAccess;
+        indexFile = indexAccess;
+    }
+
+    /**
+     * Open a binary log for random access. The sidecar index is built if it is missing or
+     * out of date.
+     *
+     * @param log The binary log to open.
+     * @return A store for the log.
+     * @throws IOException If the log could not be read or is not a binary log.
+     */
+    public static MappedOperationStore open (File log) throws IOException {
+        File index = indexFile(log);
+        if (!isIndexCurrent(log, index)) {
+            buildIndex(log, index);
+        }
+        return new MappedOperationStore(log, index);
+    }
+
+    /**
+     * Returns the sidecar index file for the given log.
+     *
+     * @param log A binary log file.
+     * @return The index file for {@code log}.
+     */
+    public static File indexFile (File log) {
+        return new File(log.getPath() + INDEX_SUFFIX);
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Getters and Setters
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns the header of the log.
+     *
+     * @return The header of the log.
+     */
+    public Header getHeader () {
+        return header;
+    }
+
+    /**
+     * Returns the number of operations in the log.
+     *
+     * @return The number of operations in the log.
+     */
+    public int size () {
+        return size;
+    }
+
+    /**
+     * Returns the operation at index {@code n}.
+     *
+     * @param n The index of the operation.
+     * @return The operation at index {@code n}.
+     * @throws IndexOutOfBoundsException If {@code n} is out of range.
+     * @throws JsonIOException           If the operation could not be decoded.
+     */
+    public Operation get (int n) {
+        if (n < 0 || n >= size) {
+            throw new IndexOutOfBoundsException("Index: " + n + ", Size: " + size);
+        }
+        long offset = offsetWindow(n / OFFSETS_PER_WINDOW).get(n % OFFSETS_PER_WINDOW);
+        int window = (int) (offset / STRIDE);
+        ByteBuffer buffer = window(window).duplicate();
+        buffer.position((int) (offset - window * STRIDE));
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+        try {
+            return codec.readRecord(in.readUnsignedByte(), in);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * Returns the operations in the range {@code [from, to)}.
+     *
+     * @param from The index of the first operation, inclusive.
+     * @param to The index of the last operation, exclusive.
+     * @return The operations in the range.
+     * @throws IndexOutOfBoundsException If the range is invalid.
+     */
+    public List<Operation> range (int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range: [" + from + ", " + to + "), Size: " + size);
+        }
+        List<Operation> range = new ArrayList<Operation>(to - from);
+        for (int i = from; i < to; i++) {
+            range.add(get(i));
+        }
+        return range;
+    }
+
+    /**
+     * Returns a read-only list view of the operations in this store. Operations are
+     * decoded on access.
+     *
+     * @return A list view of this store.
+     */
+    public List<Operation> asList () {
+        return new AbstractList<Operation>() {
+            @Override
+            public Operation get (int index) {
+                return MappedOperationStore.this.get(index);
+            }
+
+            @Override
+            public int size () {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public void close () throws IOException {
+        try {
+            logFile.close();
+        } finally {
+            indexFile.close();
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private synchronized MappedByteBuffer window (int window) {
+        if (windows[window] == null) {
+            long start = window * STRIDE;
+            long length = Math.min(windowLength, logLength - start);
+            try {
+                windows[window] = logFile.getChannel().map(MapMode.READ_ONLY, start, length);
+            } catch (IOException e) {
+                throw new JsonIOException(e);
+            }
+        }
+        return windows[window];
+    }
+
+    private synchronized LongBuffer offsetWindow (int window) {
+        if (offsetWindows[window] == null) {
+            long first = (long) window * OFFSETS_PER_WINDOW;
+            long count = Math.min(OFFSETS_PER_WINDOW, size - first);
+            try {
+                offsetWindows[window] = indexFile.getChannel().map(MapMode.READ_ONLY, INDEX_HEADER_SIZE + first * 8,
+                        count * 8).asLongBuffer();
+            } catch (IOException e) {
+                throw new JsonIOException(e);
+            }
+        }
+        return offsetWindows[window];
+    }
+
+    private static boolean isIndexCurrent (File log, File index) throws IOException {
+        if (!index.isFile() || index.length() < INDEX_HEADER_SIZE) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(index))) {
+            byte[] magic = new byte[INDEX_MAGIC.length];
+            in.readFully(magic);
+            return Arrays.equals(magic, INDEX_MAGIC) && in.readInt() == INDEX_VERSION
+                    && in.readLong() == log.length() && in.readLong() == log.lastModified();
+        }
+    }
+
+    /**
+     * Scan the log and write its index.
+     */
+    private static void buildIndex (File log, File index) throws IOException {
+        BinaryCodec codec = new BinaryCodec();
+        File dir = index.getAbsoluteFile().getParentFile();
+        File tmpOffsets = File.createTempFile("offsets", INDEX_SUFFIX, dir);
+        File tmpIndex = File.createTempFile("index", INDEX_SUFFIX, dir);
+        int count = 0;
+        long maxRecordLength = 0;
+        try {
+            try (CountingInputStream counter = new CountingInputStream(
+                    new BufferedInputStream(new FileInputStream(log), 1 << 16));
+                 DataInputStream in = new DataInputStream(counter);
+                 DataOutputStream out = new DataOutputStream(
+                         new BufferedOutputStream(new FileOutputStream(tmpOffsets), 1 << 16))) {
+                codec.readHeader(in);
+                long previous = -1;
+                while (true) {
+                    int tag = codec.readTag(in);
+                    long offset = counter.count - 1;
+                    if (previous >= 0) {
+                        maxRecordLength = Math.max(maxRecordLength, offset - previous);
+                    }
+                    if (tag == BinaryCodec.TAG_END) {
+                        break;
+                    }
+                    codec.readRecord(tag, in);
+                    out.writeLong(offset);
+                    previous = offset;
+                    count++;
+                }
+            }
+            if (maxRecordLength > Integer.MAX_VALUE - STRIDE) {
+                throw new IOException("Record too long: " + maxRecordLength + " bytes.");
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpIndex), 1 << 16));
+                 InputStream offsetsIn = new BufferedInputStream(new FileInputStream(tmpOffsets), 1 << 16)) {
+                out.write(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeLong(log.length());
+                out.writeLong(log.lastModified());
+                out.writeInt((int) maxRecordLength);
+                out.writeInt(count);
+                byte[] buffer = new byte[1 << 16];
+                for (int n = offsetsIn.read(buffer); n > 0; n = offsetsIn.read(buffer)) {
+                    out.write(buffer, 0, n);
+                }
+                List<String> strings = codec.getStrings();
+                out.writeInt(strings.size());
+                for (String str : strings) {
+                    BinaryCodec.writeString(out, str);
+                }
+            }
+            try {
+                Files.move(tmpIndex.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpIndex.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tmpOffsets.delete();
+            tmpIndex.delete();
+        }
+    }
+
+    /**
+     * An InputStream counting the number of bytes read.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream (InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read () throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read (byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip (long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
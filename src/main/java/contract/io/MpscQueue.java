@@ -0,0 +1,136 @@
+package contract.io;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Unbounded lock-free queue for many producers and a single consumer. Producers link new
+ * nodes by swapping the tail, so {@link #offer(Object)} never blocks or retries. Only one
+ * thread at a time may call {@link #poll()} or {@link #drainTo(Collection)}. <br>
+ * An element whose producer has swapped the tail but not yet linked the node is not
+ * visible to the consumer until linking completes, so the queue may briefly appear
+ * shorter than it is. No element is ever lost or returned twice.
+ *
+ * @param <T> The type of the elements.
+ */
+public class MpscQueue<T> {
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Node, Node> NEXT = AtomicReferenceFieldUpdater.newUpdater(
+            Node.class, Node.class, "next");
+
+    private final AtomicReference<Node<T>> tail;
+    /**
+     * The last consumed node. Only touched by the consumer.
+     */
+    private Node<T> head;
+
+    // ============================================================= //
+    /*
+     *
+     * Constructors
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Create a new, empty MpscQueue.
+     */
+    public MpscQueue () {
+        head = new Node<T>(null);
+        tail = new AtomicReference<Node<T>>(head);
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Interface
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Add an element to the end of the queue. May be called from any thread.
+     *
+     * @param element The element to add.
+     * @throws IllegalArgumentException If {@code element} is {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    public void offer (T element) {
+        if (element == null) {
+            throw new IllegalArgumentException("Element may not be null.");
+        }
+        Node<T> node = new Node<T>(element);
+        Node<T> previous = tail.getAndSet(node);
+        NEXT.lazySet(previous, node);
+    }
+
+    /**
+     * Remove and return the first element of the queue. Consumer thread only.
+     *
+     * @return The first element, or {@code null} if the queue is empty.
+     */
+    public T poll () {
+        Node<T> next = head.next;
+        if (next == null) {
+            return null;
+        }
+        T element = next.element;
+        next.element = null; // Let the element be collected.
+        head = next;
+        return element;
+    }
+
+    /**
+     * Remove every element currently in the queue and add them to the given collection,
+     * in order. Consumer thread only.
+     *
+     * @param target The collection to add the elements to.
+     * @return The number of elements moved.
+     */
+    public int drainTo (Collection<? super T> target) {
+        int count = 0;
+        for (Node<T> next = head.next; next != null; next = next.next) {
+            target.add(next.element);
+            next.element = null;
+            head = next;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns {@code true} if no element is visible to the consumer.
+     *
+     * @return {@code true} if the queue is empty.
+     */
+    public boolean isEmpty () {
+        return head.next == null;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Internal class
+     *
+     */
+    // ============================================================= //
+
+    private static final class Node<T> {
+        T element;
+        volatile Node<T> next; // Not private, since it is updated through NEXT.
+
+        private Node (T element) {
+            this.element = element;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package contract.io;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import contract.utility.OpParser;
+import contract.wrapper.Header;
+import contract.wrapper.Operation;
+import contract.wrapper.Root;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads JSON log files in parallel. A fast single-threaded scan splits the body into byte
+ * ranges on operation boundaries, which are then decoded and unpacked on a
+ * {@link ForkJoinPool}. The decoded chunks are merged back in their original order.
+ */
+public class ParallelLogReader {
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Default target size of a chunk, in bytes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final byte[] ARRAY_START = {'['};
+    private static final byte[] ARRAY_END = {']'};
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final Gson gson = GsonContructor.build();
+
+    // ============================================================= //
+    /*
+     *
+     * Constructors
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Create a new ParallelLogReader using the common pool and the default chunk size.
+     */
+    public ParallelLogReader () {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create a new ParallelLogReader.
+     *
+     * @param pool The pool to decode chunks on.
+     * @param chunkSize The target size of a chunk, in bytes.
+     */
+    public ParallelLogReader (ForkJoinPool pool, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive.");
+        }
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Interface
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Read a JSON log file. The operations of the body are unpacked using
+     * {@link OpParser}.
+     *
+     * @param logFile The file to read.
+     * @return The header and the unpacked operations of the log.
+     * @throws IOException         If {@code logFile} could not be read.
+     * @throws JsonSyntaxException If the file could not be parsed.
+     */
+    public Root read (File logFile) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(logFile, "r")) {
+            FileChannel channel = raf.getChannel();
+            Scanner scanner = new Scanner(chunkSize);
+            scanner.scan(channel);
+
+            Header header = null;
+            if (scanner.headerStart >= 0) {
+                header = gson.fromJson(reader(channel, scanner.headerStart, scanner.headerEnd, false), Header.class);
+            }
+
+            int chunks = scanner.chunkCount;
+            @SuppressWarnings("unchecked")
+            List<Operation>[] results = new List[chunks];
+            if (chunks > 0) {
+                pool.invoke(new DecodeTask(channel, scanner, results, 0, chunks));
+            }
+
+            int total = 0;
+            for (List<Operation> chunk : results) {
+                total += chunk.size();
+            }
+            List<Operation> body = new ArrayList<Operation>(total);
+            for (List<Operation> chunk : results) {
+                body.addAll(chunk);
+            }
+            return new Root(header, body);
+        } catch (JsonIOException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns a reader for the given byte range of the file, optionally wrapped in
+     * brackets to form a JSON array.
+     */
+    private static JsonReader reader (FileChannel channel, long start, long end, boolean asArray) throws IOException {
+        ByteBuffer region = channel.map(MapMode.READ_ONLY, start, end - start);
+        InputStream in = new ByteBufferInputStream(region);
+        if (asArray) {
+            in = new SequenceInputStream(Collections.enumeration(Arrays.asList(new ByteArrayInputStream(ARRAY_START),
+                    in, new ByteArrayInputStream(ARRAY_END))));
+        }
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        reader.setLenient(true);
+        return reader;
+    }
+
+    private List<Operation> decodeChunk (FileChannel channel, long start, long end, int count) throws IOException {
+        List<Operation> ops = new ArrayList<Operation>(count);
+        JsonReader in = reader(channel, start, end, true);
+        in.beginArray();
+        while (in.hasNext()) {
+            Operation op = gson.fromJson(in, Operation.class);
+            if (op != null) { // Unknown types are reported and skipped by the adapter.
+                ops.add(OpParser.unpackOperation(op));
+            }
+        }
+        in.endArray();
+        return ops;
+    }
+
+    /**
+     * Decodes a range of chunks, splitting the range in half until a single chunk
+     * remains.
+     */
+    @SuppressWarnings("serial")
+    private class DecodeTask extends RecursiveAction {
+        private final FileChannel channel;
+        private final Scanner scanner;
+        private final List<Operation>[] results;
+        private final int from, to;
+
+        private DecodeTask (FileChannel channel, Scanner scanner, List<Operation>[] results, int from, int to) {
+            this.channel = channel;
+            this.scanner = scanner;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute () {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new DecodeTask(channel, scanner, results, from, mid),
+                        new DecodeTask(channel, scanner, results, mid, to));
+                return;
+            }
+            try {
+                results[from] = decodeChunk(channel, scanner.chunkStarts[from], scanner.chunkEnds[from],
+                        scanner.chunkSizes[from]);
+            } catch (IOException e) {
+                throw new JsonIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Single pass byte scanner locating the header and splitting the body into chunks of
+     * whole operations. Only structural characters are inspected, which are all ASCII, so
+     * the scanner need not decode UTF-8.
+     */
+    private static class Scanner {
+        private final int chunkSize;
+        private long headerStart = -1, headerEnd = -1;
+        private long[] chunkStarts = new long[16], chunkEnds = new long[16];
+        private int[] chunkSizes = new int[16];
+        private int chunkCount;
+
+        // Scanner state
+        private int depth;
+        private boolean inString, escaped, expectKey;
+        private final StringBuilder key = new StringBuilder();
+        private String lastKey;
+        private boolean inHeader, inBody;
+        private long elementStart = -1, currentChunkStart = -1, currentChunkEnd;
+        private int currentChunkCount;
+
+        private Scanner (int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        private void scan (FileChannel channel) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            long position = 0;
+            channel.position(0);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                byte[] bytes = buffer.array();
+                int limit = buffer.limit();
+                for (int i = 0; i < limit; i++) {
+                    accept(bytes[i], position + i);
+                }
+                position += limit;
+                buffer.clear();
+            }
+            closeChunk();
+            if (depth != 0 || inString) {
+                throw new JsonSyntaxException("Unexpected end of log at byte " + position + ".");
+            }
+        }
+
+        private void accept (byte b, long position) {
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                    if (depth == 1 && expectKey) {
+                        lastKey = key.toString();
+                        expectKey = false;
+                    }
+                } else if (depth == 1 && expectKey && key.length() < 16) {
+                    key.append((char) b);
+                }
+                return;
+            }
+            switch (b) {
+                case '"':
+                    inString = true;
+                    key.setLength(0);
+                    break;
+                case '{':
+                case '[':
+                    depth++;
+                    if (depth == 1) {
+                        expectKey = true;
+                    } else if (depth == 2 && "header".equals(lastKey) && b == '{') {
+                        inHeader = true;
+                        headerStart = position;
+                    } else if (depth == 2 && "body".equals(lastKey) && b == '[') {
+                        inBody = true;
+                    } else if (depth == 3 && inBody) {
+                        elementStart = position;
+                    }
+                    break;
+                case '}':
+                case ']':
+                    if (depth == 2 && inHeader) {
+                        inHeader = false;
+                        headerEnd = position + 1;
+                    } else if (depth == 2 && inBody) {
+                        inBody = false;
+                    } else if (depth == 3 && inBody) {
+                        addElement(elementStart, position + 1);
+                    }
+                    depth--;
+                    break;
+                case ',':
+                    if (depth == 1) {
+                        expectKey = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void addElement (long start, long end) {
+            if (currentChunkStart < 0) {
+                currentChunkStart = start;
+            }
+            currentChunkEnd = end;
+            currentChunkCount++;
+            if (currentChunkEnd - currentChunkStart >= chunkSize) {
+                closeChunk();
+            }
+        }
+
+        private void closeChunk () {
+            if (currentChunkStart < 0) {
+                return;
+            }
+            if (chunkCount == chunkStarts.length) {
+                chunkStarts = Arrays.copyOf(chunkStarts, chunkCount * 2);
+                chunkEnds = Arrays.copyOf(chunkEnds, chunkCount * 2);
+                chunkSizes = Arrays.copyOf(chunkSizes, chunkCount * 2);
+            }
+            chunkStarts[chunkCount] = currentChunkStart;
+            chunkEnds[chunkCount] = currentChunkEnd;
+            chunkSizes[chunkCount] = currentChunkCount;
+            chunkCount++;
+            currentChunkStart = -1;
+            currentChunkCount = 0;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package contract.io;
+
+import contract.wrapper.AnnotatedVariable;
+import contract.wrapper.Header;
+import contract.wrapper.Operation;
+import contract.wrapper.Root;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps what a sender has streamed so that members joining late can catch up. The buffer
+ * holds the latest header, with every variable declared so far, and a window of the
+ * latest operations. When the window is full, the oldest operation is executed on a
+ * snapshot of the structures (see {@link Checkpointer}) instead of being kept, so the
+ * buffer stays bounded while still describing the full state.
+ */
+public class ReplayBuffer {
+
+    /**
+     * Default number of operations kept in the window.
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private final int capacity;
+    private final Map<String, AnnotatedVariable> annotatedVariables = new HashMap<String, AnnotatedVariable>();
+    private Map<String, List<String>> sources;
+    private final ArrayDeque<Operation> window;
+    private final Checkpointer base = new Checkpointer(null, 0, false);
+    private long compacted;
+
+    /**
+     * Create a new ReplayBuffer.
+     *
+     * @param capacity The number of operations to keep in the window.
+     */
+    public ReplayBuffer (int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1");
+        }
+        this.capacity = capacity;
+        window = new ArrayDeque<Operation>(Math.min(capacity, 1024));
+    }
+
+    /**
+     * Record a streamed Wrapper.
+     *
+     * @param root The Wrapper that was streamed.
+     */
+    public synchronized void record (Root root) {
+        if (root.header != null) {
+            if (root.header.annotatedVariables != null) {
+                annotatedVariables.putAll(root.header.annotatedVariables);
+            }
+            if (root.header.sources != null) {
+                sources = root.header.sources;
+            }
+            base.declare(root.header);
+        }
+        if (root.body != null) {
+            for (Operation op : root.body) {
+                if (op != null) {
+                    record(op);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record a streamed operation.
+     *
+     * @param op The operation that was streamed.
+     */
+    public synchronized void record (Operation op) {
+        window.addLast(op);
+        if (window.size() > capacity) {
+            base.accept(window.removeFirst());
+            compacted++;
+        }
+    }
+
+    /**
+     * Create a Wrapper which brings a new member to the current state. The Wrapper holds
+     * the latest header, a checkpoint of the operations no longer in the window if there
+     * are any, and the operations in the window.
+     *
+     * @return A Wrapper for catching up, or {@code null} if nothing has been recorded.
+     */
+    public synchronized Root catchUp () {
+        if (annotatedVariables.isEmpty() && window.isEmpty()) {
+            return null;
+        }
+        Header header = new Header(Header.VERSION_UNKNOWN, new HashMap<String, AnnotatedVariable>(
+                annotatedVariables), sources);
+        List<Operation> body = new ArrayList<Operation>(window.size() + 1);
+        if (compacted > 0) {
+            body.add(base.checkpoint());
+        }
+        body.addAll(window);
+        return new Root(header, body);
+    }
+
+    /**
+     * Returns the number of operations in the window.
+     *
+     * @return The number of operations kept.
+     */
+    public synchronized int size () {
+        return window.size();
+    }
+
+    /**
+     * Returns the number of operations which have left the window and are only
+     * represented by the checkpoint.
+     *
+     * @return The number of compacted operations.
+     */
+    public synchronized long getCompacted () {
+        return compacted;
+    }
+}
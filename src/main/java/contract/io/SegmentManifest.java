@@ -0,0 +1,164 @@
+package contract.io;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lists the segments of a segmented log (see {@link SegmentedLogWriter}) in the order
+ * they were written. Segment file names are relative to the directory of the manifest.
+ */
+public class SegmentManifest {
+
+    /**
+     * File suffix of manifests.
+     */
+    public static final String SUFFIX = ".manifest";
+    /**
+     * File suffix of segments.
+     */
+    public static final String SEGMENT_SUFFIX = ".wrapper";
+
+    /**
+     * The segments of the log, in order.
+     */
+    public final List<Segment> segments;
+
+    /**
+     * Create a new SegmentManifest.
+     *
+     * @param segments The segments of the log, in order.
+     */
+    public SegmentManifest (List<Segment> segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * Returns the total number of operations in all segments.
+     *
+     * @return The total number of operations.
+     */
+    public long getOperationCount () {
+        long count = 0;
+        for (Segment segment : segments) {
+            count += segment.operations;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the segment files listed in the given manifest.
+     *
+     * @param manifestFile The manifest file.
+     * @return The segment files, in order.
+     */
+    public List<File> getSegmentFiles (File manifestFile) {
+        File dir = manifestFile.getAbsoluteFile().getParentFile();
+        List<File> files = new ArrayList<File>(segments.size());
+        for (Segment segment : segments) {
+            files.add(new File(dir, segment.file));
+        }
+        return files;
+    }
+
+    /**
+     * Check whether the given file is a manifest, judging by its name.
+     *
+     * @param file The file to check.
+     * @return {@code true} if {@code file} is named like a manifest.
+     */
+    public static boolean isManifest (File file) {
+        return file.getName().endsWith(SUFFIX);
+    }
+
+    /**
+     * Read a manifest.
+     *
+     * @param manifestFile The manifest to read.
+     * @return The manifest.
+     * @throws FileNotFoundException If {@code manifestFile} could not be opened.
+     * @throws JsonIOException       If {@code manifestFile} could not be read.
+     * @throws JsonSyntaxException   If {@code manifestFile} is not a valid manifest.
+     */
+    public static SegmentManifest read (File manifestFile) throws FileNotFoundException {
+        try (Reader in = new InputStreamReader(new FileInputStream(manifestFile), StandardCharsets.UTF_8)) {
+            SegmentManifest manifest = new Gson().fromJson(in, SegmentManifest.class);
+            if (manifest == null || manifest.segments == null) {
+                return new SegmentManifest(Collections.<Segment>emptyList());
+            }
+            return manifest;
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * Write this manifest. The manifest is written to a temporary file first, which then
+     * replaces {@code manifestFile}, so that readers never see a partial manifest.
+     *
+     * @param manifestFile The file to write.
+     * @throws IOException If the manifest could not be written.
+     */
+    public void write (File manifestFile) throws IOException {
+        File tmp = new File(manifestFile.getPath() + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            new Gson().toJson(this, out);
+        }
+        try {
+            Files.move(tmp.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * A single segment of a segmented log.
+     */
+    public static class Segment {
+        /**
+         * The file name of the segment, relative to the manifest.
+         */
+        public final String file;
+        /**
+         * The number of operations in the segment.
+         */
+        public final int operations;
+        /**
+         * The index of the first operation of the segment in the log as a whole.
+         */
+        public final long firstOperation;
+
+        /**
+         * Create a new Segment.
+         *
+         * @param file The file name of the segment, relative to the manifest.
+         * @param operations The number of operations in the segment.
+         * @param firstOperation The index of the first operation of the segment.
+         */
+        public Segment (String file, int operations, long firstOperation) {
+            this.file = file;
+            this.operations = operations;
+            this.firstOperation = firstOperation;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package contract.io;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import contract.wrapper.AnnotatedVariable;
+import contract.wrapper.Header;
+import contract.wrapper.Operation;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a segmented log (see {@link SegmentedLogWriter}) as a single log. Segments are
+ * opened one at a time, in the order listed by the manifest. The header merges the headers
+ * of every segment, since later segments declare the variables added while recording.
+ * Use {@link #openSegment(File, int)} to read a single segment.
+ */
+public class SegmentedLogReader implements LogSource {
+
+    private final List<File> segments;
+    private final Map<String, AnnotatedVariable> annotatedVariables = new HashMap<String, AnnotatedVariable>();
+    private Map<String, List<String>> sources;
+    private int version = Header.VERSION_UNKNOWN;
+    private boolean hasHeader;
+    private LogSource current;
+    private int nextSegment;
+
+    /**
+     * Create a new SegmentedLogReader for the given manifest.
+     *
+     * @param manifestFile The manifest of the log.
+     * @throws FileNotFoundException If the manifest or a segment could not be opened.
+     * @throws JsonIOException       If the manifest could not be read.
+     * @throws JsonSyntaxException   If the manifest is not valid.
+     */
+    public SegmentedLogReader (File manifestFile) throws FileNotFoundException {
+        segments = SegmentManifest.read(manifestFile).getSegmentFiles(manifestFile);
+        if (segments.isEmpty()) {
+            return;
+        }
+        current = LogSource.open(segments.get(0));
+        nextSegment = 1;
+        try {
+            merge(current.getHeader());
+            for (int i = 1; i < segments.size(); i++) {
+                LogSource segment = LogSource.open(segments.get(i));
+                try {
+                    merge(segment.getHeader());
+                } finally {
+                    segment.close();
+                }
+            }
+        } catch (FileNotFoundException | RuntimeException e) {
+            current.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a single segment of a segmented log.
+     *
+     * @param manifestFile The manifest of the log.
+     * @param segment The index of the segment to open.
+     * @return A LogSource for the segment.
+     * @throws FileNotFoundException     If the manifest or the segment could not be opened.
+     * @throws IndexOutOfBoundsException If {@code segment} is out of range.
+     */
+    public static LogSource openSegment (File manifestFile, int segment) throws FileNotFoundException {
+        return LogSource.open(SegmentManifest.read(manifestFile).getSegmentFiles(manifestFile).get(segment));
+    }
+
+    /**
+     * Returns the headers of all segments merged into one. The version and sources are
+     * those of the first segment to declare them, the annotated variables those of every
+     * segment. Segments whose header follows the body are merged as they are read.
+     *
+     * @return The merged header, or {@code null} if no segment has a header yet.
+     */
+    @Override
+    public Header getHeader () {
+        if (!hasHeader) {
+            return null;
+        }
+        return new Header(version, new HashMap<String, AnnotatedVariable>(annotatedVariables), sources);
+    }
+
+    /**
+     * Check whether there are more operations, opening the next segment if the current
+     * one is exhausted.
+     *
+     * @return {@code true} if there are more operations.
+     * @throws JsonIOException If the next segment could not be opened.
+     */
+    @Override
+    public boolean hasNext () {
+        while (current != null) {
+            if (current.hasNext()) {
+                return true;
+            }
+            merge(current.getHeader()); // In case the header follows the body.
+            current.close();
+            current = null;
+            if (nextSegment < segments.size()) {
+                try {
+                    current = LogSource.open(segments.get(nextSegment++));
+                } catch (FileNotFoundException e) {
+                    throw new JsonIOException(e);
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Operation next () {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void close () {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        nextSegment = segments.size();
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private void merge (Header segmentHeader) {
+        if (segmentHeader == null) {
+            return;
+        }
+        if (!hasHeader) {
+            version = segmentHeader.version;
+            hasHeader = true;
+        }
+        if (segmentHeader.annotatedVariables != null) {
+            annotatedVariables.putAll(segmentHeader.annotatedVariables);
+        }
+        if (sources == null) {
+            sources = segmentHeader.sources;
+        }
+    }
+}
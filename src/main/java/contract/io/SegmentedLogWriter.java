@@ -0,0 +1,413 @@
+package contract.io;
+
+import contract.io.SegmentManifest.Segment;
+import contract.operation.OP_Checkpoint;
+import contract.wrapper.Header;
+import contract.wrapper.Operation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Records a log as a sequence of segment files, rolling over to a new segment once the
+ * current one reaches a given number of operations, size or age. Every segment is a
+ * complete JSON log with its own header, so segments can be read and processed on their
+ * own. A {@link SegmentManifest} listing the finished segments in order is kept next to
+ * them and is updated every time a segment is finished. <br>
+ * <br>
+ * Segments are named after the manifest: {@code trace.manifest} has segments
+ * {@code trace.0000.wrapper}, {@code trace.0001.wrapper} and so on. Only the first segment
+ * holds the sources of the header, later segments carry just the annotated variables.
+ * A {@link LogSummary} is written for every segment, and for the log as a whole once
+ * closed.
+ * Operations are written by a {@link LogWriter}, so callers are not blocked by the file
+ * system unless they get more than {@link #MAX_QUEUED} operations ahead of it.
+ */
+public class SegmentedLogWriter implements Closeable {
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * The number of operations which may be queued for writing before appending waits
+     * for the LogWriter to catch up.
+     */
+    public static final int MAX_QUEUED = 1024;
+
+    private final File manifestFile;
+    private final String baseName;
+    private final boolean prettyPrinting;
+    private Header header;
+    private Checkpointer checkpointer;
+
+    // Roll limits. Zero means no limit.
+    private int maxOperations;
+    private long maxBytes;
+    private long maxMillis;
+
+    private final List<Segment> finished = new ArrayList<Segment>();
+    private final List<CompletableFuture<Void>> pending = new ArrayList<CompletableFuture<Void>>();
+    private volatile IOException failure;
+
+    // Current segment
+    private LogWriter writer;
+    private CountingOutputStream counter;
+    private LogSummary segmentSummary;
+    private String segmentName;
+    private int segmentCount;
+    private int segmentOperations;
+    private long segmentStart;
+    /**
+     * Completes when the operation appended {@link #MAX_QUEUED} operations ago, or less,
+     * has been written.
+     */
+    private CompletableFuture<Void> queueMark = CompletableFuture.completedFuture(null);
+    private int sinceMark;
+    private long totalOperations;
+    private boolean closed;
+    private final LogSummary summary = new LogSummary();
+
+    // ============================================================= //
+    /*
+     *
+     * Constructors
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Create a new SegmentedLogWriter. The first segment is opened when the first operation
+     * is appended.
+     *
+     * @param manifestFile The manifest to write. Segments are placed in the same directory.
+     * @param header The header of the log.
+     * @param prettyPrinting Set to {@code true} to enable human-readable output.
+     */
+    public SegmentedLogWriter (File manifestFile, Header header, boolean prettyPrinting) {
+        this.manifestFile = manifestFile;
+        this.header = header;
+        this.prettyPrinting = prettyPrinting;
+        String name = manifestFile.getName();
+        baseName = SegmentManifest.isManifest(manifestFile) ? name.substring(0,
+                name.length() - SegmentManifest.SUFFIX.length()) : name;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Getters and Setters
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Set the maximum number of operations in a segment.
+     *
+     * @param maxOperations The maximum number of operations, or 0 for no limit.
+     */
+    public synchronized void setMaxOperations (int maxOperations) {
+        this.maxOperations = maxOperations;
+    }
+
+    /**
+     * Set the size at which a segment is rolled over. The size is measured as data leaves
+     * the buffer of the {@link LogWriter}, and up to {@link #MAX_QUEUED} operations may be
+     * queued ahead of it. Segments may therefore exceed this size by the size of that
+     * buffer (64 KB) plus up to twice {@link #MAX_QUEUED} operations.
+     *
+     * @param maxBytes The maximum size of a segment, in bytes, or 0 for no limit.
+     */
+    public synchronized void setMaxBytes (long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Set the age at which a segment is rolled over. The age is checked when operations
+     * are appended.
+     *
+     * @param maxMillis The maximum age of a segment, in milliseconds, or 0 for no limit.
+     */
+    public synchronized void setMaxDuration (long maxMillis) {
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * Set the header to use for segments opened from now on, for example when new
+     * variables have been declared.
+     *
+     * @param header The new header.
+     */
+    public synchronized void setHeader (Header header) {
+        this.header = header;
+        if (checkpointer != null) {
+            checkpointer.declare(header);
+        }
+    }
+
+    /**
+     * Insert checkpoints (see {@link Checkpointer}) into the log. Every segment after the
+     * first also starts with a checkpoint, so that segments can be replayed on their own.
+     *
+     * @param interval The number of operations between checkpoints, or 0 to disable.
+     * @param atGroupBoundaries If {@code true}, a checkpoint is also inserted whenever
+     * the group of the operations changes.
+     */
+    public synchronized void setCheckpoints (int interval, boolean atGroupBoundaries) {
+        checkpointer = new Checkpointer(header, interval, atGroupBoundaries);
+    }
+
+    /**
+     * Returns the manifest file of this writer.
+     *
+     * @return The manifest file of this writer.
+     */
+    public File getManifestFile () {
+        return manifestFile;
+    }
+
+    /**
+     * Returns the total number of operations appended to this writer.
+     *
+     * @return The total number of operations appended.
+     */
+    public synchronized long getOperationCount () {
+        return totalOperations;
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Control
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Append an operation to the current segment, rolling over to a new segment first if
+     * the current one is full.
+     *
+     * @param operation The operation to append.
+     * @throws IOException If a segment could not be opened, or an earlier write failed.
+     */
+    public synchronized void append (Operation operation) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("SegmentedLogWriter has been closed.");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (writer != null && isFull()) {
+            roll();
+        }
+        boolean newSegment = writer == null;
+        if (newSegment) {
+            openSegment();
+        }
+        OP_Checkpoint checkpoint = null;
+        if (checkpointer != null) {
+            checkpoint = checkpointer.accept(operation, newSegment && segmentCount > 1);
+        }
+        if (checkpoint != null) {
+            write(checkpoint);
+        }
+        write(operation);
+    }
+
+    /**
+     * Append a list of operations.
+     *
+     * @param operations The operations to append.
+     * @throws IOException If a segment could not be opened, or an earlier write failed.
+     */
+    public synchronized void append (List<Operation> operations) throws IOException {
+        for (Operation op : operations) {
+            append(op);
+        }
+    }
+
+    /**
+     * Finish the current segment, if any. The next operation appended will start a new
+     * segment.
+     */
+    public synchronized void roll () {
+        if (writer == null) {
+            return;
+        }
+        Segment segment = new Segment(segmentName, segmentOperations, totalOperations - segmentOperations);
+        LogSummary finishedSummary = segmentSummary;
+        pending.removeIf(CompletableFuture::isDone);
+        pending.add(writer.finish().handle((v, t) -> {
+            if (t != null) {
+                fail(t);
+            } else {
+                segmentFinished(segment, finishedSummary);
+            }
+            return null;
+        }));
+        writer = null;
+        counter = null;
+        segmentSummary = null;
+    }
+
+    /**
+     * Finish the current segment and wait for all segments and the manifest to be
+     * written.
+     *
+     * @throws IOException If any write failed.
+     */
+    @Override
+    public void close () throws IOException {
+        List<CompletableFuture<Void>> wait;
+        synchronized (this) {
+            if (!closed) {
+                closed = true;
+                if (segmentCount == 0) {
+                    // Nothing appended: still produce a valid, empty log.
+                    try {
+                        openSegment();
+                    } catch (IOException e) {
+                        fail(e);
+                    }
+                }
+                roll();
+            }
+            wait = new ArrayList<CompletableFuture<Void>>(pending);
+        }
+        try {
+            CompletableFuture.allOf(wait.toArray(new CompletableFuture[wait.size()])).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing log.", e);
+        } catch (ExecutionException e) {
+            fail(e.getCause());
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        synchronized (finished) {
+            summary.write(manifestFile);
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private void write (Operation operation) throws IOException {
+        CompletableFuture<Void> written = writer.append(operation);
+        if (++sinceMark == MAX_QUEUED) {
+            // Wait for the previous mark, so at most twice MAX_QUEUED operations are queued.
+            try {
+                queueMark.join();
+            } catch (CompletionException e) {
+                fail(e);
+                throw failure;
+            }
+            queueMark = written;
+            sinceMark = 0;
+        }
+        segmentSummary.accept(operation);
+        summary.accept(operation);
+        segmentOperations++;
+        totalOperations++;
+    }
+
+    private boolean isFull () {
+        return (maxOperations > 0 && segmentOperations >= maxOperations)
+                || (maxBytes > 0 && counter.count >= maxBytes)
+                || (maxMillis > 0 && System.currentTimeMillis() - segmentStart >= maxMillis);
+    }
+
+    private void openSegment () throws FileNotFoundException {
+        segmentName = String.format("%s.%04d%s", baseName, segmentCount, SegmentManifest.SEGMENT_SUFFIX);
+        File dir = manifestFile.getAbsoluteFile().getParentFile();
+        counter = new CountingOutputStream(new FileOutputStream(new File(dir, segmentName)));
+        writer = new LogWriter(counter, prettyPrinting);
+        segmentSummary = new LogSummary();
+        if (header != null) {
+            writer.writeHeader(segmentCount == 0 ? header : new Header(header.version, header.annotatedVariables,
+                    null));
+        }
+        segmentCount++;
+        segmentOperations = 0;
+        segmentStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Called once a segment has been fully written. Segments may finish out of order, but
+     * are listed in the manifest in the order they were started.
+     */
+    private void segmentFinished (Segment segment, LogSummary segmentSummary) {
+        File dir = manifestFile.getAbsoluteFile().getParentFile();
+        try {
+            segmentSummary.write(new File(dir, segment.file));
+        } catch (IOException e) {
+            fail(e);
+        }
+        synchronized (finished) {
+            int i = finished.size();
+            while (i > 0 && finished.get(i - 1).firstOperation > segment.firstOperation) {
+                i--;
+            }
+            finished.add(i, segment);
+            try {
+                new SegmentManifest(new ArrayList<Segment>(finished)).write(manifestFile);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    private void fail (Throwable t) {
+        while ((t instanceof UncheckedIOException || t instanceof CompletionException)
+                && t.getCause() != null) {
+            t = t.getCause();
+        }
+        if (failure == null) {
+            failure = t instanceof IOException ? (IOException) t : new IOException(t);
+        }
+    }
+
+    /**
+     * An OutputStream counting the number of bytes written.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private volatile long count;
+
+        private CountingOutputStream (OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write (int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write (byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
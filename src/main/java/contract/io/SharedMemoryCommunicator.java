@@ -0,0 +1,581 @@
+package contract.io;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import contract.assets.Const;
+import contract.wrapper.Root;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Communicator for processes on the same host, built on a memory-mapped file holding a
+ * ring buffer with a single producer and any number of consumers. The producer writes
+ * each Wrapper as a frame encoded using {@link WireCodec}, and never waits for consumers.
+ * Every consumer has its own cursor, follows the producer from the position it had when
+ * the consumer was opened, and polls for new frames on a background thread by spinning,
+ * then yielding, then parking for increasing periods. A consumer which falls more than a
+ * full lap behind skips ahead to the position of the producer.
+ * <br>
+ * The file is laid out as follows, with positions counted in bytes since the ring was
+ * created:
+ * <pre>
+ * header := MAGIC capacity:int generation:long published:long claimed:long (padded to 64)
+ * frame  := position:long length:int reserved:int payload (padded to 16)
+ * </pre>
+ * Frames before the {@code published} position are complete. If a frame does not fit
+ * before the end of the ring, a padding frame of length -1 fills the rest of the lap.
+ * Before writing, the producer claims the end of the frame, so that a consumer can tell
+ * whether the frame it read was overwritten meanwhile. <br>
+ * <b>NOTE:</b> Ordering between processes relies on explicit load and store fences
+ * ({@code VarHandle.loadLoadFence()} and {@code VarHandle.storeStoreFence()}, or their
+ * {@code Unsafe} equivalents on Java 8), which keep the plain accesses to the mapped file
+ * in program order. If neither is available, volatile accesses are used instead, which
+ * order the accesses on common hardware only.
+ */
+public class SharedMemoryCommunicator implements Communicator {
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Magic number starting the file.
+     */
+    public static final int MAGIC = 0x4353484D; // CSHM
+    /**
+     * Default capacity of the ring, in bytes.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 24;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int CAPACITY = 4, GENERATION = 8, PUBLISHED = 16, CLAIMED = 24;
+    private static final int FRAME_HEADER = 16;
+    private static final int PADDING = -1;
+    private static final int SPIN_TRIES = 1000, YIELD_TRIES = 100;
+    private static final long MIN_PARK = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long MAX_PARK = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final MethodHandle LOAD_FENCE = fence("loadLoadFence", "loadFence");
+    private static final MethodHandle STORE_FENCE = fence("storeStoreFence", "storeFence");
+    /**
+     * Written and read around accesses to the mapped file when no fence is available.
+     */
+    private static volatile int fence;
+
+    public final String hierarchy;
+    private final int senderId;
+    private final File file;
+    private final boolean producer;
+    private final ComListener listener;
+    private final MpscQueue<Root> incomingQueue = new MpscQueue<Root>();
+    private final Gson gson = GsonContructor.build();
+    private final ChunkAssembler chunkAssembler = new ChunkAssembler();
+    private volatile Set<String> subscription;
+    private MappedByteBuffer ring;
+    private ByteBuffer writeView;
+    private ByteBuffer readView;
+    private int capacity;
+    private long generation;
+    // Producer state, guarded by this.
+    private long position;
+    // Consumer state, only touched by the reader thread.
+    private Thread reader;
+    private volatile boolean closed;
+    private volatile long lost;
+    private volatile long received;
+
+    // ============================================================= //
+    /*
+     *
+     * Constructors
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Create a new SharedMemoryCommunicator using the default ring for the default
+     * channel, located in the temporary directory.
+     *
+     * @param hierarchy The user hierarchy for this SharedMemoryCommunicator.
+     * @param listener The listener for this SharedMemoryCommunicator.
+     * @param producer If true, this SharedMemoryCommunicator writes to the ring and
+     * receives nothing. Otherwise it reads from the ring and cannot send.
+     * @throws IOException If the ring could not be created.
+     */
+    public SharedMemoryCommunicator (String hierarchy, ComListener listener, boolean producer) throws IOException {
+        this(hierarchy, (int) (Math.random() * Integer.MAX_VALUE), defaultFile(Const.DEFAULT_CHANNEL), DEFAULT_CAPACITY,
+                listener, producer);
+    }
+
+    /**
+     * Create a new SharedMemoryCommunicator. A producer creates the ring, replacing any
+     * previous ring in the same file. A consumer waits in the background for the ring to
+     * be created if it does not exist yet.
+     *
+     * @param hierarchy The user hierarchy for this SharedMemoryCommunicator.
+     * @param senderId The transmitter id for this SharedMemoryCommunicator.
+     * @param file The file holding the ring.
+     * @param capacity The capacity of the ring in bytes, rounded up to a power of two.
+     * Only used by the producer.
+     * @param listener The listener for this SharedMemoryCommunicator.
+     * @param producer If true, this SharedMemoryCommunicator writes to the ring and
+     * receives nothing. Otherwise it reads from the ring and cannot send.
+     * @throws IOException If the ring could not be created.
+     */
+    public SharedMemoryCommunicator (String hierarchy, int senderId, File file, int capacity, ComListener listener,
+                                     boolean producer) throws IOException {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener may not be null.");
+        }
+        this.hierarchy = "SharedMemoryCommunicator[" + hierarchy + "], id = " + senderId;
+        this.senderId = senderId;
+        this.file = file;
+        this.producer = producer;
+        this.listener = listener;
+        if (producer) {
+            create(Integer.highestOneBit(Math.max(capacity - 1, FRAME_HEADER) << 1));
+        } else {
+            reader = new Thread(this::read, "SharedMemoryCommunicator");
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Getters and Setters
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns the file holding the ring.
+     *
+     * @return The file holding the ring.
+     */
+    public File getFile () {
+        return file;
+    }
+
+    /**
+     * Returns the number of times a consumer fell a lap behind and skipped ahead, losing
+     * the frames in between.
+     *
+     * @return The number of laps lost, or 0 for a producer.
+     */
+    public long getLost () {
+        return lost;
+    }
+
+    /**
+     * Returns the number of frames read by a consumer.
+     *
+     * @return The number of frames received, or 0 for a producer.
+     */
+    public long getReceived () {
+        return received;
+    }
+
+    /**
+     * Returns the default ring file for a channel, located in the temporary directory.
+     *
+     * @param channel The name of the channel.
+     * @return The default ring file for {@code channel}.
+     */
+    public static File defaultFile (String channel) {
+        return new File(System.getProperty("java.io.tmpdir"), channel + ".ring");
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Interface
+     *
+     */
+    // ============================================================= //
+
+    @Override
+    public Root popQueuedMessage () {
+        return incomingQueue.poll();
+    }
+
+    @Override
+    public List<Root> getAllQueuedMessages () {
+        ArrayList<Root> allQueuedMessages = new ArrayList<Root>();
+        incomingQueue.drainTo(allQueuedMessages);
+        return allQueuedMessages;
+    }
+
+    @Override
+    public int drainQueuedMessages (Collection<? super Root> target) {
+        return incomingQueue.drainTo(target);
+    }
+
+    /**
+     * Write the given Wrapper to the ring. Only a producer can send.
+     *
+     * @param outgoing The Wrapper to send.
+     * @return True if the Wrapper was written, false otherwise.
+     */
+    @Override
+    public boolean sendWrapper (Root outgoing) {
+        return send(new CommunicatorMessage(outgoing, senderId, CommunicatorMessage.WRAPPER));
+    }
+
+    @Override
+    public boolean sendWrappers (List<Root> outgoing) {
+        boolean allSuccessful = true;
+        for (Root w : outgoing) {
+            allSuccessful = allSuccessful && sendWrapper(w);
+        }
+        return allSuccessful;
+    }
+
+    /**
+     * Write the given String to the ring. Only a producer can send. <br>
+     * <b>NOTE:</b> JSONString must be a valid serialisation of a Wrapper.
+     *
+     * @param JSONString The JSON String to send.
+     * @return True if the String was written, false otherwise.
+     */
+    @Override
+    public boolean sendString (String JSONString) {
+        return send(new CommunicatorMessage(JSONString, senderId, CommunicatorMessage.JSON));
+    }
+
+    @Override
+    public boolean sendChunk (Chunk chunk) {
+        return send(new CommunicatorMessage(chunk, senderId, CommunicatorMessage.CHUNK));
+    }
+
+    @Override
+    public boolean sendTopic (Topic topic) {
+        return send(new CommunicatorMessage(topic, senderId, CommunicatorMessage.TOPIC));
+    }
+
+    @Override
+    public boolean subscribe (Collection<String> identifiers) {
+        subscription = identifiers == null ? null : Collections.unmodifiableSet(new HashSet<String>(identifiers));
+        return true;
+    }
+
+    /**
+     * Stop reading from the ring. The file is left in place, so that consumers may keep
+     * reading what a closed producer has written.
+     */
+    @Override
+    public void close () {
+        closed = true;
+        if (reader != null) {
+            LockSupport.unpark(reader);
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Producer
+     *
+     */
+    // ============================================================= //
+
+    private void create (int capacity) throws IOException {
+        this.capacity = capacity;
+        generation = System.nanoTime() ^ ((long) senderId << 32);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(HEADER_SIZE + capacity);
+            ring = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+        }
+        writeView = ring.duplicate();
+        ring.putInt(0, 0); // Invalid until initialised.
+        storeFence();
+        ring.putInt(CAPACITY, capacity);
+        ring.putLong(GENERATION, generation);
+        ring.putLong(PUBLISHED, 0);
+        ring.putLong(CLAIMED, 0);
+        storeFence();
+        ring.putInt(0, MAGIC);
+    }
+
+    private synchronized boolean send (CommunicatorMessage message) {
+        if (!producer || closed) {
+            return false;
+        }
+        byte[] payload;
+        try {
+            payload = WireCodec.encode(message);
+        } catch (IOException e) {
+            System.err.println("Message could not be sent: " + e);
+            return false;
+        }
+        int frameSize = align(FRAME_HEADER + payload.length);
+        if (frameSize > capacity) {
+            System.err.println("Message could not be sent: " + frameSize + " bytes exceeds ring capacity.");
+            return false;
+        }
+        int index = index(position);
+        if (index + frameSize > capacity) {
+            // Pad to the end of the lap.
+            int remaining = capacity - index;
+            claim(position + remaining);
+            writeFrame(index, position, PADDING, null);
+            position += remaining;
+            publish(position);
+            index = 0;
+        }
+        claim(position + frameSize);
+        writeFrame(index, position, payload.length, payload);
+        position += frameSize;
+        publish(position);
+        return true;
+    }
+
+    private void claim (long end) {
+        ring.putLong(CLAIMED, end);
+        storeFence();
+    }
+
+    private void writeFrame (int index, long framePosition, int length, byte[] payload) {
+        int offset = HEADER_SIZE + index;
+        ring.putInt(offset + 8, length);
+        if (payload != null) {
+            writeView.position(offset + FRAME_HEADER);
+            writeView.put(payload);
+        }
+        storeFence();
+        ring.putLong(offset, framePosition);
+    }
+
+    private void publish (long end) {
+        storeFence();
+        ring.putLong(PUBLISHED, end);
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Consumer
+     *
+     */
+    // ============================================================= //
+
+    private void read () {
+        long cursor = 0;
+        int idle = 0;
+        long park = MIN_PARK;
+        byte[] buffer = new byte[256];
+        while (!closed) {
+            if (ring == null || ring.getLong(GENERATION) != generation) {
+                if (!open()) {
+                    LockSupport.parkNanos(MAX_PARK * 100);
+                    continue;
+                }
+                cursor = ring.getLong(PUBLISHED);
+            }
+            long published = ring.getLong(PUBLISHED);
+            loadFence();
+            if (published == cursor) {
+                // Nothing new. Spin, then yield, then park.
+                idle++;
+                if (idle > SPIN_TRIES + YIELD_TRIES) {
+                    LockSupport.parkNanos(park);
+                    park = Math.min(park << 1, MAX_PARK);
+                } else if (idle > SPIN_TRIES) {
+                    Thread.yield();
+                }
+                continue;
+            }
+            idle = 0;
+            park = MIN_PARK;
+            int offset = HEADER_SIZE + index(cursor);
+            long stamp = ring.getLong(offset);
+            int length = ring.getInt(offset + 8);
+            if (length > 0 && length <= capacity - FRAME_HEADER) {
+                if (buffer.length < length) {
+                    buffer = new byte[Math.max(length, buffer.length << 1)];
+                }
+                readView.position(offset + FRAME_HEADER);
+                readView.get(buffer, 0, length);
+            }
+            loadFence();
+            if (stamp != cursor || ring.getLong(CLAIMED) - cursor > capacity) {
+                // Lapped by the producer, possibly while reading.
+                lost++;
+                cursor = ring.getLong(PUBLISHED);
+                continue;
+            }
+            if (length == PADDING) {
+                cursor += capacity - index(cursor);
+                continue;
+            }
+            cursor += align(FRAME_HEADER + length);
+            received++;
+            deliver(buffer, length);
+        }
+    }
+
+    private boolean open () {
+        if (!file.exists()) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < HEADER_SIZE) {
+                return false;
+            }
+            MappedByteBuffer header = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                return false;
+            }
+            int fileCapacity = header.getInt(CAPACITY);
+            if (raf.length() < HEADER_SIZE + fileCapacity) {
+                return false;
+            }
+            ring = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + fileCapacity);
+            readView = ring.duplicate();
+            capacity = fileCapacity;
+            generation = ring.getLong(GENERATION);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Ring could not be opened: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void deliver (byte[] buffer, int length) {
+        CommunicatorMessage message;
+        try {
+            Set<String> subscription = this.subscription;
+            if (subscription != null) {
+                String topic = WireCodec.peekTopic(buffer, 0, length);
+                if (topic != null && !subscription.contains(topic)) {
+                    return; // Not subscribed, don't bother decoding.
+                }
+            }
+            message = WireCodec.decode(buffer, 0, length);
+        } catch (IOException e) {
+            System.err.println("Frame malformed: " + e.getMessage());
+            return;
+        }
+        Root w;
+        if (message.messageType == CommunicatorMessage.WRAPPER) {
+            w = (Root) message.payload;
+        } else if (message.messageType == CommunicatorMessage.JSON) {
+            try {
+                w = gson.fromJson((String) message.payload, Root.class);
+            } catch (JsonParseException e) {
+                System.err.println("JSON String malformed: " + message.payload);
+                return;
+            }
+        } else if (message.messageType == CommunicatorMessage.TOPIC) {
+            w = ((Topic) message.payload).root;
+        } else if (message.messageType == CommunicatorMessage.CHUNK) {
+            for (Root part : chunkAssembler.accept(message.senderId, (Chunk) message.payload)) {
+                incomingQueue.offer(part);
+                listener.messageReceived(CommunicatorMessage.WRAPPER);
+            }
+            return;
+        } else {
+            return;
+        }
+        incomingQueue.offer(w);
+        listener.messageReceived(CommunicatorMessage.WRAPPER);
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private int index (long position) {
+        return (int) (position & (capacity - 1));
+    }
+
+    /**
+     * Stores before the fence are visible before stores after it.
+     */
+    private static void storeFence () {
+        if (STORE_FENCE != null) {
+            invoke(STORE_FENCE);
+        } else {
+            fence = 0;
+        }
+    }
+
+    /**
+     * Loads before the fence complete before loads after it.
+     */
+    private static int loadFence () {
+        if (LOAD_FENCE != null) {
+            invoke(LOAD_FENCE);
+            return 0;
+        }
+        return fence;
+    }
+
+    private static void invoke (MethodHandle fence) {
+        try {
+            fence.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Look up a fence taking no arguments: {@code VarHandle.name} on Java 9 and later,
+     * otherwise {@code Unsafe.unsafeName} on Java 8. Looked up reflectively so that the
+     * tree builds on either without using internal API.
+     */
+    private static MethodHandle fence (String name, String unsafeName) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            return lookup.findStatic(Class.forName("java.lang.invoke.VarHandle"), name,
+                    MethodType.methodType(void.class));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 8, try Unsafe.
+        }
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return lookup.findVirtual(unsafeClass, unsafeName, MethodType.methodType(void.class)).bindTo(
+                    field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("No " + name + " available, using volatile barriers: " + e);
+            return null;
+        }
+    }
+
+    private static int align (int size) {
+        return (size + FRAME_HEADER - 1) & -FRAME_HEADER;
+    }
+}
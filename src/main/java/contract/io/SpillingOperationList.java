@@ -0,0 +1,300 @@
+package contract.io;
+
+import com.google.gson.JsonIOException;
+import contract.wrapper.Operation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A list of operations which keeps only the most recent operations in memory. Once the
+ * in-heap window is full, the oldest operations are encoded a page at a time using
+ * {@link BinaryCodec} and spilled to a temporary file. Spilled operations are paged back in
+ * when accessed, and a few recently used pages are cached. <br>
+ * <br>
+ * Operations may be appended and the list may be cleared. Operations still in memory may
+ * be replaced, but spilled operations are read-only: {@link #get(int)} returns a fresh copy
+ * of a spilled operation, so changes made to it are not kept. Like an ArrayList, the list
+ * may hold {@code null}, such as the operations {@link contract.utility.OpParser} could
+ * not unpack. The temporary file is deleted when the list is closed.
+ */
+public class SpillingOperationList extends AbstractList<Operation> implements RandomAccess, Closeable {
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Default number of operations kept in memory.
+     */
+    public static final int DEFAULT_WINDOW = 1 << 16;
+    /**
+     * Number of operations spilled at once.
+     */
+    public static final int PAGE_SIZE = 1 << 12;
+    /**
+     * Number of spilled pages cached in memory.
+     */
+    private static final int CACHED_PAGES = 4;
+
+    private final int window;
+    private final BinaryCodec codec = new BinaryCodec();
+    /**
+     * Operations not yet spilled, starting at index {@link #spilled}.
+     */
+    private final ArrayList<Operation> heap = new ArrayList<Operation>();
+    private final Map<Integer, List<Operation>> cache = new LinkedHashMap<Integer, List<Operation>>(16, 0.75f,
+            true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry (Map.Entry<Integer, List<Operation>> eldest) {
+            return size() > CACHED_PAGES;
+        }
+    };
+    private int spilled;
+    private long[] pageOffsets = new long[16];
+    private int pageCount;
+    private File spillFile;
+    private RandomAccessFile spill;
+
+    // ============================================================= //
+    /*
+     *
+     * Constructors
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Create a new SpillingOperationList with the default window.
+     */
+    public SpillingOperationList () {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * Create a new SpillingOperationList.
+     *
+     * @param window The number of operations to keep in memory.
+     */
+    public SpillingOperationList (int window) {
+        if (window < 0) {
+            throw new IllegalArgumentException("window must be non-negative.");
+        }
+        this.window = window;
+    }
+
+    /**
+     * Create a new SpillingOperationList containing the given operations.
+     *
+     * @param window The number of operations to keep in memory.
+     * @param operations The initial operations of the list.
+     */
+    public SpillingOperationList (int window, List<Operation> operations) {
+        this(window);
+        addAll(operations);
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Interface
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns the operation at the given index, reading it from disk if it has been
+     * spilled.
+     *
+     * @param index The index of the operation.
+     * @return The operation at {@code index}.
+     * @throws IndexOutOfBoundsException If {@code index} is out of range.
+     * @throws JsonIOException           If a spilled operation could not be read.
+     */
+    @Override
+    public synchronized Operation get (int index) {
+        checkIndex(index);
+        if (index >= spilled) {
+            return heap.get(index - spilled);
+        }
+        return page(index / PAGE_SIZE).get(index % PAGE_SIZE);
+    }
+
+    @Override
+    public synchronized int size () {
+        return spilled + heap.size();
+    }
+
+    /**
+     * Replace an operation which has not yet been spilled.
+     *
+     * @throws UnsupportedOperationException If the operation has been spilled.
+     */
+    @Override
+    public synchronized Operation set (int index, Operation op) {
+        checkIndex(index);
+        if (index < spilled) {
+            throw new UnsupportedOperationException("Spilled operations are read-only.");
+        }
+        return heap.set(index - spilled, op);
+    }
+
+    /**
+     * Insert an operation. Only appending is supported.
+     *
+     * @throws UnsupportedOperationException If {@code index != size()}.
+     */
+    @Override
+    public synchronized void add (int index, Operation op) {
+        if (index != size()) {
+            throw new UnsupportedOperationException("Operations may only be appended.");
+        }
+        heap.add(op);
+        modCount++;
+        if (heap.size() >= window + PAGE_SIZE) {
+            spillPage();
+        }
+    }
+
+    @Override
+    public synchronized void clear () {
+        heap.clear();
+        cache.clear();
+        spilled = 0;
+        pageCount = 0;
+        modCount++;
+        if (spill != null) {
+            try {
+                spill.setLength(0);
+            } catch (IOException e) {
+                throw new JsonIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of operations currently spilled to disk.
+     *
+     * @return The number of spilled operations.
+     */
+    public synchronized int getSpilledCount () {
+        return spilled;
+    }
+
+    /**
+     * Remove all operations and delete the temporary file. The list may still be used
+     * afterwards, in which case a new temporary file is created when needed.
+     */
+    @Override
+    public synchronized void close () {
+        heap.clear();
+        cache.clear();
+        spilled = 0;
+        pageCount = 0;
+        modCount++;
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+            spillFile.delete();
+            spill = null;
+            spillFile = null;
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private void checkIndex (int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+    }
+
+    /**
+     * Encode the oldest page of the heap and append it to the spill file.
+     */
+    private void spillPage () {
+        List<Operation> page = heap.subList(0, PAGE_SIZE);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(PAGE_SIZE * 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (Operation op : page) {
+                if (op == null) {
+                    out.writeByte(BinaryCodec.TAG_END); // Never a record tag.
+                } else {
+                    codec.writeRecord(out, op);
+                }
+            }
+            if (spill == null) {
+                spillFile = File.createTempFile("operations", ".spill");
+                spillFile.deleteOnExit();
+                spill = new RandomAccessFile(spillFile, "rw");
+            }
+            long offset = spill.length();
+            spill.seek(offset);
+            spill.write(bytes.toByteArray());
+            if (pageCount + 1 >= pageOffsets.length) {
+                pageOffsets = Arrays.copyOf(pageOffsets, pageOffsets.length * 2);
+            }
+            pageOffsets[pageCount] = offset;
+            pageOffsets[pageCount + 1] = offset + bytes.size();
+            pageCount++;
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        page.clear();
+        spilled += PAGE_SIZE;
+    }
+
+    /**
+     * Returns a spilled page, reading it from disk unless it is cached.
+     */
+    private List<Operation> page (int page) {
+        List<Operation> ops = cache.get(page);
+        if (ops != null) {
+            return ops;
+        }
+        try {
+            byte[] bytes = new byte[(int) (pageOffsets[page + 1] - pageOffsets[page])];
+            spill.seek(pageOffsets[page]);
+            spill.readFully(bytes);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            ops = new ArrayList<Operation>(PAGE_SIZE);
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                int tag = in.readUnsignedByte();
+                ops.add(tag == BinaryCodec.TAG_END ? null : codec.readRecord(tag, in));
+            }
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        cache.put(page, ops);
+        return ops;
+    }
+}
@@ -0,0 +1,808 @@
+package contract.io;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import contract.wrapper.Header;
+import contract.wrapper.Root;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+
+/**
+ * Communicator using TCP, intended for localhost where multicast is unavailable. The
+ * first member to bind the address becomes the hub. Later members connect to it, and the
+ * hub relays every frame to all members except the sender. Frames are written on the
+ * sending thread when the socket accepts them, and otherwise by a selector thread, which
+ * also does all reading. <br>
+ * Messages are encoded using {@link WireCodec} and framed by a length prefix:
+ * <pre>
+ * frame := length:int payload
+ * </pre>
+ * Frames are built once in pooled direct buffers and shared between connections. Pending
+ * frames are written together using gathering writes, so a burst of small messages
+ * costs a single system call and no further copying. At most {@link #MAX_QUEUED} frames
+ * are queued on a connection: senders wait for room, and the hub stops reading from a
+ * member while a connection it relays to is full. Received frames are decoded and
+ * delivered by a {@link DecodePool}, in order for each connection, and flow control
+ * reports are exchanged (see {@link FlowControl}). <br>
+ * <b>NOTE:</b> There is no reconnection. If the hub closes, the other members stop
+ * receiving.
+ */
+public class TcpCommunicator implements Communicator {
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Default port of the hub.
+     */
+    public static final int DEFAULT_PORT = 21623;
+    /**
+     * Largest accepted frame, in bytes.
+     */
+    public static final int MAX_FRAME = 64 << 20;
+    /**
+     * Largest number of frames queued on a connection.
+     */
+    public static final int MAX_QUEUED = 1024;
+
+    private static final int CHUNK_SIZE = 64 << 10;
+    private static final int POOL_SIZE = 64;
+    private static final int MAX_GATHER = 64;
+
+    public final String hierarchy;
+    public boolean suppressIncoming;
+    private final int senderId;
+    private final ComListener listener;
+    private final MpscQueue<Root> incomingQueue = new MpscQueue<Root>();
+    private final Gson gson = GsonContructor.build();
+    private final ChunkAssembler chunkAssembler = new ChunkAssembler();
+    private final FlowControl flowControl = new FlowControl();
+    private final DecodePool decodePool = new DecodePool(DecodePool.DEFAULT_WORKERS);
+    /**
+     * Serialises delivery to the listener, which is called from several workers.
+     */
+    private final Object deliveryLock = new Object();
+    private volatile Set<String> subscription;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final List<Connection> connections = new CopyOnWriteArrayList<Connection>();
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+    private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final Thread ioThread;
+    /**
+     * Connections not read from until the connections they relay to have room. Selector
+     * thread only.
+     */
+    private final List<Connection> paused = new ArrayList<Connection>();
+    private volatile boolean relayPaused;
+    private volatile boolean closed;
+    private volatile int compressionLevel = Deflater.NO_COMPRESSION;
+    /**
+     * Identifiers of headers sent, used to prime compression. Guarded by itself.
+     */
+    private final Set<String> dictionaryIdentifiers = new LinkedHashSet<String>();
+
+    // ============================================================= //
+    /*
+     *
+     * Constructors
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Create a new TcpCommunicator with a random transmitter id, using the default port
+     * on localhost.
+     *
+     * @param hierarchy The user hierarchy for this TcpCommunicator.
+     * @param listener The listener for this TcpCommunicator.
+     * @param suppressIncoming If true, incoming Wrappers will be ignored.
+     * @throws IOException If the address could neither be bound nor connected to.
+     */
+    public TcpCommunicator (String hierarchy, ComListener listener, boolean suppressIncoming) throws IOException {
+        this(hierarchy, (int) (Math.random() * Integer.MAX_VALUE),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT), listener, suppressIncoming);
+    }
+
+    /**
+     * Create a new TcpCommunicator. Becomes the hub if the address can be bound, and
+     * connects to the hub otherwise.
+     *
+     * @param hierarchy The user hierarchy for this TcpCommunicator.
+     * @param senderId The transmitter id for this TcpCommunicator.
+     * @param address The address of the hub.
+     * @param listener The listener for this TcpCommunicator.
+     * @param suppressIncoming If true, incoming Wrappers will be ignored.
+     * @throws IOException If the address could neither be bound nor connected to.
+     */
+    public TcpCommunicator (String hierarchy, int senderId, InetSocketAddress address, ComListener listener,
+                            boolean suppressIncoming) throws IOException {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener may not be null.");
+        }
+        this.hierarchy = "TcpCommunicator[" + hierarchy + "], id = " + senderId;
+        this.senderId = senderId;
+        this.listener = listener;
+        this.suppressIncoming = suppressIncoming;
+        selector = Selector.open();
+        server = bind(address);
+        if (server == null) {
+            SocketChannel channel = SocketChannel.open(address);
+            configure(channel);
+            connections.add(new Connection(channel));
+        }
+        ioThread = new Thread(this::run, "TcpCommunicator");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Getters and Setters
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Returns {@code true} if this TcpCommunicator is the hub.
+     *
+     * @return {@code true} if this TcpCommunicator accepts connections.
+     */
+    public boolean isHub () {
+        return server != null;
+    }
+
+    /**
+     * Compress outgoing messages, see {@link WireCodec#compress(byte[], int, Collection)}.
+     * Compression is primed with the identifiers of the headers sent so far. Receivers
+     * detect compressed frames automatically.
+     *
+     * @param level The compression level from 1 (fastest) to 9 (smallest), or
+     * {@link Deflater#NO_COMPRESSION} to disable compression.
+     */
+    public void setCompressionLevel (int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        compressionLevel = level;
+    }
+
+    /**
+     * Returns the number of open connections. A member connected to the hub has one.
+     *
+     * @return The number of open connections.
+     */
+    public int getConnectionCount () {
+        return connections.size();
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Interface
+     *
+     */
+    // ============================================================= //
+
+    @Override
+    public Root popQueuedMessage () {
+        return incomingQueue.poll();
+    }
+
+    @Override
+    public List<Root> getAllQueuedMessages () {
+        ArrayList<Root> allQueuedMessages = new ArrayList<Root>();
+        incomingQueue.drainTo(allQueuedMessages);
+        return allQueuedMessages;
+    }
+
+    @Override
+    public int drainQueuedMessages (Collection<? super Root> target) {
+        return incomingQueue.drainTo(target);
+    }
+
+    /**
+     * Send the given Wrapper to every other member. The Wrapper is encoded on the calling
+     * thread, and written by it unless the socket buffer is full.
+     *
+     * @param outgoing The Wrapper to send.
+     * @return True if the Wrapper was queued for sending, false otherwise.
+     */
+    @Override
+    public boolean sendWrapper (Root outgoing) {
+        return send(new CommunicatorMessage(outgoing, senderId, CommunicatorMessage.WRAPPER));
+    }
+
+    @Override
+    public boolean sendWrappers (List<Root> outgoing) {
+        boolean allSuccessful = true;
+        for (Root w : outgoing) {
+            allSuccessful = allSuccessful && sendWrapper(w);
+        }
+        return allSuccessful;
+    }
+
+    /**
+     * Send the given String to every other member. <br>
+     * <b>NOTE:</b> JSONString must be a valid serialisation of a Wrapper.
+     *
+     * @param JSONString The JSON String to send.
+     * @return True if the String was queued for sending, false otherwise.
+     */
+    @Override
+    public boolean sendString (String JSONString) {
+        return send(new CommunicatorMessage(JSONString, senderId, CommunicatorMessage.JSON));
+    }
+
+    @Override
+    public boolean sendChunk (Chunk chunk) {
+        return send(new CommunicatorMessage(chunk, senderId, CommunicatorMessage.CHUNK));
+    }
+
+    @Override
+    public boolean sendTopic (Topic topic) {
+        return send(new CommunicatorMessage(topic, senderId, CommunicatorMessage.TOPIC));
+    }
+
+    @Override
+    public boolean subscribe (Collection<String> identifiers) {
+        subscription = identifiers == null ? null : Collections.unmodifiableSet(new HashSet<String>(identifiers));
+        return true;
+    }
+
+    @Override
+    public boolean sendCredit (FlowControl.Credit credit) {
+        return send(new CommunicatorMessage(credit, senderId, CommunicatorMessage.CREDIT));
+    }
+
+    @Override
+    public FlowControl getFlowControl () {
+        return flowControl;
+    }
+
+    /**
+     * Close all connections and stop the selector thread. Frames not yet written are
+     * discarded.
+     */
+    @Override
+    public void close () {
+        closed = true;
+        selector.wakeup();
+        try {
+            ioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        decodePool.close();
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Sending
+     *
+     */
+    // ============================================================= //
+
+    private boolean send (CommunicatorMessage message) {
+        if (closed) {
+            return false;
+        }
+        byte[] payload;
+        try {
+            payload = WireCodec.encode(message);
+            if (compressionLevel != Deflater.NO_COMPRESSION) {
+                synchronized (dictionaryIdentifiers) {
+                    if (message.payload instanceof Root) {
+                        Header header = ((Root) message.payload).header;
+                        if (header != null && header.annotatedVariables != null) {
+                            dictionaryIdentifiers.addAll(header.annotatedVariables.keySet());
+                        }
+                    }
+                    byte[] compressed = WireCodec.compress(payload, compressionLevel, dictionaryIdentifiers);
+                    // Small messages may grow, send those as they are.
+                    payload = compressed.length < payload.length ? compressed : payload;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Message could not be sent: " + e);
+            return false;
+        }
+        broadcast(frame(payload, payload.length), null);
+        return true;
+    }
+
+    private Frame frame (byte[] payload, int length) {
+        int size = 4 + length;
+        ByteBuffer buffer = size <= CHUNK_SIZE ? pool.poll() : null;
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(Math.max(size, CHUNK_SIZE));
+        }
+        buffer.clear();
+        buffer.putInt(length);
+        buffer.put(payload, 0, length);
+        buffer.flip();
+        return new Frame(buffer);
+    }
+
+    /**
+     * Queue a frame on every connection except one, and write what can be written without
+     * blocking. Frames sent by this member wait for room on full connections. Relayed
+     * frames never wait, since the selector thread relays them.
+     */
+    private void broadcast (Frame frame, Connection except) {
+        for (Connection c : connections) {
+            if (c != except) {
+                if (except == null) {
+                    awaitRoom(c);
+                }
+                frame.references.incrementAndGet();
+                c.queued.incrementAndGet();
+                c.outgoing.add(new Pending(frame));
+                flush(c);
+            }
+        }
+        release(frame);
+    }
+
+    private void awaitRoom (Connection c) {
+        synchronized (c.room) {
+            while (c.queued.get() >= MAX_QUEUED && c.channel.isOpen() && !closed) {
+                try {
+                    c.room.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wake up senders waiting for room on a connection, and the selector thread if it has
+     * stopped reading to relay to it.
+     */
+    private void roomMade (Connection c) {
+        synchronized (c.room) {
+            c.room.notifyAll();
+        }
+        if (relayPaused) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Write queued frames on the calling thread. If another thread is already writing, it
+     * will pick up the frames once done. If the socket buffer is full, the selector
+     * thread takes over once the connection is writable again.
+     */
+    private void flush (Connection c) {
+        do {
+            if (c.blocked || !c.writeLock.tryLock()) {
+                return;
+            }
+            try {
+                write(c);
+            } finally {
+                c.writeLock.unlock();
+            }
+        } while (!c.blocked && !c.outgoing.isEmpty());
+    }
+
+    private void release (Frame frame) {
+        if (frame.references.decrementAndGet() == 0 && frame.buffer.capacity() == CHUNK_SIZE
+                && pool.size() < POOL_SIZE) {
+            pool.offer(frame.buffer);
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Selector thread
+     *
+     */
+    // ============================================================= //
+
+    private void run () {
+        try {
+            for (Connection c : connections) {
+                c.key = c.channel.register(selector, SelectionKey.OP_READ, c);
+            }
+            while (!closed) {
+                selector.select();
+                for (Connection c = pendingWrites.poll(); c != null; c = pendingWrites.poll()) {
+                    interest(c, true);
+                }
+                resume();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection c = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        read(c);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        interest(c, false);
+                        c.blocked = false;
+                        flush(c);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("TcpCommunicator stopped: " + e);
+        } finally {
+            for (Connection c : connections) {
+                drop(c);
+            }
+            try {
+                if (server != null) {
+                    server.close();
+                }
+                selector.close();
+            } catch (IOException e) {
+                // Closing anyway.
+            }
+        }
+    }
+
+    private void accept () throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        configure(channel);
+        Connection c = new Connection(channel);
+        c.key = channel.register(selector, SelectionKey.OP_READ, c);
+        connections.add(c);
+    }
+
+    private void interest (Connection c, boolean write) {
+        if (c.key.isValid()) {
+            c.key.interestOps((c.paused ? 0 : SelectionKey.OP_READ) | (write ? SelectionKey.OP_WRITE : 0));
+        }
+    }
+
+    /**
+     * Returns {@code true} if a connection frames from {@code source} are relayed to is
+     * full.
+     */
+    private boolean relayFull (Connection source) {
+        for (Connection c : connections) {
+            if (c != source && c.queued.get() >= MAX_QUEUED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resume reading from paused connections whose relay targets have room again.
+     */
+    private void resume () {
+        Iterator<Connection> it = paused.iterator();
+        while (it.hasNext()) {
+            Connection c = it.next();
+            if (!c.channel.isOpen()) {
+                it.remove();
+            } else if (!relayFull(c)) {
+                it.remove();
+                c.paused = false;
+                interest(c, c.blocked);
+                process(c); // Frames already read may be waiting.
+            }
+        }
+        relayPaused = !paused.isEmpty();
+    }
+
+    private void read (Connection c) {
+        try {
+            if (c.channel.read(c.readBuffer) < 0) {
+                drop(c);
+                return;
+            }
+        } catch (IOException e) {
+            drop(c);
+            return;
+        }
+        process(c);
+    }
+
+    /**
+     * Relay and hand over the complete frames in the read buffer of a connection. Stops
+     * reading from the connection while a connection the frames are relayed to is full.
+     */
+    private void process (Connection c) {
+        ByteBuffer in = c.readBuffer;
+        in.flip();
+        while (in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length < 0 || length > MAX_FRAME) {
+                System.err.println("Frame malformed: length = " + length);
+                drop(c);
+                return;
+            }
+            if (in.remaining() < 4 + length) {
+                if (in.capacity() < 4 + length) {
+                    ByteBuffer larger = ByteBuffer.allocateDirect(4 + length);
+                    larger.put(in);
+                    c.readBuffer = larger;
+                    return; // Already compacted into the new buffer.
+                }
+                break;
+            }
+            in.position(in.position() + 4);
+            byte[] payload = new byte[length];
+            in.get(payload);
+            if (server != null && connections.size() > 1) {
+                broadcast(frame(payload, length), c);
+            }
+            // Frames of a connection are handed over by one thread, so they stay in order.
+            decodePool.execute(c, () -> deliver(payload));
+            if (server != null && relayFull(c)) {
+                c.paused = true;
+                interest(c, c.blocked);
+                paused.add(c);
+                relayPaused = true;
+                break;
+            }
+        }
+        if (in.capacity() > CHUNK_SIZE && (in.remaining() < 4 || 4 + in.getInt(in.position()) <= CHUNK_SIZE)) {
+            // Give back the memory of a large frame once it has been handled.
+            ByteBuffer smaller = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            smaller.put(in);
+            c.readBuffer = smaller;
+        } else {
+            in.compact();
+        }
+    }
+
+    private void write (Connection c) {
+        if (!c.channel.isOpen()) {
+            return;
+        }
+        try {
+            while (true) {
+                while (c.inFlight.size() < MAX_GATHER) {
+                    Pending p = c.outgoing.poll();
+                    if (p == null) {
+                        break;
+                    }
+                    c.inFlight.add(p);
+                }
+                if (c.inFlight.isEmpty()) {
+                    return;
+                }
+                int n = 0;
+                for (Pending p : c.inFlight) {
+                    c.gather[n++] = p.view;
+                }
+                c.channel.write(c.gather, 0, n);
+                int written = 0;
+                while (!c.inFlight.isEmpty() && !c.inFlight.peek().view.hasRemaining()) {
+                    release(c.inFlight.poll().frame);
+                    written++;
+                }
+                int queued = c.queued.addAndGet(-written);
+                if (queued < MAX_QUEUED && queued + written >= MAX_QUEUED) {
+                    roomMade(c);
+                }
+                if (!c.inFlight.isEmpty()) {
+                    // Socket buffer full, continue when writable.
+                    c.blocked = true;
+                    pendingWrites.add(c);
+                    selector.wakeup();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            drop(c);
+        }
+    }
+
+    private void drop (Connection c) {
+        connections.remove(c);
+        if (c.key != null) {
+            c.key.cancel();
+        }
+        c.writeLock.lock();
+        try {
+            c.channel.close();
+            for (Pending p = c.inFlight.poll(); p != null; p = c.inFlight.poll()) {
+                release(p.frame);
+            }
+            for (Pending p = c.outgoing.poll(); p != null; p = c.outgoing.poll()) {
+                release(p.frame);
+            }
+        } catch (IOException e) {
+            // Dropping anyway.
+        } finally {
+            c.writeLock.unlock();
+        }
+        roomMade(c); // Senders waiting for room give up.
+    }
+
+    private void deliver (byte[] payload) {
+        CommunicatorMessage message;
+        try {
+            if (WireCodec.isCompressed(payload, 0, payload.length)) {
+                payload = WireCodec.decompress(payload, 0, payload.length, MAX_FRAME);
+            }
+            if (suppressIncoming && WireCodec.peekMessageType(payload, 0, payload.length)
+                    != CommunicatorMessage.CREDIT) {
+                return; // Credits are handled even if suppressing, senders need them.
+            }
+            Set<String> subscription = this.subscription;
+            if (subscription != null) {
+                String topic = WireCodec.peekTopic(payload, 0, payload.length);
+                if (topic != null && !subscription.contains(topic)) {
+                    return; // Not subscribed, don't bother decoding.
+                }
+            }
+            message = WireCodec.decode(payload, 0, payload.length);
+        } catch (IOException e) {
+            System.err.println("Frame malformed: " + e.getMessage());
+            return;
+        }
+        if (message.senderId == senderId) {
+            return; // Don't process our own messages.
+        }
+        if (message.messageType == CommunicatorMessage.CREDIT) {
+            if (message.payload instanceof FlowControl.Credit) {
+                flowControl.update(message.senderId, (FlowControl.Credit) message.payload);
+            }
+            return;
+        }
+        Root w;
+        if (message.messageType == CommunicatorMessage.WRAPPER) {
+            w = (Root) message.payload;
+        } else if (message.messageType == CommunicatorMessage.JSON) {
+            try {
+                w = gson.fromJson((String) message.payload, Root.class);
+            } catch (JsonParseException e) {
+                System.err.println("JSON String malformed: " + message.payload);
+                return;
+            }
+        } else if (message.messageType == CommunicatorMessage.TOPIC) {
+            w = ((Topic) message.payload).root;
+        } else if (message.messageType == CommunicatorMessage.CHUNK) {
+            for (Root part : chunkAssembler.accept(message.senderId, (Chunk) message.payload)) {
+                fireEvent(part);
+            }
+            return;
+        } else {
+            return;
+        }
+        fireEvent(w);
+    }
+
+    private void fireEvent (Root w) {
+        synchronized (deliveryLock) {
+            incomingQueue.offer(w);
+            listener.messageReceived(CommunicatorMessage.WRAPPER);
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private ServerSocketChannel bind (InetSocketAddress address) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.bind(address);
+        } catch (BindException e) {
+            channel.close();
+            return null; // Someone else is the hub.
+        }
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_ACCEPT);
+        return channel;
+    }
+
+    private static void configure (SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Internal class
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * A frame shared by the connections it is queued on.
+     */
+    private static final class Frame {
+        private final ByteBuffer buffer;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Frame (ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * A frame queued on a connection, with a position of its own.
+     */
+    private static final class Pending {
+        private final Frame frame;
+        private final ByteBuffer view;
+
+        private Pending (Frame frame) {
+            this.frame = frame;
+            view = frame.buffer.duplicate();
+        }
+    }
+
+    private static final class Connection {
+        private final SocketChannel channel;
+        private final Queue<Pending> outgoing = new ConcurrentLinkedQueue<Pending>();
+        /**
+         * Frames queued or in flight, see {@link #MAX_QUEUED}.
+         */
+        private final AtomicInteger queued = new AtomicInteger();
+        /**
+         * Notified when room is made in the queue.
+         */
+        private final Object room = new Object();
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private volatile boolean blocked;
+        // Guarded by writeLock.
+        private final ArrayDeque<Pending> inFlight = new ArrayDeque<Pending>();
+        private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+        // Selector thread only.
+        private ByteBuffer readBuffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        private SelectionKey key;
+        private boolean paused;
+
+        private Connection (SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package contract.io;
+
+import contract.assets.Const;
+import contract.utility.StructUtil;
+import contract.wrapper.Operation;
+import contract.wrapper.Root;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Wrapper whose operations all concern a single structure, tagged with the identifier
+ * of that structure. Receivers which have subscribed to other identifiers (see
+ * {@link Communicator#subscribe(java.util.Collection)}) drop topics without unwrapping
+ * them. Topics are always encoded using {@link WireCodec}, so Communicators supporting
+ * subscriptions drop them without decoding them.
+ */
+public class Topic implements Serializable {
+
+    /**
+     * Version number for this class.
+     */
+    private static final long serialVersionUID = Const.VERSION_NUMBER;
+
+    /**
+     * The identifier of the structure concerned, or {@code null} if the Wrapper concerns
+     * several structures or none.
+     */
+    public final String identifier;
+    /**
+     * The Wrapper.
+     */
+    public final Root root;
+
+    /**
+     * Create a new Topic.
+     *
+     * @param identifier The identifier of the structure concerned, or {@code null}.
+     * @param root The Wrapper.
+     */
+    public Topic (String identifier, Root root) {
+        this.identifier = identifier;
+        this.root = root;
+    }
+
+    /**
+     * Split a Wrapper into one topic per structure concerned. Operations concerning the
+     * same structure keep their order. Operations concerning several structures or none
+     * are put in Wrappers without identifier and act as barriers: no operation is moved
+     * across them. Between barriers, operations on different structures may be reordered
+     * relative to each other, so that interleaved streams still give few, large topics.
+     * The header, if any, is put in a Wrapper of its own without identifier.
+     *
+     * @param root The Wrapper to split.
+     * @return The topics of {@code root}, in order.
+     */
+    public static List<Topic> split (Root root) {
+        List<Topic> topics = new ArrayList<Topic>();
+        if (root.header != null) {
+            topics.add(new Topic(null, new Root(root.header, null)));
+        }
+        if (root.body == null) {
+            return topics;
+        }
+        Map<String, List<Operation>> groups = new LinkedHashMap<String, List<Operation>>();
+        List<Operation> barrier = null;
+        for (Operation op : root.body) {
+            String identifier = StructUtil.identifier(op);
+            if (identifier == null) {
+                if (barrier == null) {
+                    addGroups(topics, groups);
+                    barrier = new ArrayList<Operation>();
+                }
+                barrier.add(op);
+            } else {
+                if (barrier != null) {
+                    topics.add(new Topic(null, new Root(null, barrier)));
+                    barrier = null;
+                }
+                List<Operation> group = groups.get(identifier);
+                if (group == null) {
+                    group = new ArrayList<Operation>();
+                    groups.put(identifier, group);
+                }
+                group.add(op);
+            }
+        }
+        if (barrier != null) {
+            topics.add(new Topic(null, new Root(null, barrier)));
+        }
+        addGroups(topics, groups);
+        return topics;
+    }
+
+    private static void addGroups (List<Topic> topics, Map<String, List<Operation>> groups) {
+        for (Map.Entry<String, List<Operation>> group : groups.entrySet()) {
+            topics.add(new Topic(group.getKey(), new Root(null, group.getValue())));
+        }
+        groups.clear();
+    }
+
+    /**
+     * Send a Wrapper split into topics, see {@link #split(Root)}. Wrappers without an
+     * identifier are sent using {@link Communicator#sendWrapper(Root)}.
+     *
+     * @param communicator The Communicator to send with.
+     * @param root The Wrapper to send.
+     * @return True if every part was sent, false otherwise.
+     */
+    public static boolean send (Communicator communicator, Root root) {
+        boolean allSuccessful = true;
+        for (Topic topic : split(root)) {
+            if (topic.identifier == null) {
+                allSuccessful = allSuccessful && communicator.sendWrapper(topic.root);
+            } else {
+                allSuccessful = allSuccessful && communicator.sendTopic(topic);
+            }
+        }
+        return allSuccessful;
+    }
+
+    @Override
+    public String toString () {
+        return "Topic[" + identifier + "]";
+    }
+}
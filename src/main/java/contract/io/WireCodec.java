@@ -0,0 +1,460 @@
+package contract.io;
+
+import com.google.gson.Gson;
+import contract.io.Communicator.CommunicatorMessage;
+import contract.operation.Key;
+import contract.operation.OperationType;
+import contract.wrapper.Header;
+import contract.wrapper.Operation;
+import contract.wrapper.Root;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary encoding of {@link CommunicatorMessage}s, used instead of Java
+ * serialization by {@link JGroupCommunicator#SENDER_MODE_BINARY}. Operations are encoded
+ * using {@link BinaryCodec}, with a string table local to each message so that messages
+ * can be decoded independently. The header, which is rarely sent, is encoded as JSON. A
+ * message is laid out as follows:
+ * <pre>
+ * message := MAGIC version messageType senderId payload
+ * payload := PAYLOAD_NULL
+ *          | PAYLOAD_STRING string
+ *          | PAYLOAD_ROOT flags [header] [record* TAG_END]
+ *          | PAYLOAD_CHUNK transferId:long sequence:int last:boolean flags [header] [record* TAG_END]
+ *          | PAYLOAD_TOPIC identifier flags [header] [record* TAG_END]
+ *          | PAYLOAD_CREDIT received:long consumed:long window:int
+ * </pre>
+ * The first magic byte is never a type tag written by JGroups when serializing objects,
+ * so binary messages can be told apart from serialized ones. <br>
+ * Any encoded message, or other data such as a serialised message, may be wrapped in a
+ * compressed frame using {@link #compress(byte[], int, Collection)}:
+ * <pre>
+ * compressed := MAGIC_COMPRESSED version identifierCount:short identifier* length:int deflated
+ * </pre>
+ * The deflater is primed with a dictionary of common keys and operation names followed
+ * by the given identifiers, which are carried in the frame so that any receiver can
+ * rebuild the dictionary.
+ */
+public abstract class WireCodec {
+
+    private WireCodec () {
+    } // Not to be instantiated.
+
+    // ============================================================= //
+    /*
+     *
+     * Field variables
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Magic bytes starting every encoded message.
+     */
+    public static final byte[] MAGIC = {'C', 'W'};
+    /**
+     * Magic bytes starting every compressed frame.
+     */
+    public static final byte[] MAGIC_COMPRESSED = {'C', 'Z'};
+    /**
+     * Maximum number of identifiers carried by a compressed frame.
+     */
+    public static final int MAX_DICTIONARY_IDENTIFIERS = 256;
+    /**
+     * Default limit on the size of decompressed data, in bytes.
+     */
+    public static final int MAX_DECOMPRESSED = 64 << 20;
+    /**
+     * Current version of the wire format.
+     */
+    public static final int VERSION = 1;
+
+    private static final int PAYLOAD_NULL = 0, PAYLOAD_STRING = 1, PAYLOAD_ROOT = 2, PAYLOAD_CHUNK = 3,
+            PAYLOAD_TOPIC = 4, PAYLOAD_CREDIT = 5;
+    private static final int HAS_HEADER = 1, HAS_BODY = 2;
+    private static final Gson gson = GsonContructor.build();
+    private static final byte[] PRESET_DICTIONARY = presetDictionary();
+
+    // ============================================================= //
+    /*
+     *
+     * Interface
+     *
+     */
+    // ============================================================= //
+
+    /**
+     * Encode a message. The payload must be {@code null}, a String, a {@link Root}, a
+     * {@link Chunk}, a {@link Topic} or a {@link FlowControl.Credit}.
+     *
+     * @param message The message to encode.
+     * @return The encoded message.
+     * @throws IOException If the payload could not be encoded.
+     */
+    public static byte[] encode (CommunicatorMessage message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeShort(message.messageType);
+        out.writeInt(message.senderId);
+        Object payload = message.payload;
+        if (payload == null) {
+            out.writeByte(PAYLOAD_NULL);
+        } else if (payload instanceof String) {
+            out.writeByte(PAYLOAD_STRING);
+            BinaryCodec.writeString(out, (String) payload);
+        } else if (payload instanceof Root) {
+            out.writeByte(PAYLOAD_ROOT);
+            writeRoot(out, (Root) payload);
+        } else if (payload instanceof Chunk) {
+            Chunk chunk = (Chunk) payload;
+            out.writeByte(PAYLOAD_CHUNK);
+            out.writeLong(chunk.transferId);
+            out.writeInt(chunk.sequence);
+            out.writeBoolean(chunk.last);
+            writeRoot(out, chunk.root);
+        } else if (payload instanceof Topic) {
+            Topic topic = (Topic) payload;
+            out.writeByte(PAYLOAD_TOPIC);
+            BinaryCodec.writeString(out, topic.identifier);
+            writeRoot(out, topic.root);
+        } else if (payload instanceof FlowControl.Credit) {
+            FlowControl.Credit credit = (FlowControl.Credit) payload;
+            out.writeByte(PAYLOAD_CREDIT);
+            out.writeLong(credit.received);
+            out.writeLong(credit.consumed);
+            out.writeInt(credit.window);
+        } else {
+            throw new IOException("Unsupported payload: " + payload.getClass());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a message.
+     *
+     * @param buffer The buffer holding the message.
+     * @param offset The offset of the message in {@code buffer}.
+     * @param length The length of the message.
+     * @return The decoded message.
+     * @throws IOException If the message could not be decoded.
+     */
+    public static CommunicatorMessage decode (byte[] buffer, int offset, int length) throws IOException {
+        if (!isEncoded(buffer, offset, length)) {
+            throw new IOException("Not an encoded message.");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer, offset, length));
+        in.skipBytes(MAGIC.length);
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported wire format version: " + version);
+        }
+        short messageType = in.readShort();
+        int senderId = in.readInt();
+        Object payload;
+        int kind = in.readUnsignedByte();
+        switch (kind) {
+            case PAYLOAD_NULL:
+                payload = null;
+                break;
+            case PAYLOAD_STRING:
+                payload = BinaryCodec.readString(in);
+                break;
+            case PAYLOAD_ROOT:
+                payload = readRoot(in);
+                break;
+            case PAYLOAD_CHUNK:
+                payload = new Chunk(in.readLong(), in.readInt(), in.readBoolean(), readRoot(in));
+                break;
+            case PAYLOAD_TOPIC:
+                payload = new Topic(BinaryCodec.readString(in), readRoot(in));
+                break;
+            case PAYLOAD_CREDIT:
+                payload = new FlowControl.Credit(in.readLong(), in.readLong(), in.readInt());
+                break;
+            default:
+                throw new IOException("Unknown payload kind: " + kind);
+        }
+        return new CommunicatorMessage(payload, senderId, messageType);
+    }
+
+    /**
+     * Read the identifier of an encoded {@link Topic} without decoding the rest of the
+     * message.
+     *
+     * @param buffer The buffer holding the message.
+     * @param offset The offset of the message in {@code buffer}.
+     * @param length The length of the message.
+     * @return The identifier of the topic, or {@code null} if the message does not hold a
+     * topic.
+     * @throws IOException If the message is malformed.
+     */
+    public static String peekTopic (byte[] buffer, int offset, int length) throws IOException {
+        int kindOffset = MAGIC.length + 1 + 2 + 4;
+        if (!isEncoded(buffer, offset, length) || length <= kindOffset
+                || buffer[offset + kindOffset] != PAYLOAD_TOPIC) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer, offset + kindOffset + 1,
+                length - kindOffset - 1));
+        return BinaryCodec.readString(in);
+    }
+
+    /**
+     * Read the type of an encoded message without decoding the rest of it.
+     *
+     * @param buffer The buffer holding the message.
+     * @param offset The offset of the message in {@code buffer}.
+     * @param length The length of the message.
+     * @return The {@link CommunicatorMessage} type of the message.
+     * @throws IOException If the message is malformed.
+     */
+    public static short peekMessageType (byte[] buffer, int offset, int length) throws IOException {
+        int typeOffset = MAGIC.length + 1;
+        if (!isEncoded(buffer, offset, length) || length < typeOffset + 2) {
+            throw new IOException("Not an encoded message.");
+        }
+        return (short) ((buffer[offset + typeOffset] << 8) | (buffer[offset + typeOffset + 1] & 0xFF));
+    }
+
+    /**
+     * Check whether a buffer holds an encoded message.
+     *
+     * @param buffer The buffer to check. May be {@code null}.
+     * @param offset The offset of the message in {@code buffer}.
+     * @param length The length of the message.
+     * @return {@code true} if the buffer starts with the magic bytes.
+     */
+    public static boolean isEncoded (byte[] buffer, int offset, int length) {
+        return startsWith(buffer, offset, length, MAGIC);
+    }
+
+    /**
+     * Compress data, priming the deflater with the given identifiers. Identifiers which
+     * occur often in the data should come last. At most
+     * {@link #MAX_DICTIONARY_IDENTIFIERS} identifiers are used.
+     *
+     * @param data The data to compress.
+     * @param level The compression level, see {@link Deflater#setLevel(int)}.
+     * @param identifiers The identifiers to prime the dictionary with. May be {@code null}.
+     * @return The compressed frame.
+     * @throws IOException If the frame could not be written.
+     */
+    public static byte[] compress (byte[] data, int level, Collection<String> identifiers) throws IOException {
+        List<String> words = new ArrayList<String>();
+        if (identifiers != null) {
+            for (String identifier : identifiers) {
+                if (words.size() == MAX_DICTIONARY_IDENTIFIERS) {
+                    break;
+                }
+                words.add(identifier);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC_COMPRESSED);
+        out.writeByte(VERSION);
+        out.writeShort(words.size());
+        for (String word : words) {
+            BinaryCodec.writeString(out, word);
+        }
+        out.writeInt(data.length);
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setDictionary(dictionary(words));
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] chunk = new byte[Math.max(64, Math.min(data.length, 1 << 16))];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                out.write(chunk, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decompress a frame created by {@link #compress(byte[], int, Collection)}, holding
+     * at most {@link #MAX_DECOMPRESSED} bytes.
+     *
+     * @param buffer The buffer holding the frame.
+     * @param offset The offset of the frame in {@code buffer}.
+     * @param length The length of the frame.
+     * @return The decompressed data.
+     * @throws IOException If the frame could not be decompressed, or claims to be larger
+     *             than {@link #MAX_DECOMPRESSED} when decompressed.
+     */
+    public static byte[] decompress (byte[] buffer, int offset, int length) throws IOException {
+        return decompress(buffer, offset, length, MAX_DECOMPRESSED);
+    }
+
+    /**
+     * Decompress a frame created by {@link #compress(byte[], int, Collection)}.
+     *
+     * @param buffer The buffer holding the frame.
+     * @param offset The offset of the frame in {@code buffer}.
+     * @param length The length of the frame.
+     * @param maxSize The largest size accepted for the decompressed data, in bytes.
+     * @return The decompressed data.
+     * @throws IOException If the frame could not be decompressed, or claims to be larger
+     *             than {@code maxSize} when decompressed.
+     */
+    public static byte[] decompress (byte[] buffer, int offset, int length, int maxSize) throws IOException {
+        if (!isCompressed(buffer, offset, length)) {
+            throw new IOException("Not a compressed frame.");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer, offset, length));
+        in.skipBytes(MAGIC_COMPRESSED.length);
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported wire format version: " + version);
+        }
+        int count = in.readUnsignedShort();
+        List<String> words = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            words.add(BinaryCodec.readString(in));
+        }
+        int size = in.readInt();
+        if (size < 0 || size > maxSize) {
+            throw new IOException("Compressed frame malformed: size = " + size);
+        }
+        int start = offset + length - in.available();
+        byte[] data = new byte[size];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(buffer, start, offset + length - start);
+            int n = 0;
+            while (n < size) {
+                int read = inflater.inflate(data, n, size - n);
+                if (read == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(dictionary(words));
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new IOException("Compressed frame truncated.");
+                    }
+                }
+                n += read;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed frame malformed: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    /**
+     * Check whether a buffer holds a compressed frame.
+     *
+     * @param buffer The buffer to check. May be {@code null}.
+     * @param offset The offset of the frame in {@code buffer}.
+     * @param length The length of the frame.
+     * @return {@code true} if the buffer starts with the compressed magic bytes.
+     */
+    public static boolean isCompressed (byte[] buffer, int offset, int length) {
+        return startsWith(buffer, offset, length, MAGIC_COMPRESSED);
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private static void writeRoot (DataOutput out, Root root) throws IOException {
+        out.writeByte((root.header != null ? HAS_HEADER : 0) | (root.body != null ? HAS_BODY : 0));
+        if (root.header != null) {
+            BinaryCodec.writeString(out, gson.toJson(root.header, Header.class));
+        }
+        if (root.body != null) {
+            BinaryCodec codec = new BinaryCodec();
+            for (Operation op : root.body) {
+                codec.writeOperation(out, op);
+            }
+            codec.writeEnd(out);
+        }
+    }
+
+    private static Root readRoot (DataInput in) throws IOException {
+        int flags = in.readUnsignedByte();
+        Header header = null;
+        List<Operation> body = null;
+        if ((flags & HAS_HEADER) != 0) {
+            header = gson.fromJson(BinaryCodec.readString(in), Header.class);
+        }
+        if ((flags & HAS_BODY) != 0) {
+            BinaryCodec codec = new BinaryCodec();
+            body = new ArrayList<Operation>();
+            for (Operation op = codec.readOperation(in); op != null; op = codec.readOperation(in)) {
+                body.add(op);
+            }
+        }
+        return new Root(header, body);
+    }
+
+    private static boolean startsWith (byte[] buffer, int offset, int length, byte[] magic) {
+        if (buffer == null || length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (buffer[offset + i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] dictionary (List<String> identifiers) {
+        if (identifiers.isEmpty()) {
+            return PRESET_DICTIONARY;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String identifier : identifiers) {
+            sb.append('"').append(identifier).append('"');
+        }
+        byte[] tail = sb.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] dictionary = Arrays.copyOf(PRESET_DICTIONARY, PRESET_DICTIONARY.length + tail.length);
+        System.arraycopy(tail, 0, dictionary, PRESET_DICTIONARY.length, tail.length);
+        return dictionary;
+    }
+
+    /**
+     * Strings common to every log: JSON keys and the names of operations and keys.
+     */
+    private static byte[] presetDictionary () {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\"header\":{\"version\":\"annotatedVariables\":\"sources\":");
+        sb.append("\"rawType\":\"abstractType\":\"visual\":\"attributes\":");
+        sb.append("\"body\":[{\"operation\":\"source\":\"sourceRows\":[\"group\":");
+        sb.append("\"atomicOperations\":\"identifier\":\"index\":[");
+        for (OperationType type : OperationType.values()) {
+            sb.append('"').append(type.name()).append('"');
+        }
+        for (Key key : Key.values()) {
+            sb.append('"').append(key.name()).append("\":");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
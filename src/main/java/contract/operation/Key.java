@@ -4,5 +4,5 @@ package contract.operation;
  * Names of the operation body values.
  */
 public enum Key {
-    target, source, var1, var2, identifier, operation, index, value, size, halt;
+    target, source, var1, var2, identifier, operation, index, value, size, halt, snapshot;
 }
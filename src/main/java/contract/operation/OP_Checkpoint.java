@@ -0,0 +1,55 @@
+package contract.operation;
+
+import contract.assets.Const;
+import contract.datastructure.StructureSnapshot;
+import contract.wrapper.Operation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A checkpoint holding a snapshot of every data structure, taken before the operation
+ * following it is executed. Checkpoints do not affect data structures when executed, but
+ * allow seeking to any point of a log by restoring the nearest preceding checkpoint and
+ * replaying only the operations after it.
+ */
+public class OP_Checkpoint extends Operation {
+
+    /**
+     * Version number for this class.
+     */
+    private static final long serialVersionUID = Const.VERSION_NUMBER;
+    private static final OperationType OPERATION = OperationType.checkpoint;
+
+    /**
+     * Create a new Checkpoint operation. Note that you must set the snapshots.
+     */
+    public OP_Checkpoint () {
+        super(OPERATION, new HashMap<Key, Object>(), null, null);
+    }
+
+    /**
+     * Set the snapshots of this Checkpoint.
+     *
+     * @param snapshots A map of structure identifiers and their snapshots.
+     */
+    public void setSnapshots (Map<String, StructureSnapshot> snapshots) {
+        body.put(Key.snapshot, snapshots);
+    }
+
+    /**
+     * Returns the snapshots of this Checkpoint.
+     *
+     * @return A map of structure identifiers and their snapshots.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, StructureSnapshot> getSnapshots () {
+        return (Map<String, StructureSnapshot>) body.get(Key.snapshot);
+    }
+
+    @Override
+    public String toString () {
+        Map<String, StructureSnapshot> snapshots = getSnapshots();
+        return "CHECKPOINT: " + (snapshots == null ? "[]" : snapshots.keySet());
+    }
+}
@@ -19,7 +19,14 @@ public enum OperationType {
      * Non-atomic operations
      */
     // ============================================================= //
-    remove(null, 1), swap(Color.BLUEVIOLET, 3);
+    remove(null, 1), swap(Color.BLUEVIOLET, 3),
+
+    // ============================================================= //
+    /*
+     * Meta operations
+     */
+    // ============================================================= //
+    checkpoint(null, 0);
 
     // ============================================================= //
     /*
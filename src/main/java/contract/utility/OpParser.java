@@ -1,9 +1,11 @@
 package contract.utility;
 
 import com.google.gson.internal.LinkedTreeMap;
+import contract.datastructure.StructureSnapshot;
 import contract.wrapper.Locator;
 import contract.wrapper.Operation;
 import contract.operation.Key;
+import contract.operation.OP_Checkpoint;
 import contract.operation.OP_Message;
 import contract.operation.OP_Read;
 import contract.operation.OP_ReadWrite;
@@ -14,6 +16,7 @@ import contract.operation.OperationType;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Contains methods to parse operations. Cannot be instantiated.
@@ -28,6 +31,9 @@ public abstract class OpParser {
     ;
 
     public static Operation unpackOperation (Operation op) {
+        if (isUnpacked(op)) {
+            return op; // Decoded directly by the GsonContructor adapters.
+        }
         switch (op.operation) {
             case read:
             case write:
@@ -38,6 +44,8 @@ public abstract class OpParser {
                 return parseSwap(op);
             case remove:
                 return parseRemove(op);
+            case checkpoint:
+                return parseCheckpoint(op);
             default:
                 System.err.println("Unknown operation type: " + op.operation);
                 break;
@@ -45,6 +53,32 @@ public abstract class OpParser {
         return null;
     }
 
+    /**
+     * Check whether an operation is already an instance of the concrete class for its
+     * type.
+     *
+     * @param op The operation to check.
+     * @return {@code true} if {@code op} needs no unpacking, {@code false} otherwise.
+     */
+    public static boolean isUnpacked (Operation op) {
+        switch (op.operation) {
+            case read:
+                return op instanceof OP_Read;
+            case write:
+                return op instanceof OP_Write;
+            case message:
+                return op instanceof OP_Message;
+            case swap:
+                return op instanceof OP_Swap;
+            case remove:
+                return op instanceof OP_ToggleScope;
+            case checkpoint:
+                return op instanceof OP_Checkpoint;
+            default:
+                return false;
+        }
+    }
+
     @SuppressWarnings("unchecked")
     /**
      * Unpack the arrayVariable used as target/source in some operations.
@@ -116,6 +150,14 @@ public abstract class OpParser {
         return op_swap;
     }
 
+    @SuppressWarnings("unchecked")
+    private static Operation parseCheckpoint (Operation op) {
+        OP_Checkpoint op_checkpoint = new OP_Checkpoint();
+        op_checkpoint.setSnapshots((Map<String, StructureSnapshot>) op.body.get(Key.snapshot));
+        copySourceInfo(op, op_checkpoint);
+        return op_checkpoint;
+    }
+
     private static Operation parseMessage (Operation op) {
         OP_Message op_message = new OP_Message();
         op_message.setMessage((String) op.body.get(Key.value));
@@ -165,8 +207,15 @@ public abstract class OpParser {
         return ensureDoubleArray(op.body.get(Key.value));
     }
 
+    /**
+     * Convert a Double, a List of Doubles or a List of Lists of Doubles to an array of
+     * doubles.
+     *
+     * @param object Should be a double array, a Double, or a (nested) ArrayList of Doubles.
+     * @return An array of doubles, or null.
+     */
     @SuppressWarnings({"unchecked", "rawtypes"})
-    private static double[] ensureDoubleArray (Object object) {
+    public static double[] ensureDoubleArray (Object object) {
         if (object == null) {
             return null;
         }
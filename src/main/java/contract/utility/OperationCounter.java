@@ -155,6 +155,29 @@ public class OperationCounter {
         message.set(0);
     }
 
+    /**
+     * Returns the counts as an array in the order read, write, swap, remove, message.
+     *
+     * @return The counts of this counter.
+     */
+    public int[] getCounts () {
+        return new int[]{read.get(), write.get(), swap.get(), remove.get(), message.get()};
+    }
+
+    /**
+     * Set the counts from an array in the order read, write, swap, remove, message, as
+     * returned by {@link #getCounts()}.
+     *
+     * @param counts The new counts.
+     */
+    public void setCounts (int[] counts) {
+        read.set(counts[0]);
+        write.set(counts[1]);
+        swap.set(counts[2]);
+        remove.set(counts[3]);
+        message.set(counts[4]);
+    }
+
     /**
      * Returns a list of string on the format "OperationType: {@code count}".
      */
@@ -1,7 +1,166 @@
 package contract.utility;
 
+import contract.datastructure.DataStructure;
+import contract.datastructure.StructureSnapshot;
+import contract.operation.Key;
+import contract.operation.OP_Checkpoint;
+import contract.wrapper.Locator;
+import contract.wrapper.Operation;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 public abstract class StructUtil {
     private StructUtil () {
     } // Not to be instantiated.
 
+    private static final Key[] LOCATOR_KEYS = {Key.target, Key.source, Key.var1, Key.var2};
+
+    /**
+     * Execute an operation on every structure it refers to. Operations which do not
+     * affect structures, such as messages and checkpoints, are ignored.
+     *
+     * @param structures A map of identifiers and their structures.
+     * @param op The operation to execute.
+     */
+    public static void execute (Map<String, DataStructure> structures, Operation op) {
+        if (op.operation.numAtomicOperations == 0) {
+            return;
+        }
+        Set<DataStructure> affected = new LinkedHashSet<DataStructure>(4);
+        for (Key key : LOCATOR_KEYS) {
+            Locator locator = OpParser.unpackArrayVariable(op.body.get(key));
+            if (locator != null) {
+                DataStructure ds = structures.get(locator.identifier);
+                if (ds != null) {
+                    affected.add(ds);
+                }
+            }
+        }
+        for (DataStructure ds : affected) {
+            ds.applyOperation(op);
+        }
+    }
+
+    /**
+     * Returns the identifiers of the structures an operation refers to.
+     *
+     * @param op An operation.
+     * @return The identifiers referred to by {@code op}. May be empty.
+     */
+    public static Set<String> identifiers (Operation op) {
+        Set<String> identifiers = new LinkedHashSet<String>(4);
+        if (op.body == null) {
+            return identifiers;
+        }
+        for (Key key : LOCATOR_KEYS) {
+            Locator locator = OpParser.unpackArrayVariable(op.body.get(key));
+            if (locator != null && locator.identifier != null) {
+                identifiers.add(locator.identifier);
+            }
+        }
+        return identifiers;
+    }
+
+    /**
+     * Returns the identifier of the only structure an operation refers to.
+     *
+     * @param op An operation.
+     * @return The identifier, or {@code null} if {@code op} refers to no structure or to
+     * several.
+     */
+    public static String identifier (Operation op) {
+        if (op.body == null) {
+            return null;
+        }
+        String identifier = null;
+        for (Key key : LOCATOR_KEYS) {
+            Locator locator = OpParser.unpackArrayVariable(op.body.get(key));
+            if (locator != null && locator.identifier != null) {
+                if (identifier == null) {
+                    identifier = locator.identifier;
+                } else if (!identifier.equals(locator.identifier)) {
+                    return null;
+                }
+            }
+        }
+        return identifier;
+    }
+
+    /**
+     * Create a checkpoint holding a snapshot of every structure.
+     *
+     * @param structures A map of identifiers and their structures.
+     * @return A checkpoint of the structures.
+     */
+    public static OP_Checkpoint checkpoint (Map<String, DataStructure> structures) {
+        Map<String, StructureSnapshot> snapshots = new HashMap<String, StructureSnapshot>();
+        for (Map.Entry<String, DataStructure> entry : structures.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        OP_Checkpoint checkpoint = new OP_Checkpoint();
+        checkpoint.setSnapshots(snapshots);
+        return checkpoint;
+    }
+
+    /**
+     * Restore every structure to the state held by a checkpoint. Structures missing from
+     * the checkpoint are cleared.
+     *
+     * @param structures A map of identifiers and their structures.
+     * @param checkpoint The checkpoint to restore.
+     */
+    public static void restore (Map<String, DataStructure> structures, OP_Checkpoint checkpoint) {
+        Map<String, StructureSnapshot> snapshots = checkpoint.getSnapshots();
+        for (Map.Entry<String, DataStructure> entry : structures.entrySet()) {
+            StructureSnapshot snapshot = snapshots == null ? null : snapshots.get(entry.getKey());
+            if (snapshot == null) {
+                entry.getValue().clear();
+            } else {
+                entry.getValue().restore(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Bring the structures to the state they have after executing the first
+     * {@code position} operations. The nearest checkpoint at or before {@code position}
+     * is restored and only the operations after it are replayed. If there is no such
+     * checkpoint, the structures are cleared and every operation up to {@code position}
+     * is replayed.
+     *
+     * @param structures A map of identifiers and their structures.
+     * @param operations The operations of the log, which may contain checkpoints.
+     * @param position The number of operations to have executed, counting checkpoints.
+     * @return The number of operations replayed.
+     * @throws IndexOutOfBoundsException If {@code position} is out of range.
+     */
+    public static int seek (Map<String, DataStructure> structures, List<Operation> operations, int position) {
+        if (position < 0 || position > operations.size()) {
+            throw new IndexOutOfBoundsException("Position: " + position + ", Size: " + operations.size());
+        }
+        int start = 0;
+        for (int i = Math.min(position, operations.size() - 1); i >= 0; i--) {
+            Operation op = operations.get(i);
+            if (op instanceof OP_Checkpoint) {
+                restore(structures, (OP_Checkpoint) op);
+                start = i + 1;
+                break;
+            }
+        }
+        if (start == 0) {
+            for (DataStructure ds : structures.values()) {
+                ds.clear();
+            }
+        }
+        int replayed = 0;
+        for (int i = start; i < position; i++) {
+            execute(structures, operations.get(i));
+            replayed++;
+        }
+        return replayed;
+    }
 }
@@ -0,0 +1,71 @@
+package contract.io;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests for {@link DecodePool}: tasks with the same key stay in order, also while one
+ * pool replaces another.
+ */
+public class DecodePoolTest {
+
+    private static final int TASKS = 2000;
+
+    @Test(timeout = 30000)
+    public void orderKeptWhenReplaced () {
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+        DecodePool old = new DecodePool(2);
+        for (int i = 0; i < TASKS; i++) {
+            final int n = i;
+            old.execute("sender", () -> {
+                if (n == 0) {
+                    sleep(200); // Keep the old pool busy while it is replaced.
+                }
+                ran.add(n);
+            });
+        }
+        DecodePool replacement = new DecodePool(3, old);
+        old.close();
+        for (int i = TASKS; i < 2 * TASKS; i++) {
+            final int n = i;
+            replacement.execute("sender", () -> ran.add(n));
+        }
+        replacement.close();
+        replacement.awaitTermination();
+
+        assertEquals(2 * TASKS, ran.size());
+        for (int i = 0; i < ran.size(); i++) {
+            assertEquals(i, (int) ran.get(i));
+        }
+    }
+
+    @Test
+    public void closedPoolRefusesTasks () {
+        DecodePool pool = new DecodePool(1);
+        pool.close();
+        assertFalse(pool.execute("sender", () -> {
+        }));
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private static void sleep (long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package contract.io;
+
+import contract.wrapper.Root;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Stress tests for {@link MpscQueue}. Several producers offer distinct Wrappers while a
+ * single consumer takes them, and every Wrapper must be seen exactly once and in the
+ * order its producer offered it.
+ */
+public class MpscQueueTest {
+
+    private static final int PRODUCERS = 8;
+    private static final int PER_PRODUCER = 100000;
+
+    @Test(timeout = 60000)
+    public void pollSeesEveryRootOnce () throws InterruptedException {
+        stress(false);
+    }
+
+    @Test(timeout = 60000)
+    public void drainToSeesEveryRootOnce () throws InterruptedException {
+        stress(true);
+    }
+
+    @Test
+    public void emptyQueue () {
+        MpscQueue<Root> queue = new MpscQueue<Root>();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        assertEquals(0, queue.drainTo(new ArrayList<Root>()));
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private static void stress (boolean drain) throws InterruptedException {
+        final MpscQueue<Root> queue = new MpscQueue<Root>();
+        final Root[][] roots = new Root[PRODUCERS][PER_PRODUCER];
+        // Position of every Wrapper, producer in the high bits and sequence in the low bits.
+        Map<Root, Long> positions = new IdentityHashMap<Root, Long>(PRODUCERS * PER_PRODUCER * 2);
+        for (int p = 0; p < PRODUCERS; p++) {
+            for (int i = 0; i < PER_PRODUCER; i++) {
+                roots[p][i] = new Root(null, null);
+                positions.put(roots[p][i], ((long) p << 32) | i);
+            }
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final Root[] own = roots[p];
+            Thread producer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (Root root : own) {
+                    queue.offer(root);
+                }
+            }, "Producer-" + p);
+            producer.setDaemon(true);
+            producer.start();
+            producers.add(producer);
+        }
+        start.countDown();
+
+        int[] next = new int[PRODUCERS];
+        int seen = 0;
+        List<Root> drained = new ArrayList<Root>();
+        while (seen < PRODUCERS * PER_PRODUCER) {
+            drained.clear();
+            if (drain) {
+                queue.drainTo(drained);
+            } else {
+                Root root = queue.poll();
+                if (root != null) {
+                    drained.add(root);
+                }
+            }
+            if (drained.isEmpty()) {
+                Thread.yield();
+                continue;
+            }
+            for (Root root : drained) {
+                Long position = positions.remove(root);
+                if (position == null) {
+                    fail("Wrapper returned twice or never offered: " + root);
+                }
+                int producer = (int) (position >>> 32);
+                int sequence = (int) (long) position;
+                assertEquals("order of producer " + producer, next[producer], sequence);
+                next[producer]++;
+                seen++;
+            }
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(positions.isEmpty());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+}
@@ -0,0 +1,127 @@
+package contract.io;
+
+import contract.io.Communicator.CommunicatorMessage;
+import contract.operation.OP_Write;
+import contract.wrapper.Locator;
+import contract.wrapper.Operation;
+import contract.wrapper.Root;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link WireCodec}: every payload survives the round trip, also when
+ * compressed, and malformed input is rejected.
+ */
+public class WireCodecTest {
+
+    private static final int SENDER_ID = 42;
+
+    @Test
+    public void wrapperRoundTrip () throws IOException {
+        Root root = createRoot(100);
+        Root decoded = (Root) roundTrip(new CommunicatorMessage(root, SENDER_ID, CommunicatorMessage.WRAPPER))
+                .payload;
+        assertEquals(root.body.size(), decoded.body.size());
+        assertEquals(root.body.get(99).toString(), decoded.body.get(99).toString());
+    }
+
+    @Test
+    public void chunkTopicAndCreditRoundTrip () throws IOException {
+        Chunk chunk = new Chunk(7, 3, true, createRoot(5));
+        Chunk decodedChunk = (Chunk) roundTrip(new CommunicatorMessage(chunk, SENDER_ID,
+                CommunicatorMessage.CHUNK)).payload;
+        assertEquals(chunk.transferId, decodedChunk.transferId);
+        assertEquals(chunk.sequence, decodedChunk.sequence);
+        assertEquals(chunk.last, decodedChunk.last);
+        assertEquals(5, decodedChunk.root.body.size());
+
+        Topic topic = new Topic("array", createRoot(5));
+        byte[] encoded = WireCodec.encode(new CommunicatorMessage(topic, SENDER_ID, CommunicatorMessage.TOPIC));
+        assertEquals("array", WireCodec.peekTopic(encoded, 0, encoded.length));
+        assertEquals(CommunicatorMessage.TOPIC, WireCodec.peekMessageType(encoded, 0, encoded.length));
+        assertEquals("array", ((Topic) WireCodec.decode(encoded, 0, encoded.length).payload).identifier);
+
+        FlowControl.Credit credit = new FlowControl.Credit(10, 4, 100);
+        FlowControl.Credit decodedCredit = (FlowControl.Credit) roundTrip(new CommunicatorMessage(credit,
+                SENDER_ID, CommunicatorMessage.CREDIT)).payload;
+        assertEquals(credit.received, decodedCredit.received);
+        assertEquals(credit.consumed, decodedCredit.consumed);
+        assertEquals(credit.window, decodedCredit.window);
+    }
+
+    @Test
+    public void compressedRoundTrip () throws IOException {
+        byte[] encoded = WireCodec.encode(new CommunicatorMessage(createRoot(100), SENDER_ID,
+                CommunicatorMessage.WRAPPER));
+        byte[] compressed = WireCodec.compress(encoded, 6, Arrays.asList("array", "tmp"));
+        assertTrue(WireCodec.isCompressed(compressed, 0, compressed.length));
+        assertTrue(compressed.length < encoded.length);
+        byte[] decompressed = WireCodec.decompress(compressed, 0, compressed.length);
+        assertTrue(Arrays.equals(encoded, decompressed));
+        assertNull(WireCodec.peekTopic(decompressed, 0, decompressed.length));
+    }
+
+    @Test
+    public void decompressRejectsOversizedFrames () throws IOException {
+        byte[] encoded = WireCodec.encode(new CommunicatorMessage(createRoot(100), SENDER_ID,
+                CommunicatorMessage.WRAPPER));
+        byte[] compressed = WireCodec.compress(encoded, 6, new ArrayList<String>());
+        try {
+            WireCodec.decompress(compressed, 0, compressed.length, encoded.length - 1);
+            fail("Decompressed more than the limit.");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void truncatedMessageIsRejected () throws IOException {
+        byte[] encoded = WireCodec.encode(new CommunicatorMessage(createRoot(10), SENDER_ID,
+                CommunicatorMessage.WRAPPER));
+        try {
+            WireCodec.decode(encoded, 0, encoded.length / 2);
+            fail("Decoded a truncated message.");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    // ============================================================= //
+    /*
+     *
+     * Utility
+     *
+     */
+    // ============================================================= //
+
+    private static CommunicatorMessage roundTrip (CommunicatorMessage message) throws IOException {
+        byte[] encoded = WireCodec.encode(message);
+        CommunicatorMessage decoded = WireCodec.decode(encoded, 0, encoded.length);
+        assertEquals(message.senderId, decoded.senderId);
+        assertEquals(message.messageType, decoded.messageType);
+        return decoded;
+    }
+
+    private static Root createRoot (int size) {
+        List<Operation> body = new ArrayList<Operation>(size);
+        for (int i = 0; i < size; i++) {
+            OP_Write op = new OP_Write();
+            op.setTarget(new Locator("array", new int[] {i % 50}));
+            op.setSource(new Locator("tmp", null));
+            op.setValue(new double[] {i * 1.5});
+            op.source = "Sort.java";
+            op.sourceRows = new int[] {40, 41};
+            body.add(op);
+        }
+        return new Root(null, body);
+    }
+}